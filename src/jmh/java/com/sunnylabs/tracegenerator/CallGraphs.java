@@ -0,0 +1,47 @@
+package com.sunnylabs.tracegenerator;
+
+/**
+ * Call graph shapes shared by the benchmarks
+ */
+final class CallGraphs {
+  private CallGraphs() {
+  }
+
+  /**
+   * @param shape shallow (a root and two calls), deep (a chain of 20) or wide (a root and 50 calls)
+   * @return the root operation of the call graph
+   */
+  static Operation build(String shape) {
+    Operation root = operation(0);
+    switch (shape) {
+      case "shallow":
+        root.addCall(operation(1));
+        root.addCall(operation(2));
+        break;
+      case "deep":
+        Operation last = root;
+        for (int i = 1; i < 20; i++) {
+          Operation next = operation(i);
+          last.addCall(next);
+          last = next;
+        }
+        break;
+      case "wide":
+        for (int i = 1; i <= 50; i++) {
+          root.addCall(operation(i));
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("unknown shape " + shape);
+    }
+    return root;
+  }
+
+  private static Operation operation(int i) {
+    Operation op = new Operation("operation" + i);
+    op.setApplication("application");
+    op.setService("service" + i % 5);
+    op.getTags().put("http.method", "GET");
+    return op;
+  }
+}
@@ -0,0 +1,60 @@
+package com.sunnylabs.tracegenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GenerateTraceBenchmark {
+  @Param({"shallow", "deep", "wide"})
+  public String shape;
+
+  private Operation root;
+  private TracePlan plan;
+  private final UUID traceId = UUID.randomUUID();
+
+  @Setup
+  public void setup() {
+    root = CallGraphs.build(shape);
+    plan = TracePlan.compile(root);
+  }
+
+  @Benchmark
+  public List<Span> operation() {
+    return root.generateTrace(traceId);
+  }
+
+  @Benchmark
+  public List<Span> plan() {
+    return plan.generateTrace(traceId);
+  }
+
+  @Benchmark
+  public void operationStreamed(Blackhole blackhole) throws IOException {
+    root.generateTrace(traceId, blackhole::consume);
+  }
+
+  @Benchmark
+  public void planStreamed(Blackhole blackhole) throws IOException {
+    plan.generateTrace(traceId, blackhole::consume);
+  }
+}
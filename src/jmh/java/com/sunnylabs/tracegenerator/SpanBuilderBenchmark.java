@@ -0,0 +1,32 @@
+package com.sunnylabs.tracegenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpanBuilderBenchmark {
+  @Benchmark
+  public Span build() {
+    return new Span.Builder("operation", 1600000000000L, 100, "source").
+        setIdentityTags("application", "cluster", "service", "shard").
+        addTag("http.method", "GET").
+        errorChance(5).
+        build();
+  }
+
+  @Benchmark
+  public Span buildDefaults() {
+    return new Span.Builder().build();
+  }
+}
@@ -0,0 +1,86 @@
+package com.sunnylabs.tracegenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TopologyBenchmark {
+  private byte[] exampleConfig;
+  private Topology loaded;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    try (InputStream in = getClass().getClassLoader().getResourceAsStream("exampleConfig.yaml")) {
+      exampleConfig = in.readAllBytes();
+    }
+    loaded = new Topology(0, 0, 0, 0);
+    loaded.load(new ByteArrayInputStream(exampleConfig));
+  }
+
+  @Benchmark
+  public Topology loadExampleConfig() {
+    Topology topology = new Topology(0, 0, 0, 0);
+    topology.load(new ByteArrayInputStream(exampleConfig));
+    return topology;
+  }
+
+  @Benchmark
+  public Topology loadRandom(RandomSize size) {
+    // a fixed seed keeps every invocation building the same topology
+    Topology topology = new Topology(size.apps, size.services, size.operations, 3, new Random(1));
+    topology.load(new ByteArrayInputStream(new byte[0]));
+    return topology;
+  }
+
+  @Benchmark
+  public List<Operation> entrypoints() {
+    return loaded.entrypoints();
+  }
+
+  @Benchmark
+  public Operation randomEntrypoint() {
+    return loaded.randomEntrypoint(RandomStreams.current());
+  }
+
+  @State(Scope.Benchmark)
+  public static class RandomSize {
+    /**
+     * apps x services per app x operations per service of the random topology
+     */
+    @Param({"5x10x5", "10x50x12"})
+    public String size;
+    private int apps;
+    private int services;
+    private int operations;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      String[] parts = size.split("x");
+      apps = Integer.parseInt(parts[0]);
+      services = Integer.parseInt(parts[1]);
+      operations = Integer.parseInt(parts[2]);
+    }
+  }
+}
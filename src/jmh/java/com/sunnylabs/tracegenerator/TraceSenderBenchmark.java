@@ -0,0 +1,102 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.Utils;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+import com.wavefront.sdk.entities.tracing.WavefrontTracingSpanSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceSenderBenchmark {
+  @Param({"shallow", "wide"})
+  public String shape;
+
+  private List<Span> trace;
+  private final SpanBatch batch = new SpanBatch();
+  private TraceSender nullSender;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+  private final UUID traceId = UUID.randomUUID();
+
+  @Setup
+  public void setup() {
+    trace = CallGraphs.build(shape).generateTrace(traceId);
+    trace.forEach(batch::add);
+    nullSender = new TraceSender(new NullSender());
+  }
+
+  @Benchmark
+  public void flush() throws IOException {
+    trace.forEach(nullSender::addSpan);
+    nullSender.flush();
+  }
+
+  @Benchmark
+  public void encodeSdk(Blackhole blackhole) {
+    for (Span span : trace) {
+      blackhole.consume(Utils.tracingSpanToLineData(span.operationName, span.startTime,
+          span.duration, span.source, traceId, span.spanId(), span.parents(), span.followsFrom,
+          span.tagList(), span.spanLogs(), "default"));
+    }
+  }
+
+  @Benchmark
+  public int encodeBuffer() {
+    buffer.clear();
+    for (Span span : trace) {
+      SpanLineEncoder.encode(buffer, span.operationName, span.startTime, span.duration,
+          span.source, traceId, span.spanId(), span.parents(), span.followsFrom, span.tagList());
+    }
+    return buffer.position();
+  }
+
+  @Benchmark
+  public int encodeTemplate() {
+    buffer.clear();
+    for (Span span : trace) {
+      span.template.encode(buffer, span);
+    }
+    return buffer.position();
+  }
+
+  @Benchmark
+  public int encodeBatch() {
+    buffer.clear();
+    for (int row = 0; row < batch.rows(); row++) {
+      batch.template(row).encode(buffer, batch, row);
+    }
+    return buffer.position();
+  }
+
+  /**
+   * Discards spans so only the sender's own overhead is measured
+   */
+  private static class NullSender implements WavefrontTracingSpanSender {
+    @Override
+    public void sendSpan(String name, long startMillis, long durationMillis, String source,
+                         UUID traceId, UUID spanId, List<UUID> parents, List<UUID> followsFrom,
+                         List<Pair<String, String>> tags, List<SpanLog> spanLogs) {
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * Samples indexes from a fixed discrete distribution in constant time using Vose's alias method
+ * <p>
+ * The tables are built once and only read afterwards, so a sampler can be shared between threads
+ * as long as each thread supplies its own {@link Random}.
+ */
+public class AliasSampler {
+  private final double[] probability;
+  private final int[] alias;
+
+  /**
+   * @param weights relative, non-negative weight of each index; at least one must be positive
+   */
+  public AliasSampler(double[] weights) {
+    int n = weights.length;
+    if (n == 0) {
+      throw new IllegalArgumentException("at least one weight is required");
+    }
+    double total = 0;
+    for (double w : weights) {
+      if (!(w >= 0) || Double.isInfinite(w)) {
+        throw new IllegalArgumentException("weights must be finite and non-negative");
+      }
+      total += w;
+    }
+    if (!(total > 0)) {
+      throw new IllegalArgumentException("at least one weight must be positive");
+    }
+
+    probability = new double[n];
+    alias = new int[n];
+    double[] scaled = new double[n];
+    Deque<Integer> small = new ArrayDeque<>();
+    Deque<Integer> large = new ArrayDeque<>();
+    for (int i = 0; i < n; i++) {
+      scaled[i] = weights[i] * n / total;
+      if (scaled[i] < 1) {
+        small.push(i);
+      } else {
+        large.push(i);
+      }
+    }
+    while (!small.isEmpty() && !large.isEmpty()) {
+      int less = small.pop();
+      int more = large.pop();
+      probability[less] = scaled[less];
+      alias[less] = more;
+      scaled[more] = scaled[more] + scaled[less] - 1;
+      if (scaled[more] < 1) {
+        small.push(more);
+      } else {
+        large.push(more);
+      }
+    }
+    // whatever is left is 1 up to rounding error
+    while (!large.isEmpty()) {
+      probability[large.pop()] = 1;
+    }
+    while (!small.isEmpty()) {
+      probability[small.pop()] = 1;
+    }
+  }
+
+  /**
+   * @return the number of indexes in the distribution
+   */
+  public int size() {
+    return probability.length;
+  }
+
+  /**
+   * @param random source of randomness owned by the calling thread
+   * @return an index between 0 and {@link #size()} drawn according to the weights
+   */
+  public int sample(Random random) {
+    int column = random.nextInt(probability.length);
+    return random.nextDouble() < probability[column] ? column : alias[column];
+  }
+}
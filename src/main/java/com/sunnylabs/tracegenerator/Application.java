@@ -1,10 +1,10 @@
 package com.sunnylabs.tracegenerator;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.UUID;
 
 /**
@@ -40,9 +40,36 @@ public class Application implements TraceGenerator {
     return Collections.emptyList();
   }
 
+  /**
+   * Generate a trace for a random service in the application, pushing spans as they are generated
+   *
+   * @param traceId UUID to add as the traceId for generated spans
+   * @param sink    receives the spans
+   * @return the number of spans generated
+   * @throws IOException if the sink failed
+   */
+  @Override
+  public int generateTrace(UUID traceId, SpanSink sink) throws IOException {
+    Service service = services.get(getRandomService());
+    return service == null ? 0 : service.generateTrace(traceId, sink);
+  }
+
+  /**
+   * Generate a trace for a random service in the application into the rows of a batch
+   *
+   * @param traceId UUID to add as the traceId for generated spans
+   * @param batch   receives the spans
+   * @return the number of spans generated
+   */
+  @Override
+  public int generateTrace(UUID traceId, SpanBatch batch) {
+    Service service = services.get(getRandomService());
+    return service == null ? 0 : service.generateTrace(traceId, batch);
+  }
+
   private String getRandomService() {
     List<String> keys = new ArrayList<>(services.keySet());
-    return keys.get(new Random().nextInt(keys.size()));
+    return keys.get(RandomStreams.current().nextInt(keys.size()));
   }
 
 
@@ -0,0 +1,65 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.Random;
+
+/**
+ * The distribution of time between trace arrivals
+ */
+@FunctionalInterface
+public interface ArrivalProcess {
+  /**
+   * @param meanGap the average gap at the current rate
+   * @param random  the calling thread's random source
+   * @return the gap before the next arrival, in the same unit as the mean
+   */
+  double nextGap(double meanGap, Random random);
+
+  /**
+   * @return perfectly regular arrivals
+   */
+  static ArrivalProcess fixed() {
+    return (meanGap, random) -> meanGap;
+  }
+
+  /**
+   * @return exponentially distributed gaps, i.e. a Poisson process of independent arrivals
+   */
+  static ArrivalProcess poisson() {
+    return (meanGap, random) -> -Math.log(1 - random.nextDouble()) * meanGap;
+  }
+
+  /**
+   * Heavy-tailed gaps: mostly short, with occasional long pauses, so arrivals come in bursts
+   *
+   * @param shape Pareto shape, greater than 1; the smaller, the burstier
+   * @return Pareto distributed gaps with the requested mean
+   */
+  static ArrivalProcess pareto(double shape) {
+    if (!(shape > 1)) {
+      throw new IllegalArgumentException("Pareto shape must be greater than 1");
+    }
+    double scale = (shape - 1) / shape;
+    return (meanGap, random) ->
+        meanGap * scale / Math.pow(1 - random.nextDouble(), 1 / shape);
+  }
+
+  /**
+   * Build an arrival process by name
+   *
+   * @param name "fixed", "poisson" or "pareto", which uses a shape of 1.5
+   * @return the arrival process
+   * @throws IllegalArgumentException if the name is not known
+   */
+  static ArrivalProcess named(String name) {
+    switch (name) {
+      case "fixed":
+        return fixed();
+      case "poisson":
+        return poisson();
+      case "pareto":
+        return pareto(1.5);
+      default:
+        throw new IllegalArgumentException("Unknown arrival process " + name);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules open-loop trace arrivals whose rate follows a {@link TrafficShape}
+ * <p>
+ * Each arrival is scheduled from the previous arrival's intended time, never from when the
+ * previous trace finished sending, so a slow send does not push the schedule back. The time by
+ * which the caller is released after an arrival was due is the scheduling lag, which grows when
+ * generation or sending can't keep up. Measuring it keeps coordinated omission visible.
+ * <p>
+ * A scheduler is not thread safe and is meant to be owned by a single generating thread.
+ */
+public class ArrivalScheduler {
+  // how long to wait before checking again while the shape has no traffic
+  static final long IDLE_STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final TrafficShape shape;
+  private final ArrivalProcess arrivals;
+  private final double share;
+  private long startNanos;
+  private long startMillis;
+  private long nextDeadline;
+  private boolean idle;
+
+  /**
+   * @param shape    the total rate over time
+   * @param arrivals the distribution of time between arrivals
+   * @param share    the fraction of the total rate this scheduler produces, e.g. 1 / workers
+   */
+  public ArrivalScheduler(TrafficShape shape, ArrivalProcess arrivals, double share) {
+    if (!(share > 0)) {
+      throw new IllegalArgumentException("share must be positive");
+    }
+    this.shape = shape;
+    this.arrivals = arrivals;
+    this.share = share;
+  }
+
+  /**
+   * Start the schedule now, with the first arrival one gap away
+   */
+  public void start() {
+    startNanos = System.nanoTime();
+    startMillis = System.currentTimeMillis();
+    schedule(startNanos);
+  }
+
+  /**
+   * Block until the next arrival is due
+   *
+   * @return how many nanoseconds past the arrival time the caller was released, or -1 if there
+   * was no arrival because the shape had no traffic; call again either way
+   */
+  public long awaitNext() {
+    long lag = RatePacer.awaitDeadline(nextDeadline);
+    if (idle) {
+      schedule(nextDeadline);
+      return -1;
+    }
+    return lag;
+  }
+
+  /**
+   * Schedule the arrival after the one just handled
+   */
+  public void advance() {
+    schedule(nextDeadline);
+  }
+
+  /**
+   * @return the {@link System#nanoTime()} value at which the next arrival is due
+   */
+  public long nextDeadline() {
+    return nextDeadline;
+  }
+
+  /**
+   * @return the total rate the shape gives for now, in traces per second
+   */
+  public double currentRate() {
+    return shape.rate(millisAt(System.nanoTime()));
+  }
+
+  private void schedule(long from) {
+    double rate = shape.rate(millisAt(from)) * share;
+    idle = !(rate > 0);
+    if (idle) {
+      nextDeadline = from + IDLE_STEP_NANOS;
+    } else {
+      nextDeadline = from + (long) arrivals.nextGap(1_000_000_000d / rate,
+          RandomStreams.current());
+    }
+  }
+
+  private long millisAt(long nanos) {
+    return startMillis + TimeUnit.NANOSECONDS.toMillis(nanos - startNanos);
+  }
+}
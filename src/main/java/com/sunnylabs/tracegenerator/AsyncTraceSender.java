@@ -0,0 +1,122 @@
+package com.sunnylabs.tracegenerator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link TraceSender} that hands each finished trace to a shared {@link TraceQueue} instead of
+ * sending it on the generating thread
+ * <p>
+ * Like any TraceSender it holds the trace in progress, so each generating thread should use its
+ * own; the queue they share is thread safe.
+ */
+public class AsyncTraceSender extends TraceSender {
+  private final TraceQueue queue;
+
+  /**
+   * @param queue the queue drained by the writer threads
+   */
+  public AsyncTraceSender(TraceQueue queue) {
+    this(queue, Span.idGenerator());
+  }
+
+  /**
+   * @param queue       the queue drained by the writer threads
+   * @param idGenerator generator for trace ids
+   */
+  public AsyncTraceSender(TraceQueue queue, IdGenerator idGenerator) {
+    super(null, idGenerator);
+    this.queue = queue;
+  }
+
+  /**
+   * Queue the collected spans as one trace and start a new trace. Traces dropped by the queue's
+   * overflow policy are counted by the queue rather than reported as errors.
+   *
+   * @throws IOException if interrupted while waiting for queue space
+   */
+  @Override
+  public void flush() throws IOException {
+    if (!spans.isEmpty()) {
+      List<Span> trace = spans;
+      spans = new ArrayList<>();
+      enqueue(trace);
+    }
+    nextTrace();
+  }
+
+  @Override
+  public void send(List<Span> trace) throws IOException {
+    if (!spans.isEmpty()) {
+      super.send(trace);
+      return;
+    }
+    enqueue(trace);
+    nextTrace();
+  }
+
+  /**
+   * Generate a trace and queue it. The queue hands whole traces to the writers, so the trace is
+   * collected first rather than streamed.
+   */
+  @Override
+  public int stream(TraceGenerator tracer) throws IOException {
+    List<Span> trace = new ArrayList<>();
+    tracer.generateTrace(traceId, trace::add);
+    send(trace);
+    return trace.size();
+  }
+
+  /**
+   * Queue each trace in a batch as its own entry, copying its rows so the writers can encode them
+   * directly, and clear the batch. A trace's rows are consecutive, and spans kept as objects go
+   * with the rows of the same trace.
+   *
+   * @throws IOException if interrupted while waiting for queue space
+   */
+  @Override
+  public void send(SpanBatch batch) throws IOException {
+    if (!spans.isEmpty()) {
+      flush();
+    }
+    try {
+      List<Span> others = batch.others();
+      int rows = batch.rows();
+      int row = 0;
+      int other = 0;
+      while (row < rows || other < others.size()) {
+        long high;
+        long low;
+        if (row < rows) {
+          high = batch.traceIdHigh(row);
+          low = batch.traceIdLow(row);
+        } else {
+          high = others.get(other).traceIdHigh;
+          low = others.get(other).traceIdLow;
+        }
+        int end = row;
+        while (end < rows && batch.traceIdHigh(end) == high && batch.traceIdLow(end) == low) {
+          end++;
+        }
+        SpanBatch trace = batch.copy(row, end);
+        while (other < others.size() && others.get(other).traceIdHigh == high &&
+            others.get(other).traceIdLow == low) {
+          trace.add(others.get(other++));
+        }
+        trace.endTrace();
+        queue.submit(trace);
+        row = end;
+      }
+    } finally {
+      batch.clear();
+    }
+  }
+
+  private void enqueue(List<Span> trace) throws IOException {
+    for (Span span : trace) {
+      span.traceId(traceId);
+    }
+    queue.submit(trace);
+  }
+}
@@ -0,0 +1,355 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.common.BufferFlusher;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Generates the traffic of a past period as fast as it can be sent
+ * <p>
+ * Trace start times follow a {@link TrafficShape} over the period on a virtual {@link TraceClock},
+ * so nothing waits for the wall clock and a week of traffic takes only as long as generating and
+ * sending it. The period is split into equal consecutive slices, one per worker thread, and each
+ * worker owns its {@link TraceSender} so workers never coordinate.
+ */
+public class Backfill {
+  private static final Logger log = Logger.getLogger(Backfill.class.getName());
+  // how far to skip ahead while the shape has no traffic
+  private static final long IDLE_STEP_MILLIS = 1000;
+
+  private final TopologyHolder topology;
+  private final Supplier<TraceSender> senders;
+  private final long startMillis;
+  private final long endMillis;
+  private final TrafficShape shape;
+  private final ArrivalProcess arrivals;
+  private final int workerCount;
+  private final boolean compiledPlans;
+  private final boolean streaming;
+  private final int batchSpans;
+  private final Long seed;
+  private final GeneratorMetrics metrics;
+  private final LongAdder traces = new LongAdder();
+  private final LongAdder spans = new LongAdder();
+  private final LongAdder sendErrors = new LongAdder();
+
+  private Backfill(Builder builder) {
+    this.topology = builder.topology;
+    this.senders = builder.senders;
+    this.startMillis = builder.start.toEpochMilli();
+    this.endMillis = builder.end.toEpochMilli();
+    this.shape = builder.shape != null ? builder.shape :
+        TrafficShape.constant(builder.tracesPerSecond);
+    this.arrivals = builder.arrivals;
+    this.workerCount = builder.workers;
+    this.compiledPlans = builder.compiledPlans;
+    this.streaming = builder.streaming;
+    this.batchSpans = builder.batchSpans;
+    this.seed = builder.seed;
+    this.metrics = builder.metrics;
+    metrics.bindEntrypoints(topology.current().entrypoints());
+    topology.onSwap(t -> metrics.bindEntrypoints(t.entrypoints()));
+  }
+
+  /**
+   * Generate the whole period and wait for it to finish
+   *
+   * @throws InterruptedException if interrupted while waiting for the workers
+   */
+  public void run() throws InterruptedException {
+    long begin = System.nanoTime();
+    List<Thread> threads = new ArrayList<>();
+    long length = endMillis - startMillis;
+    for (int i = 0; i < workerCount; i++) {
+      long from = startMillis + length * i / workerCount;
+      long to = startMillis + length * (i + 1) / workerCount;
+      Worker worker = new Worker(i, senders.get(), from, to);
+      Thread thread = new Thread(worker, "trace-backfill-" + i);
+      threads.add(thread);
+      thread.start();
+    }
+    try {
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    } catch (InterruptedException e) {
+      threads.forEach(Thread::interrupt);
+      throw e;
+    }
+    double seconds = Math.max(System.nanoTime() - begin, 1) / 1_000_000_000d;
+    log.info(String.format("Backfilled %d traces, %d spans from %s to %s in %.1f s " +
+            "(%.0fx real time), %d send errors", traces.sum(), spans.sum(),
+        Instant.ofEpochMilli(startMillis), Instant.ofEpochMilli(endMillis), seconds,
+        length / 1000d / seconds, sendErrors.sum()));
+  }
+
+  /**
+   * @return total traces sent
+   */
+  public long tracesSent() {
+    return traces.sum();
+  }
+
+  /**
+   * @return total spans sent
+   */
+  public long spansSent() {
+    return spans.sum();
+  }
+
+  /**
+   * @return total traces that failed to send
+   */
+  public long sendErrors() {
+    return sendErrors.sum();
+  }
+
+  private class Worker implements Runnable {
+    private final int index;
+    private final TraceSender traceSender;
+    private final SpanBatch batch;
+    private final long from;
+    private final long to;
+
+    private Worker(int index, TraceSender traceSender, long from, long to) {
+      this.index = index;
+      this.traceSender = traceSender;
+      this.batch = batchSpans > 0 ? new SpanBatch(batchSpans) : null;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public void run() {
+      if (seed != null) {
+        RandomStreams.bind(RandomStreams.split(seed, index + 1));
+      }
+      try {
+        double time = from;
+        while (time < to && !Thread.currentThread().isInterrupted()) {
+          double rate = shape.rate((long) time);
+          if (!(rate > 0)) {
+            time += IDLE_STEP_MILLIS;
+            continue;
+          }
+          TraceClock.set((long) time);
+          sendTrace();
+          time += arrivals.nextGap(1000 / rate, RandomStreams.current());
+        }
+        if (batch != null) {
+          sendBatch();
+        }
+        if (traceSender.sender instanceof BufferFlusher) {
+          ((BufferFlusher) traceSender.sender).flush();
+        }
+      } catch (IOException e) {
+        sendErrors.increment();
+        metrics.recordSendError();
+      } finally {
+        TraceClock.unset();
+      }
+    }
+
+    private void sendTrace() {
+      long begin = System.nanoTime();
+      Topology current = topology.current();
+      int entrypoint = current.sampleEntrypoint(RandomStreams.current());
+      TraceGenerator generator = compiledPlans ?
+          current.plans().get(entrypoint) : current.entrypoints().get(entrypoint);
+      if (batch != null) {
+        int count = traceSender.generate(generator, batch);
+        metrics.recordTrace(entrypoint, count, System.nanoTime() - begin);
+        if (batch.size() >= batchSpans) {
+          sendBatch();
+        }
+        return;
+      }
+      int sent;
+      try {
+        if (streaming) {
+          sent = traceSender.stream(generator);
+        } else {
+          List<Span> trace = generator.generateTrace(traceSender.traceId);
+          sent = trace.size();
+          traceSender.send(trace);
+        }
+      } catch (IOException e) {
+        sendErrors.increment();
+        metrics.recordSendError();
+        return;
+      }
+      metrics.recordTrace(entrypoint, sent, System.nanoTime() - begin);
+      traces.increment();
+      spans.add(sent);
+    }
+
+    private void sendBatch() {
+      int batchTraces = batch.traces();
+      int batchSize = batch.size();
+      try {
+        traceSender.send(batch);
+      } catch (IOException e) {
+        sendErrors.increment();
+        metrics.recordSendError();
+        return;
+      }
+      traces.add(batchTraces);
+      spans.add(batchSize);
+    }
+  }
+
+  public static class Builder {
+    private TopologyHolder topology;
+    private Supplier<TraceSender> senders;
+    private Instant start;
+    private Instant end;
+    private double tracesPerSecond;
+    private TrafficShape shape;
+    private ArrivalProcess arrivals = ArrivalProcess.fixed();
+    private int workers = 1;
+    private boolean compiledPlans;
+    private boolean streaming;
+    private int batchSpans;
+    private Long seed;
+    private GeneratorMetrics metrics;
+
+    public Backfill build() {
+      if (topology == null || senders == null) {
+        throw new IllegalArgumentException("a topology and senders are required");
+      }
+      if (!(tracesPerSecond > 0)) {
+        throw new IllegalArgumentException("a positive traces per second rate is required");
+      }
+      if (start == null || end == null || !start.isBefore(end)) {
+        throw new IllegalArgumentException("a start before the end is required");
+      }
+      if (workers < 1) {
+        throw new IllegalArgumentException("at least one worker is required");
+      }
+      if (metrics == null) {
+        metrics = GeneratorMetrics.disabled();
+      }
+      return new Backfill(this);
+    }
+
+    /**
+     * @param topology the topology from which to pick entrypoints
+     */
+    public Builder topology(Topology topology) {
+      this.topology = topology == null ? null : new TopologyHolder(topology);
+      return this;
+    }
+
+    /**
+     * @param topology holds the topology from which to pick entrypoints
+     */
+    public Builder topology(TopologyHolder topology) {
+      this.topology = topology;
+      return this;
+    }
+
+    /**
+     * @param senders creates a sender for each worker, called once per worker
+     */
+    public Builder senders(Supplier<TraceSender> senders) {
+      this.senders = senders;
+      return this;
+    }
+
+    /**
+     * @param start start of the period, inclusive
+     */
+    public Builder start(Instant start) {
+      this.start = start;
+      return this;
+    }
+
+    /**
+     * @param end end of the period, exclusive
+     */
+    public Builder end(Instant end) {
+      this.end = end;
+      return this;
+    }
+
+    /**
+     * @param tracesPerSecond target traces per second, or the configured rate a shape was built
+     *                        from; must be positive
+     */
+    public Builder tracesPerSecond(double tracesPerSecond) {
+      this.tracesPerSecond = tracesPerSecond;
+      return this;
+    }
+
+    /**
+     * @param shape the trace rate over the period, a constant tracesPerSecond if not set
+     */
+    public Builder shape(TrafficShape shape) {
+      this.shape = shape;
+      return this;
+    }
+
+    /**
+     * @param arrivals distribution of time between traces, fixed if not set
+     */
+    public Builder arrivals(ArrivalProcess arrivals) {
+      this.arrivals = arrivals;
+      return this;
+    }
+
+    /**
+     * @param workers number of worker threads, each generating an equal slice of the period
+     */
+    public Builder workers(int workers) {
+      this.workers = workers;
+      return this;
+    }
+
+    /**
+     * @param compiledPlans generate from {@link Topology#plans()} instead of walking operations
+     */
+    public Builder compiledPlans(boolean compiledPlans) {
+      this.compiledPlans = compiledPlans;
+      return this;
+    }
+
+    /**
+     * @param streaming send each span as soon as it is generated
+     */
+    public Builder streaming(boolean streaming) {
+      this.streaming = streaming;
+      return this;
+    }
+
+    /**
+     * @param batchSpans generate traces into a {@link SpanBatch} and send it in bulk once it
+     *                   holds this many spans, 0 to send each trace on its own
+     */
+    public Builder batchSpans(int batchSpans) {
+      this.batchSpans = batchSpans;
+      return this;
+    }
+
+    /**
+     * @param seed if not null, give each worker its own random stream derived from this seed
+     */
+    public Builder seed(Long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /**
+     * @param metrics where to record generation and send metrics, none if not set
+     */
+    public Builder metrics(GeneratorMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package com.sunnylabs.tracegenerator;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Creates ids from random bytes that are fetched in bulk, one buffer per thread
+ * <p>
+ * Filling a buffer of many ids at once amortizes the per-call cost of the random source, which
+ * keeps secure ids affordable without sharing a {@link SecureRandom} between threads.
+ */
+public class BatchIdGenerator implements IdGenerator {
+  private static final int DEFAULT_BATCH_SIZE = 256;
+  private static final int ID_BYTES = 16;
+
+  private final ThreadLocal<Batch> batches;
+
+  /**
+   * Fill batches of 256 ids from a {@link SecureRandom} per thread
+   */
+  public BatchIdGenerator() {
+    this(SecureRandom::new, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * @param sources   creates the random source for each thread
+   * @param batchSize how many ids to fill at once
+   */
+  public BatchIdGenerator(Supplier<Random> sources, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be positive");
+    }
+    batches = ThreadLocal.withInitial(() -> new Batch(sources.get(), batchSize));
+  }
+
+  @Override
+  public UUID nextId() {
+    ByteBuffer buffer = next();
+    return IdGenerator.randomUuid(buffer.getLong(), buffer.getLong());
+  }
+
+  @Override
+  public void nextId(Span span) {
+    ByteBuffer buffer = next();
+    span.spanIdHigh = IdGenerator.randomHigh(buffer.getLong());
+    span.spanIdLow = IdGenerator.randomLow(buffer.getLong());
+  }
+
+  @Override
+  public void nextId(long[] ids, int offset) {
+    ByteBuffer buffer = next();
+    ids[offset] = IdGenerator.randomHigh(buffer.getLong());
+    ids[offset + 1] = IdGenerator.randomLow(buffer.getLong());
+  }
+
+  private ByteBuffer next() {
+    Batch batch = batches.get();
+    ByteBuffer buffer = batch.buffer;
+    if (!buffer.hasRemaining()) {
+      batch.random.nextBytes(batch.bytes);
+      buffer.clear();
+    }
+    return buffer;
+  }
+
+  private static class Batch {
+    private final Random random;
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+
+    private Batch(Random random, int batchSize) {
+      this.random = random;
+      this.bytes = new byte[batchSize * ID_BYTES];
+      this.buffer = ByteBuffer.wrap(bytes);
+      // start empty so the first id triggers a fill
+      buffer.position(buffer.limit());
+    }
+  }
+}
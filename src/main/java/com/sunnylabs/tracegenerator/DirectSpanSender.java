@@ -0,0 +1,27 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.entities.tracing.WavefrontTracingSpanSender;
+
+import java.io.IOException;
+
+/**
+ * A sender that takes spans and batches as they are, so template spans can be written without
+ * building the argument lists {@link WavefrontTracingSpanSender#sendSpan} takes
+ */
+public interface DirectSpanSender extends WavefrontTracingSpanSender {
+  /**
+   * Send a span
+   *
+   * @param span the span, with its trace id set
+   * @throws IOException if the span could not be sent
+   */
+  void send(Span span) throws IOException;
+
+  /**
+   * Send every span in a batch, leaving the batch as it is
+   *
+   * @param batch the spans
+   * @throws IOException if a span could not be sent
+   */
+  void send(SpanBatch batch) throws IOException;
+}
@@ -0,0 +1,363 @@
+package com.sunnylabs.tracegenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A stand-in for a Wavefront proxy tracing port that validates and counts spans
+ * <p>
+ * One selector thread accepts any number of connections and reads them into a reusable direct
+ * buffer per connection. Complete lines are validated in place with {@link SpanLineParser}, so
+ * receiving allocates nothing per span and the proxy keeps up with many generator threads. Valid
+ * spans, root spans (one per trace), invalid lines and bytes are counted; a line longer than the
+ * read buffer is counted as invalid and skipped.
+ * <p>
+ * Use it from tests to measure the real network path end to end, or run {@link #main} as a
+ * standalone listener on a perf box.
+ */
+public class FakeProxy implements Closeable {
+  public static final int DEFAULT_PORT = 30001;
+  public static final int DEFAULT_READ_BUFFER_SIZE = 64 * 1024;
+  private static final Logger log = Logger.getLogger(FakeProxy.class.getName());
+
+  private final ServerSocketChannel server;
+  private final Selector selector;
+  private final int readBufferSize;
+  private final LongAdder spans = new LongAdder();
+  private final LongAdder traces = new LongAdder();
+  private final LongAdder invalid = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final AtomicInteger connections = new AtomicInteger();
+  private volatile boolean running;
+  private Thread acceptor;
+  private ScheduledExecutorService reporter;
+  private long lastReportNanos;
+  private long lastReportSpans;
+  private long lastReportTraces;
+  private long lastReportBytes;
+
+  /**
+   * Listen on a port of every local address
+   *
+   * @param port the tracing port, 0 for any free port
+   * @throws IOException if the port could not be bound
+   */
+  public FakeProxy(int port) throws IOException {
+    this(new InetSocketAddress(port), DEFAULT_READ_BUFFER_SIZE);
+  }
+
+  /**
+   * @param address        address to listen on, with port 0 for any free port
+   * @param readBufferSize size in bytes of each connection's read buffer, which is also the
+   *                       longest line accepted
+   * @throws IOException if the address could not be bound
+   */
+  public FakeProxy(InetSocketAddress address, int readBufferSize) throws IOException {
+    this.readBufferSize = readBufferSize;
+    selector = Selector.open();
+    server = ServerSocketChannel.open();
+    try {
+      server.bind(address);
+      server.configureBlocking(false);
+      server.register(selector, SelectionKey.OP_ACCEPT);
+    } catch (IOException e) {
+      server.close();
+      selector.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Listen on a port and log what was received every few seconds until killed
+   *
+   * @param args optional port, default 30001, and report interval in seconds, default 10
+   * @throws IOException          if the port could not be bound
+   * @throws InterruptedException if interrupted while running
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    int reportInterval = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    FakeProxy proxy = new FakeProxy(port);
+    proxy.start(reportInterval);
+    log.info("Fake proxy listening for spans on port " + proxy.port());
+    proxy.acceptor.join();
+  }
+
+  /**
+   * Start accepting connections
+   *
+   * @param reportIntervalSeconds how often to log received rates, 0 to disable
+   */
+  public synchronized void start(int reportIntervalSeconds) {
+    if (running) {
+      return;
+    }
+    running = true;
+    acceptor = new Thread(this::run, "fake-proxy");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    if (reportIntervalSeconds > 0) {
+      lastReportNanos = System.nanoTime();
+      reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "fake-proxy-reporter");
+        t.setDaemon(true);
+        return t;
+      });
+      reporter.scheduleAtFixedRate(this::report, reportIntervalSeconds, reportIntervalSeconds,
+          TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Stop listening and close every connection
+   *
+   * @throws IOException if the listening socket could not be closed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    running = false;
+    if (reporter != null) {
+      reporter.shutdownNow();
+      reporter = null;
+    }
+    selector.wakeup();
+    if (acceptor != null) {
+      try {
+        acceptor.join(TimeUnit.SECONDS.toMillis(5));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      acceptor = null;
+    }
+    closeAll();
+  }
+
+  /**
+   * @return the port the proxy listens on
+   */
+  public int port() {
+    return server.socket().getLocalPort();
+  }
+
+  /**
+   * @return valid spans received
+   */
+  public long spans() {
+    return spans.sum();
+  }
+
+  /**
+   * @return valid spans without a parent received, which is one per complete trace
+   */
+  public long traces() {
+    return traces.sum();
+  }
+
+  /**
+   * @return lines that were not valid spans
+   */
+  public long invalid() {
+    return invalid.sum();
+  }
+
+  /**
+   * @return bytes received
+   */
+  public long bytes() {
+    return bytes.sum();
+  }
+
+  /**
+   * @return open connections
+   */
+  public int connections() {
+    return connections.get();
+  }
+
+  /**
+   * Wait until at least a number of valid spans have been received
+   *
+   * @param count   spans to wait for
+   * @param timeout how long to wait
+   * @param unit    unit of the timeout
+   * @return whether the spans arrived in time
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean awaitSpans(long count, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (spans() < count) {
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+      Thread.sleep(1);
+    }
+    return true;
+  }
+
+  private void run() {
+    try {
+      while (running) {
+        selector.select();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else if (key.isReadable()) {
+            read(key);
+          }
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      if (running) {
+        log.log(Level.WARNING, "Fake proxy stopped", e);
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel;
+    while ((channel = server.accept()) != null) {
+      channel.configureBlocking(false);
+      channel.register(selector, SelectionKey.OP_READ, new Connection(readBufferSize));
+      connections.incrementAndGet();
+    }
+  }
+
+  private void read(SelectionKey key) {
+    SocketChannel channel = (SocketChannel) key.channel();
+    Connection connection = (Connection) key.attachment();
+    ByteBuffer buffer = connection.buffer;
+    int read;
+    try {
+      read = channel.read(buffer);
+    } catch (IOException e) {
+      read = -1;
+    }
+    if (read > 0) {
+      bytes.add(read);
+      consume(connection);
+    }
+    if (read < 0) {
+      // a partial last line is discarded like a real proxy would
+      key.cancel();
+      connections.decrementAndGet();
+      try {
+        channel.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  /**
+   * Validate every complete line in the connection's buffer and keep the partial last line
+   */
+  private void consume(Connection connection) {
+    ByteBuffer buffer = connection.buffer;
+    int end = buffer.position();
+    int lineStart = 0;
+    long validSpans = 0;
+    long rootSpans = 0;
+    long invalidLines = 0;
+    for (int i = connection.scanned; i < end; i++) {
+      if (buffer.get(i) != '\n') {
+        continue;
+      }
+      if (connection.skipping) {
+        connection.skipping = false;
+      } else {
+        int parents = SpanLineParser.parse(buffer, lineStart, i);
+        if (parents == SpanLineParser.INVALID) {
+          invalidLines++;
+        } else {
+          validSpans++;
+          if (parents == 0) {
+            rootSpans++;
+          }
+        }
+      }
+      lineStart = i + 1;
+    }
+    spans.add(validSpans);
+    traces.add(rootSpans);
+    invalid.add(invalidLines);
+
+    if (lineStart == 0 && end == buffer.capacity()) {
+      // the buffer holds part of one line that can never fit, drop it up to its newline
+      if (!connection.skipping) {
+        invalid.increment();
+        connection.skipping = true;
+      }
+      buffer.clear();
+      connection.scanned = 0;
+      return;
+    }
+    buffer.limit(end).position(lineStart);
+    buffer.compact();
+    connection.scanned = buffer.position();
+  }
+
+  private void report() {
+    long now = System.nanoTime();
+    long totalSpans = spans();
+    long totalTraces = traces();
+    long totalBytes = bytes();
+    double seconds = (now - lastReportNanos) / 1_000_000_000d;
+    log.info(String.format("Received %.0f spans/s, %.0f traces/s, %.2f MB/s over %d " +
+            "connections; %d invalid lines in total",
+        (totalSpans - lastReportSpans) / seconds, (totalTraces - lastReportTraces) / seconds,
+        (totalBytes - lastReportBytes) / seconds / (1024 * 1024), connections(), invalid()));
+    lastReportNanos = now;
+    lastReportSpans = totalSpans;
+    lastReportTraces = totalTraces;
+    lastReportBytes = totalBytes;
+  }
+
+  private void closeAll() throws IOException {
+    try {
+      if (selector.isOpen()) {
+        for (SelectionKey key : selector.keys()) {
+          if (key.channel() != server) {
+            key.channel().close();
+          }
+        }
+        selector.close();
+      }
+    } finally {
+      server.close();
+      connections.set(0);
+    }
+  }
+
+  private static class Connection {
+    private final ByteBuffer buffer;
+    // bytes at the start of the buffer already known to hold no newline
+    private int scanned;
+    // inside a line too long for the buffer, until its newline
+    private boolean skipping;
+
+    private Connection(int bufferSize) {
+      buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+  }
+}
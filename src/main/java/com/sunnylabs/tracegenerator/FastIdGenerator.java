@@ -0,0 +1,31 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Creates ids from the calling thread's {@link RandomStreams} source; not suitable where ids must
+ * be unpredictable, but needs no locking or shared state and is reproducible when the thread is
+ * bound to a seeded stream
+ */
+public class FastIdGenerator implements IdGenerator {
+  @Override
+  public UUID nextId() {
+    Random random = RandomStreams.current();
+    return IdGenerator.randomUuid(random.nextLong(), random.nextLong());
+  }
+
+  @Override
+  public void nextId(Span span) {
+    Random random = RandomStreams.current();
+    span.spanIdHigh = IdGenerator.randomHigh(random.nextLong());
+    span.spanIdLow = IdGenerator.randomLow(random.nextLong());
+  }
+
+  @Override
+  public void nextId(long[] ids, int offset) {
+    Random random = RandomStreams.current();
+    ids[offset] = IdGenerator.randomHigh(random.nextLong());
+    ids[offset + 1] = IdGenerator.randomLow(random.nextLong());
+  }
+}
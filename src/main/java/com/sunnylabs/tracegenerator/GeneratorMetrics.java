@@ -0,0 +1,163 @@
+package com.sunnylabs.tracegenerator;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Micrometer metrics for trace generation and sending
+ * <p>
+ * Counts are kept in {@link LongAdder}s that the registry reads when it publishes, so the
+ * generating threads only ever touch striped, uncontended cells. Traces and spans are counted
+ * per entrypoint and tagged with its application.service.operation name.
+ */
+public class GeneratorMetrics {
+  private final MeterRegistry registry;
+  private final Map<String, EntrypointCounts> byName = new ConcurrentHashMap<>();
+  private volatile EntrypointCounts[] entrypoints = new EntrypointCounts[0];
+  private final LongAdder sendErrors = new LongAdder();
+  private final DistributionSummary spansPerTrace;
+  private final Timer generateTimer;
+  private final Timer sendTimer;
+  private final Timer lagTimer;
+
+  /**
+   * @param registry registry to publish to
+   */
+  public GeneratorMetrics(MeterRegistry registry) {
+    this.registry = registry;
+    spansPerTrace = DistributionSummary.builder("tracegenerator.trace.spans").
+        description("spans per generated trace").
+        publishPercentileHistogram().
+        register(registry);
+    generateTimer = Timer.builder("tracegenerator.generate").
+        description("time to generate one trace").
+        publishPercentileHistogram().
+        register(registry);
+    sendTimer = Timer.builder("tracegenerator.send").
+        description("time to hand one trace to the sender").
+        publishPercentileHistogram().
+        register(registry);
+    lagTimer = Timer.builder("tracegenerator.schedule.lag").
+        description("how late traces start compared to their scheduled arrival").
+        publishPercentileHistogram().
+        register(registry);
+    FunctionCounter.builder("tracegenerator.send.errors", sendErrors, LongAdder::sum).
+        description("traces that failed to send").
+        register(registry);
+  }
+
+  /**
+   * @return metrics that are recorded nowhere
+   */
+  public static GeneratorMetrics disabled() {
+    return new GeneratorMetrics(new CompositeMeterRegistry());
+  }
+
+  /**
+   * Register counters for the entrypoints of a newly loaded topology. Entrypoints that keep their
+   * name keep counting where they left off.
+   *
+   * @param operations the topology's entrypoints, in {@link Topology#entrypoints()} order
+   */
+  public void bindEntrypoints(List<Operation> operations) {
+    EntrypointCounts[] counts = new EntrypointCounts[operations.size()];
+    for (int i = 0; i < counts.length; i++) {
+      Operation op = operations.get(i);
+      String name = op.getApplication() + "." + op.getService() + "." + op.getName();
+      counts[i] = byName.computeIfAbsent(name, this::register);
+    }
+    entrypoints = counts;
+  }
+
+  /**
+   * Record a generated trace
+   *
+   * @param entrypoint    index of the entrypoint in {@link Topology#entrypoints()}
+   * @param spans         number of spans in the trace
+   * @param generateNanos time taken to generate it
+   */
+  public void recordTrace(int entrypoint, int spans, long generateNanos) {
+    EntrypointCounts[] counts = entrypoints;
+    if (entrypoint < counts.length) {
+      counts[entrypoint].traces.increment();
+      counts[entrypoint].spans.add(spans);
+    }
+    spansPerTrace.record(spans);
+    generateTimer.record(generateNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Record the time taken to send a trace, whether or not it succeeded
+   *
+   * @param sendNanos time taken to send it
+   */
+  public void recordSend(long sendNanos) {
+    sendTimer.record(sendNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Record how late a trace started compared to its scheduled arrival
+   *
+   * @param lagNanos the lag
+   */
+  public void recordLag(long lagNanos) {
+    lagTimer.record(lagNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Record a trace that could not be sent
+   */
+  public void recordSendError() {
+    sendErrors.increment();
+  }
+
+  /**
+   * @return traces that failed to send
+   */
+  public long sendErrors() {
+    return sendErrors.sum();
+  }
+
+  /**
+   * @param entrypoint index of the entrypoint in {@link Topology#entrypoints()}
+   * @return traces generated for the entrypoint
+   */
+  public long traces(int entrypoint) {
+    return entrypoints[entrypoint].traces.sum();
+  }
+
+  /**
+   * @param entrypoint index of the entrypoint in {@link Topology#entrypoints()}
+   * @return spans generated for the entrypoint
+   */
+  public long spans(int entrypoint) {
+    return entrypoints[entrypoint].spans.sum();
+  }
+
+  private EntrypointCounts register(String name) {
+    EntrypointCounts counts = new EntrypointCounts();
+    FunctionCounter.builder("tracegenerator.traces", counts.traces, LongAdder::sum).
+        description("traces generated").
+        tag("entrypoint", name).
+        register(registry);
+    FunctionCounter.builder("tracegenerator.spans", counts.spans, LongAdder::sum).
+        description("spans generated").
+        tag("entrypoint", name).
+        register(registry);
+    return counts;
+  }
+
+  private static class EntrypointCounts {
+    private final LongAdder traces = new LongAdder();
+    private final LongAdder spans = new LongAdder();
+  }
+}
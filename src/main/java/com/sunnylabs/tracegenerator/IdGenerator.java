@@ -0,0 +1,87 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.UUID;
+
+/**
+ * Creates trace and span ids
+ * <p>
+ * Implementations must be safe to call from several generating threads at once.
+ */
+public interface IdGenerator {
+  /**
+   * @return a new random id
+   */
+  UUID nextId();
+
+  /**
+   * Set a span's id. Generators that can should override this to fill in the two halves directly,
+   * without creating a {@link UUID}.
+   *
+   * @param span the span to give a new random id
+   */
+  default void nextId(Span span) {
+    span.spanId(nextId());
+  }
+
+  /**
+   * Write a new id into an array, high half first, as {@link #nextId(Span)} does for a span
+   *
+   * @param ids    destination
+   * @param offset index of the high half
+   */
+  default void nextId(long[] ids, int offset) {
+    UUID id = nextId();
+    ids[offset] = id.getMostSignificantBits();
+    ids[offset + 1] = id.getLeastSignificantBits();
+  }
+
+  /**
+   * Get an id generator by configuration name
+   *
+   * @param name one of secure, fast, batch or seeded
+   * @param seed seed for the seeded generator, ignored by the others
+   * @return the id generator
+   * @throws IllegalArgumentException for an unknown name
+   */
+  static IdGenerator named(String name, long seed) {
+    switch (name) {
+      case "secure":
+        return new SecureIdGenerator();
+      case "fast":
+        return new FastIdGenerator();
+      case "batch":
+        return new BatchIdGenerator();
+      case "seeded":
+        return new SeededIdGenerator(seed);
+      default:
+        throw new IllegalArgumentException("Unknown id generator " + name);
+    }
+  }
+
+  /**
+   * Build a version 4 (random) UUID from random bits
+   *
+   * @param mostSigBits  random high bits
+   * @param leastSigBits random low bits
+   * @return the UUID with version and variant bits set
+   */
+  static UUID randomUuid(long mostSigBits, long leastSigBits) {
+    return new UUID(randomHigh(mostSigBits), randomLow(leastSigBits));
+  }
+
+  /**
+   * @param mostSigBits random high bits
+   * @return the high half of a version 4 UUID, with the version bits set
+   */
+  static long randomHigh(long mostSigBits) {
+    return (mostSigBits & ~0xF000L) | 0x4000L;
+  }
+
+  /**
+   * @param leastSigBits random low bits
+   * @return the low half of a version 4 UUID, with the variant bits set
+   */
+  static long randomLow(long leastSigBits) {
+    return (leastSigBits & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+  }
+}
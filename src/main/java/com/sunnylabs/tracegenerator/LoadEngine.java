@@ -0,0 +1,491 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.common.BufferFlusher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Sends traces continuously at a target rate of traces or spans per second
+ * <p>
+ * Trace rates are open loop: arrivals are drawn from an {@link ArrivalProcess} at a rate that
+ * follows a {@link TrafficShape}, and scheduled independently of how long sending takes. How late
+ * each trace starts compared to its arrival time is reported as scheduling lag.
+ * <p>
+ * Generation is spread over a pool of worker threads. Each worker owns its own
+ * {@link TraceSender} and pacer and paces itself to an equal share of the target rate, so
+ * workers never coordinate on the hot path and throughput scales with the number of cores.
+ * Workers read the {@link Topology} from a shared {@link TopologyHolder} once per trace, so a
+ * reloaded topology is picked up by the next trace without pausing them.
+ * <p>
+ * With a batch size set, workers generate traces into a {@link SpanBatch} and send it once it
+ * holds that many spans, or as soon as they have caught up with the schedule, so batches grow
+ * with the rate instead of delaying traces at low rates.
+ */
+public class LoadEngine {
+  private static final Logger log = Logger.getLogger(LoadEngine.class.getName());
+  private static final double FALLING_BEHIND_RATIO = 0.95;
+
+  private final TopologyHolder topology;
+  private final Supplier<TraceSender> senders;
+  private final int workerCount;
+  private final double spansPerSecond;
+  private final TrafficShape shape;
+  private final ArrivalProcess arrivals;
+  private final boolean compiledPlans;
+  private final boolean streaming;
+  private final int batchSpans;
+  private final Long seed;
+  private final GeneratorMetrics metrics;
+  private final LongAdder traces = new LongAdder();
+  private final LongAdder spans = new LongAdder();
+  private final LongAdder sendErrors = new LongAdder();
+  private final LongAdder generateNanos = new LongAdder();
+  private final LongAdder sendNanos = new LongAdder();
+  private final LongAdder lagNanos = new LongAdder();
+  private final LongAdder lagSamples = new LongAdder();
+  private final AtomicLong maxLagNanos = new AtomicLong();
+
+  private volatile boolean running;
+  private final List<Thread> threads = new ArrayList<>();
+  private ScheduledExecutorService reporter;
+  private long lastReportNanos;
+  private long lastReportTraces;
+  private long lastReportSpans;
+  private long lastReportGenerateNanos;
+  private long lastReportSendNanos;
+  private long lastReportLagNanos;
+  private long lastReportLagSamples;
+
+  private LoadEngine(Builder builder) {
+    this.topology = builder.topology;
+    this.senders = builder.senders;
+    this.workerCount = builder.workers;
+    this.spansPerSecond = builder.spansPerSecond;
+    this.shape = builder.shape != null ? builder.shape :
+        TrafficShape.constant(builder.tracesPerSecond);
+    this.arrivals = builder.arrivals;
+    this.compiledPlans = builder.compiledPlans;
+    this.streaming = builder.streaming;
+    this.batchSpans = builder.batchSpans;
+    this.seed = builder.seed;
+    this.metrics = builder.metrics;
+    metrics.bindEntrypoints(topology.current().entrypoints());
+    topology.onSwap(t -> metrics.bindEntrypoints(t.entrypoints()));
+  }
+
+  /**
+   * Start generating on the worker threads
+   *
+   * @param reportIntervalSeconds how often to log achieved versus target rate, 0 to disable
+   */
+  public synchronized void start(int reportIntervalSeconds) {
+    if (running) {
+      return;
+    }
+    running = true;
+    lastReportNanos = System.nanoTime();
+    for (int i = 0; i < workerCount; i++) {
+      Worker worker = new Worker(i, senders.get());
+      Thread thread = new Thread(worker, "trace-generator-" + i);
+      threads.add(thread);
+      thread.start();
+    }
+    if (reportIntervalSeconds > 0) {
+      reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "trace-generator-reporter");
+        t.setDaemon(true);
+        return t;
+      });
+      reporter.scheduleAtFixedRate(this::report, reportIntervalSeconds, reportIntervalSeconds,
+          TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Stop generating and wait for the worker threads to finish
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized void stop() throws InterruptedException {
+    running = false;
+    if (reporter != null) {
+      reporter.shutdownNow();
+      reporter = null;
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    threads.clear();
+  }
+
+  /**
+   * @return total traces sent since start
+   */
+  public long tracesSent() {
+    return traces.sum();
+  }
+
+  /**
+   * @return total spans sent since start
+   */
+  public long spansSent() {
+    return spans.sum();
+  }
+
+  /**
+   * @return total traces that failed to send since start
+   */
+  public long sendErrors() {
+    return sendErrors.sum();
+  }
+
+  /**
+   * @return the longest any trace has started after its scheduled time since start
+   */
+  public long maxLagNanos() {
+    return maxLagNanos.get();
+  }
+
+  private void report() {
+    long now = System.nanoTime();
+    long totalTraces = traces.sum();
+    long totalSpans = spans.sum();
+    long totalGenerateNanos = generateNanos.sum();
+    long totalSendNanos = sendNanos.sum();
+    long totalLagNanos = lagNanos.sum();
+    long totalLagSamples = lagSamples.sum();
+    long elapsed = now - lastReportNanos;
+    double seconds = elapsed / 1_000_000_000d;
+    double traceRate = (totalTraces - lastReportTraces) / seconds;
+    double spanRate = (totalSpans - lastReportSpans) / seconds;
+    double generateShare = 100d * (totalGenerateNanos - lastReportGenerateNanos) / elapsed / workerCount;
+    double sendShare = 100d * (totalSendNanos - lastReportSendNanos) / elapsed / workerCount;
+    lastReportNanos = now;
+    lastReportTraces = totalTraces;
+    lastReportSpans = totalSpans;
+    lastReportGenerateNanos = totalGenerateNanos;
+    lastReportSendNanos = totalSendNanos;
+    long samples = totalLagSamples - lastReportLagSamples;
+    double averageLagMillis = samples == 0 ? 0 :
+        (totalLagNanos - lastReportLagNanos) / 1_000_000d / samples;
+    lastReportLagNanos = totalLagNanos;
+    lastReportLagSamples = totalLagSamples;
+
+    double achieved = spansPerSecond > 0 ? spanRate : traceRate;
+    double target = spansPerSecond > 0 ? spansPerSecond : shape.rate(System.currentTimeMillis());
+    String unit = spansPerSecond > 0 ? "spans" : "traces";
+    String message = String.format("Achieved %.1f traces/s, %.1f spans/s (target %.1f %s/s), " +
+            "%.0f%% of time generating, %.0f%% sending, %d send errors, " +
+            "scheduling lag %.1f ms average, %.1f ms max",
+        traceRate, spanRate, target, unit, generateShare, sendShare, sendErrors.sum(),
+        averageLagMillis, maxLagNanos.getAndSet(0) / 1_000_000d);
+    if (achieved < target * FALLING_BEHIND_RATIO) {
+      String bottleneck = generateShare > sendShare ? "generation" : "sending";
+      log.warning(message + " - falling behind the target rate, bottleneck is " + bottleneck);
+    } else {
+      log.info(message);
+    }
+  }
+
+  private class Worker implements Runnable {
+    private final int index;
+    private final TraceSender traceSender;
+    private final SpanBatch batch;
+
+    private Worker(int index, TraceSender traceSender) {
+      this.index = index;
+      this.traceSender = traceSender;
+      this.batch = batchSpans > 0 ? new SpanBatch(batchSpans) : null;
+    }
+
+    @Override
+    public void run() {
+      if (seed != null) {
+        // stream 0 is reserved for building the topology
+        RandomStreams.bind(RandomStreams.split(seed, index + 1));
+      }
+      if (spansPerSecond > 0) {
+        RatePacer pacer = new RatePacer(spansPerSecond / workerCount);
+        pacer.start();
+        while (running) {
+          recordLag(pacer.awaitNext());
+          int sent = sendTrace();
+          pacer.advance(Math.max(sent, 1));
+          sendBatchIfDue(pacer.nextDeadline());
+        }
+      } else {
+        ArrivalScheduler scheduler = new ArrivalScheduler(shape, arrivals, 1d / workerCount);
+        scheduler.start();
+        while (running) {
+          long lag = scheduler.awaitNext();
+          if (lag < 0) {
+            continue;
+          }
+          recordLag(lag);
+          sendTrace();
+          scheduler.advance();
+          sendBatchIfDue(scheduler.nextDeadline());
+        }
+      }
+      if (batch != null) {
+        sendBatch();
+      }
+      if (traceSender.sender instanceof BufferFlusher) {
+        try {
+          ((BufferFlusher) traceSender.sender).flush();
+        } catch (IOException e) {
+          sendErrors.increment();
+          metrics.recordSendError();
+        }
+      }
+    }
+
+    private void recordLag(long lag) {
+      lagNanos.add(lag);
+      lagSamples.increment();
+      maxLagNanos.accumulateAndGet(lag, Math::max);
+      metrics.recordLag(lag);
+    }
+
+    private int sendTrace() {
+      long begin = System.nanoTime();
+      Topology current = topology.current();
+      int entrypoint = current.sampleEntrypoint(RandomStreams.current());
+      TraceGenerator generator = compiledPlans ?
+          current.plans().get(entrypoint) : current.entrypoints().get(entrypoint);
+      if (batch != null) {
+        int count = traceSender.generate(generator, batch);
+        long generated = System.nanoTime() - begin;
+        generateNanos.add(generated);
+        metrics.recordTrace(entrypoint, count, generated);
+        return count;
+      }
+      if (streaming) {
+        return streamTrace(entrypoint, generator, begin);
+      }
+      List<Span> trace = generator.generateTrace(traceSender.traceId);
+      long generated = System.nanoTime();
+      generateNanos.add(generated - begin);
+      metrics.recordTrace(entrypoint, trace.size(), generated - begin);
+      try {
+        traceSender.send(trace);
+      } catch (IOException e) {
+        sendErrors.increment();
+        metrics.recordSendError();
+        return trace.size();
+      } finally {
+        long sent = System.nanoTime() - generated;
+        sendNanos.add(sent);
+        metrics.recordSend(sent);
+      }
+      traces.increment();
+      spans.add(trace.size());
+      return trace.size();
+    }
+
+    /**
+     * Send the batch if it is full, or if the next trace is not due yet so there is time to
+     * spare
+     */
+    private void sendBatchIfDue(long nextDeadline) {
+      if (batch != null && (batch.size() >= batchSpans || nextDeadline - System.nanoTime() > 0)) {
+        sendBatch();
+      }
+    }
+
+    private void sendBatch() {
+      if (batch.size() == 0) {
+        return;
+      }
+      long begin = System.nanoTime();
+      int batchTraces = batch.traces();
+      int batchSize = batch.size();
+      try {
+        traceSender.send(batch);
+      } catch (IOException e) {
+        sendErrors.increment();
+        metrics.recordSendError();
+        return;
+      } finally {
+        long sent = System.nanoTime() - begin;
+        sendNanos.add(sent);
+        metrics.recordSend(sent);
+      }
+      traces.add(batchTraces);
+      spans.add(batchSize);
+    }
+
+    /**
+     * Send spans as they are generated. Generation and sending interleave, so their combined
+     * time is reported as generation.
+     */
+    private int streamTrace(int entrypoint, TraceGenerator generator, long begin) {
+      int sent;
+      try {
+        sent = traceSender.stream(generator);
+      } catch (IOException e) {
+        sendErrors.increment();
+        metrics.recordSendError();
+        return 1;
+      } finally {
+        generateNanos.add(System.nanoTime() - begin);
+      }
+      metrics.recordTrace(entrypoint, sent, System.nanoTime() - begin);
+      traces.increment();
+      spans.add(sent);
+      return sent;
+    }
+  }
+
+  public static class Builder {
+    private TopologyHolder topology;
+    private Supplier<TraceSender> senders;
+    private int workers = 1;
+    private double tracesPerSecond;
+    private double spansPerSecond;
+    private TrafficShape shape;
+    private ArrivalProcess arrivals = ArrivalProcess.fixed();
+    private boolean compiledPlans;
+    private boolean streaming;
+    private int batchSpans;
+    private Long seed;
+    private GeneratorMetrics metrics;
+
+    public LoadEngine build() {
+      if (topology == null || senders == null) {
+        throw new IllegalArgumentException("a topology and senders are required");
+      }
+      if (!(tracesPerSecond > 0) && !(spansPerSecond > 0)) {
+        throw new IllegalArgumentException("a positive traces or spans per second rate is required");
+      }
+      if (spansPerSecond > 0 && shape != null) {
+        log.warning("Pacing by spans per second, the traffic shape and arrivals are ignored");
+      }
+      if (workers < 1) {
+        throw new IllegalArgumentException("at least one worker is required");
+      }
+      if (metrics == null) {
+        metrics = GeneratorMetrics.disabled();
+      }
+      return new LoadEngine(this);
+    }
+
+    /**
+     * @param topology the topology from which to pick entrypoints
+     */
+    public Builder topology(Topology topology) {
+      this.topology = topology == null ? null : new TopologyHolder(topology);
+      return this;
+    }
+
+    /**
+     * @param topology holds the topology from which to pick entrypoints, which may be swapped
+     *                 while generating
+     */
+    public Builder topology(TopologyHolder topology) {
+      this.topology = topology;
+      return this;
+    }
+
+    /**
+     * @param senders creates a sender for each worker, called once per worker
+     */
+    public Builder senders(Supplier<TraceSender> senders) {
+      this.senders = senders;
+      return this;
+    }
+
+    /**
+     * @param workers number of worker threads
+     */
+    public Builder workers(int workers) {
+      this.workers = workers;
+      return this;
+    }
+
+    /**
+     * @param tracesPerSecond target traces per second, or the configured rate a shape was built
+     *                        from; this or the spans per second rate must be positive
+     */
+    public Builder tracesPerSecond(double tracesPerSecond) {
+      this.tracesPerSecond = tracesPerSecond;
+      return this;
+    }
+
+    /**
+     * @param spansPerSecond target spans per second, takes precedence when positive
+     */
+    public Builder spansPerSecond(double spansPerSecond) {
+      this.spansPerSecond = spansPerSecond;
+      return this;
+    }
+
+    /**
+     * @param shape trace rate over time, instead of a constant traces per second rate
+     */
+    public Builder shape(TrafficShape shape) {
+      this.shape = shape;
+      return this;
+    }
+
+    /**
+     * @param arrivals distribution of time between traces, fixed if not set; ignored when pacing
+     *                 spans per second
+     */
+    public Builder arrivals(ArrivalProcess arrivals) {
+      this.arrivals = arrivals;
+      return this;
+    }
+
+    /**
+     * @param compiledPlans generate from {@link Topology#plans()} instead of walking operations
+     */
+    public Builder compiledPlans(boolean compiledPlans) {
+      this.compiledPlans = compiledPlans;
+      return this;
+    }
+
+    /**
+     * @param streaming send each span as soon as it is generated instead of collecting the trace
+     *                  first, keeping memory constant however large traces are
+     */
+    public Builder streaming(boolean streaming) {
+      this.streaming = streaming;
+      return this;
+    }
+
+    /**
+     * @param batchSpans generate traces into a {@link SpanBatch} and send it in bulk once it
+     *                   holds this many spans, 0 to send each trace on its own
+     */
+    public Builder batchSpans(int batchSpans) {
+      this.batchSpans = batchSpans;
+      return this;
+    }
+
+    /**
+     * @param seed if not null, give each worker its own random stream derived from this seed
+     */
+    public Builder seed(Long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /**
+     * @param metrics where to record generation and send metrics, none if not set
+     */
+    public Builder metrics(GeneratorMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+  }
+}
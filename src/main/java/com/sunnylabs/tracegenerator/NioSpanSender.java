@@ -0,0 +1,337 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.common.BufferFlusher;
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends spans to a proxy tracing port in the Wavefront span line format without the SDK
+ * <p>
+ * Spans are encoded by {@link SpanLineEncoder} straight into a reusable direct buffer, which is
+ * written to a non-blocking {@link SocketChannel} when it fills up, when the oldest buffered span
+ * is older than the flush delay, or on {@link #flush()}. Nothing is flushed in the background, so
+ * like {@link TraceSender} an instance must only be used by one thread at a time.
+ * <p>
+ * Span logs are not sent. If a write fails the buffered spans are dropped, the failure is
+ * counted and the next flush reconnects.
+ * <p>
+ * With a {@link SpillQueue}, spans that could not be written are spilled to it instead, and for
+ * a short while after a failure spans are spilled without trying the proxy. Before writing new
+ * spans, a sender that can reach its proxy replays everything spilled, by any sender sharing the
+ * queue, so the spans arrive in order. Spans only go missing if the queue is full, and a failed
+ * write is spilled whole, so some of its spans may be sent twice.
+ */
+public class NioSpanSender implements DirectSpanSender, BufferFlusher, Closeable {
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  public static final long DEFAULT_MAX_FLUSH_DELAY_MILLIS = 1000;
+  private static final long WRITE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final long RETRY_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+  private final InetSocketAddress address;
+  private final ByteBuffer buffer;
+  private final long maxFlushDelayNanos;
+  private final AtomicInteger failures = new AtomicInteger();
+  private final SpillQueue spill;
+  private final SpillQueue.Sink replay = this::transmit;
+  private SocketChannel channel;
+  private Selector selector;
+  private SelectionKey key;
+  private long firstBufferedNanos;
+  private boolean down;
+  private long retryAtNanos;
+
+  public NioSpanSender(String host, int port) {
+    this(new InetSocketAddress(host, port), DEFAULT_BUFFER_SIZE, DEFAULT_MAX_FLUSH_DELAY_MILLIS);
+  }
+
+  /**
+   * @param address             proxy tracing port
+   * @param bufferSize          size in bytes of the direct send buffer
+   * @param maxFlushDelayMillis flush on the next span once buffered spans are this old
+   */
+  public NioSpanSender(InetSocketAddress address, int bufferSize, long maxFlushDelayMillis) {
+    this(address, bufferSize, maxFlushDelayMillis, null);
+  }
+
+  /**
+   * @param address             proxy tracing port
+   * @param bufferSize          size in bytes of the direct send buffer
+   * @param maxFlushDelayMillis flush on the next span once buffered spans are this old
+   * @param spill               where to keep spans that could not be sent, or null to drop them
+   */
+  public NioSpanSender(InetSocketAddress address, int bufferSize, long maxFlushDelayMillis,
+                       SpillQueue spill) {
+    this.address = address;
+    this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    this.maxFlushDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxFlushDelayMillis);
+    this.spill = spill;
+  }
+
+  @Override
+  public void sendSpan(String name, long startMillis, long durationMillis, String source,
+                       UUID traceId, UUID spanId, List<UUID> parents, List<UUID> followsFrom,
+                       List<Pair<String, String>> tags, List<SpanLog> spanLogs)
+      throws IOException {
+    int maxLength = SpanLineEncoder.maxEncodedLength(name, source, parents, followsFrom, tags);
+    if (!reserve(maxLength)) {
+      // too big to ever fit, encode it on its own
+      ByteBuffer large = ByteBuffer.allocate(maxLength);
+      SpanLineEncoder.encode(large, name, startMillis, durationMillis, source, traceId, spanId,
+          parents, followsFrom, tags);
+      large.flip();
+      write(large);
+      return;
+    }
+
+    int start = buffer.position();
+    try {
+      SpanLineEncoder.encode(buffer, name, startMillis, durationMillis, source, traceId, spanId,
+          parents, followsFrom, tags);
+    } catch (IllegalArgumentException e) {
+      // drop the partial line
+      buffer.position(start);
+      throw e;
+    }
+    buffered(start);
+  }
+
+  /**
+   * Send a span, copying the constant parts from its {@link SpanTemplate} when it still matches
+   *
+   * @param span the span
+   * @throws IOException if buffered spans could not be flushed
+   */
+  @Override
+  public void send(Span span) throws IOException {
+    SpanTemplate template = span.template;
+    if (template == null || !template.matches(span)) {
+      sendSpan(span.operationName, span.startTime, span.duration, span.source, span.traceId(),
+          span.spanId(), span.parents(), span.followsFrom, span.tagList(), span.spanLogs());
+      return;
+    }
+    int maxLength = template.maxEncodedLength(span);
+    if (!reserve(maxLength)) {
+      ByteBuffer large = ByteBuffer.allocate(maxLength);
+      template.encode(large, span);
+      large.flip();
+      write(large);
+      return;
+    }
+    int start = buffer.position();
+    template.encode(buffer, span);
+    buffered(start);
+  }
+
+  /**
+   * Send every span in a batch. Rows are encoded from their templates in one loop and the
+   * buffer is written whenever it fills, so most spans cost no more than their ids and
+   * timestamps.
+   *
+   * @param batch the spans
+   * @throws IOException if buffered spans could not be flushed
+   */
+  @Override
+  public void send(SpanBatch batch) throws IOException {
+    int start = buffer.position();
+    int rows = batch.rows();
+    for (int row = 0; row < rows; row++) {
+      SpanTemplate template = batch.template(row);
+      int maxLength = template.maxEncodedLength();
+      if (!reserve(maxLength)) {
+        ByteBuffer large = ByteBuffer.allocate(maxLength);
+        template.encode(large, batch, row);
+        large.flip();
+        write(large);
+        continue;
+      }
+      if (buffer.position() == 0) {
+        start = 0;
+      }
+      template.encode(buffer, batch, row);
+    }
+    if (rows > 0 && buffer.position() > 0) {
+      buffered(start);
+    }
+    for (Span span : batch.others()) {
+      send(span);
+    }
+  }
+
+  /**
+   * Write all buffered spans, waiting until the socket accepts them
+   *
+   * @throws IOException if the spans could not be written or spilled; they are dropped
+   */
+  @Override
+  public void flush() throws IOException {
+    if (buffer.position() == 0) {
+      return;
+    }
+    buffer.flip();
+    try {
+      write(buffer);
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  /**
+   * @return failed writes, including flushes spilled while waiting to reconnect
+   */
+  @Override
+  public int getFailureCount() {
+    return failures.get();
+  }
+
+  /**
+   * @return the number of bytes waiting to be flushed
+   */
+  public int buffered() {
+    return buffer.position();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      disconnect();
+    }
+  }
+
+  /**
+   * Make room for a span, flushing if needed
+   *
+   * @return false if the span can never fit in the buffer
+   */
+  private boolean reserve(int maxLength) throws IOException {
+    if (maxLength > buffer.remaining()) {
+      flush();
+    }
+    return maxLength <= buffer.capacity();
+  }
+
+  /**
+   * Flush if the span that was just buffered at the given position makes the buffer too old
+   */
+  private void buffered(int start) throws IOException {
+    long now = System.nanoTime();
+    if (start == 0) {
+      firstBufferedNanos = now;
+    } else if (now - firstBufferedNanos >= maxFlushDelayNanos) {
+      flush();
+    }
+  }
+
+  private void write(ByteBuffer src) throws IOException {
+    if (spill == null) {
+      transmit(src);
+      return;
+    }
+    if (down && System.nanoTime() - retryAtNanos < 0) {
+      // don't wait on a proxy that just failed
+      failures.incrementAndGet();
+      spill(src, null);
+      return;
+    }
+    int start = src.position();
+    boolean caughtUp;
+    try {
+      caughtUp = spill.replay(replay);
+      if (caughtUp) {
+        transmit(src);
+      }
+      down = false;
+    } catch (IOException e) {
+      down = true;
+      retryAtNanos = System.nanoTime() + RETRY_DELAY_NANOS;
+      src.position(start);
+      spill(src, e);
+      return;
+    }
+    if (!caughtUp) {
+      // another sender is replaying, queue up behind the spans it has yet to send
+      spill(src, null);
+    }
+  }
+
+  private void spill(ByteBuffer src, IOException cause) throws IOException {
+    if (!spill.offer(src)) {
+      throw cause != null ? cause :
+          new IOException("spill queue is full, dropped spans for " + address);
+    }
+  }
+
+  private void transmit(ByteBuffer src) throws IOException {
+    try {
+      SocketChannel ch = connect();
+      long deadline = System.nanoTime() + WRITE_TIMEOUT_NANOS;
+      while (src.hasRemaining()) {
+        if (ch.write(src) == 0) {
+          await(SelectionKey.OP_WRITE, deadline);
+        }
+      }
+    } catch (IOException e) {
+      failures.incrementAndGet();
+      disconnect();
+      throw e;
+    }
+  }
+
+  private SocketChannel connect() throws IOException {
+    if (channel != null) {
+      return channel;
+    }
+    channel = SocketChannel.open();
+    selector = Selector.open();
+    channel.configureBlocking(false);
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    key = channel.register(selector, 0);
+    if (!channel.connect(address)) {
+      long deadline = System.nanoTime() + WRITE_TIMEOUT_NANOS;
+      do {
+        await(SelectionKey.OP_CONNECT, deadline);
+      } while (!channel.finishConnect());
+    }
+    return channel;
+  }
+
+  private void await(int op, long deadline) throws IOException {
+    long remaining = deadline - System.nanoTime();
+    if (remaining <= 0) {
+      throw new SocketTimeoutException("timed out writing spans to " + address);
+    }
+    key.interestOps(op);
+    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+    selector.selectedKeys().clear();
+  }
+
+  private void disconnect() throws IOException {
+    try {
+      if (channel != null) {
+        channel.close();
+      }
+    } finally {
+      if (selector != null) {
+        selector.close();
+      }
+      channel = null;
+      selector = null;
+      key = null;
+    }
+  }
+}
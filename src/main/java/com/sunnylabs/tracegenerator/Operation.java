@@ -1,13 +1,13 @@
 package com.sunnylabs.tracegenerator;
 
-import com.wavefront.java_sdk.com.google.common.collect.ImmutableList;
 import org.springframework.beans.factory.annotation.Value;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.UUID;
 
 @lombok.Data
@@ -18,11 +18,19 @@ public class Operation implements TraceGenerator {
   private String service;
   private String name;
   private String application;
-  private String source;
+  private String source = "trace-generator";
   private List<Operation> calls = new ArrayList<>();
   private Map<String, String> tags = new HashMap<>();
   @Value("${generator.error_percentage:5}")
   private float errorChance;
+  @lombok.EqualsAndHashCode.Exclude
+  @lombok.ToString.Exclude
+  private Map<String, String> serviceTags = Collections.emptyMap();
+  @lombok.Getter(lombok.AccessLevel.NONE)
+  @lombok.Setter(lombok.AccessLevel.NONE)
+  @lombok.EqualsAndHashCode.Exclude
+  @lombok.ToString.Exclude
+  private volatile SpanTemplate template;
 
   /**
    * default constructor used by YAML creator
@@ -61,6 +69,40 @@ public class Operation implements TraceGenerator {
     this.errorChance = errorChance;
   }
 
+  /**
+   * Get the constant parts of this operation's spans, built on first use
+   *
+   * @return the cached template
+   */
+  public SpanTemplate template() {
+    SpanTemplate t = template;
+    if (t == null) {
+      t = buildTemplate();
+    }
+    return t;
+  }
+
+  /**
+   * Rebuild the cached template, to be called whenever the operation or its service changes
+   *
+   * @return the new template
+   */
+  public SpanTemplate buildTemplate() {
+    return buildTemplate(new TagDictionary());
+  }
+
+  /**
+   * Rebuild the cached template with its tags interned in a topology-wide dictionary
+   *
+   * @param dictionary interns the template's name, source and tags
+   * @return the new template
+   */
+  public SpanTemplate buildTemplate(TagDictionary dictionary) {
+    SpanTemplate t = new SpanTemplate(this, serviceTags, dictionary);
+    template = t;
+    return t;
+  }
+
   /**
    * Generate a trace for the operation and its dependent operations
    *
@@ -72,11 +114,68 @@ public class Operation implements TraceGenerator {
     return generateTrace(traceId, null, 0, getRandomDuration(1200));
   }
 
+  /**
+   * Generate a trace for the operation and its dependent operations, pushing each span as soon as
+   * it is generated. Only the spans on the current call path are held in memory.
+   *
+   * @param traceId UUID to add as the traceId for generated spans
+   * @param sink    receives the spans
+   * @return the number of spans generated
+   * @throws IOException if the sink failed
+   */
+  @Override
+  public int generateTrace(UUID traceId, SpanSink sink) throws IOException {
+    return generateTrace(traceId, null, 0, getRandomDuration(1200), sink);
+  }
+
+  private int generateTrace(UUID traceId, Span parent, int offsetMillis, int durationMillis,
+                            SpanSink sink) throws IOException {
+    int duration = getRandomDuration(durationMillis);
+    int offset = getRandomDuration(durationMillis - duration) + offsetMillis;
+    Span span = getSpan(traceId, parent, offset, duration);
+    sink.accept(span);
+    int count = 1;
+    if (calls != null) {
+      for (Operation c : calls) {
+        count += c.generateTrace(traceId, span, offset, duration, sink);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Generate a trace for the operation and its dependent operations into the rows of a batch
+   *
+   * @param traceId UUID to add as the traceId for generated spans
+   * @param batch   receives the spans
+   * @return the number of spans generated
+   */
+  @Override
+  public int generateTrace(UUID traceId, SpanBatch batch) {
+    int first = batch.rows();
+    generateTrace(traceId, -1, 0, getRandomDuration(1200), batch, Span.idGenerator());
+    return batch.rows() - first;
+  }
+
+  private void generateTrace(UUID traceId, int parentRow, int offsetMillis, int durationMillis,
+                             SpanBatch batch, IdGenerator ids) {
+    int duration = getRandomDuration(durationMillis);
+    int offset = getRandomDuration(durationMillis - duration) + offsetMillis;
+    boolean error = errorChance > RandomStreams.current().nextDouble() * 100;
+    int row = batch.add(template(), traceId, parentRow, TraceClock.now() + offset, duration,
+        error, ids);
+    if (calls != null) {
+      for (Operation c : calls) {
+        c.generateTrace(traceId, row, offset, duration, batch, ids);
+      }
+    }
+  }
+
   private int getRandomDuration(int max) {
     if (max < 10) {
       return max;
     }
-    return new Random().nextInt(max / 2) + max / 2;
+    return RandomStreams.current().nextInt(max / 2) + max / 2;
   }
 
   /**
@@ -90,31 +189,37 @@ public class Operation implements TraceGenerator {
    */
   public List<Span> generateTrace(UUID traceId, UUID parentId,
                                   int offsetMillis, int durationMillis) {
-    source = "trace-generator";
-
+    Span parent = null;
+    if (parentId != null) {
+      parent = new Span();
+      parent.spanId(parentId);
+    }
     List<Span> trace = new ArrayList<>();
+    generateTrace(traceId, parent, offsetMillis, durationMillis, trace);
+    return trace;
+  }
+
+  private void generateTrace(UUID traceId, Span parent, int offsetMillis, int durationMillis,
+                             List<Span> trace) {
     int duration = getRandomDuration(durationMillis);
     int offset = getRandomDuration(durationMillis - duration) + offsetMillis;
-    Span span = getSpan(traceId, parentId, offset, duration);
+    Span span = getSpan(traceId, parent, offset, duration);
     trace.add(span);
     if (calls != null) {
-      calls.forEach(c -> trace.addAll(c.generateTrace(traceId,
-          span.spanId, offset, duration)));
+      for (Operation c : calls) {
+        c.generateTrace(traceId, span, offset, duration, trace);
+      }
     }
-    return trace;
   }
 
-  private Span getSpan(UUID traceId, UUID parentId, int offset, int durationMillis) {
-    long startMillis = System.currentTimeMillis() + offset;
-    Span.Builder builder = new Span.Builder(name, startMillis, durationMillis, source);
-    if (parentId != null) {
-      builder.setParents(ImmutableList.of(parentId));
+  private Span getSpan(UUID traceId, Span parent, int offset, int durationMillis) {
+    boolean error = errorChance > RandomStreams.current().nextDouble() * 100;
+    Span span = template().newSpan(TraceClock.now() + offset, durationMillis, error);
+    span.traceId(traceId);
+    Span.idGenerator().nextId(span);
+    if (parent != null) {
+      span.parent(parent);
     }
-    builder.errorChance(errorChance);
-    builder.setIdentityTags(application, "cluster", service, "shard");
-    tags.forEach(builder::addTag);
-    Span span = builder.build();
-    span.traceId = traceId;
     return span;
   }
 }
@@ -0,0 +1,167 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.common.BufferFlusher;
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+import com.wavefront.sdk.entities.tracing.WavefrontTracingSpanSender;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One thread's sender on a {@link ProxyPool}
+ * <p>
+ * The sender is bound to one of the pool's connections from its first span until it is flushed,
+ * a send fails or it has sent the pool's rebindSpans spans on it, and then picks a connection
+ * again. Moving on flushes the old connection, so nothing is left in its buffer. Each send holds
+ * the connection's lock, so several threads bound to the same connection take turns. A send
+ * counts against the endpoint's health if it throws or if the connection's failure count goes
+ * up, as it does when {@link NioSpanSender} spills. Like {@link TraceSender}, an instance must
+ * only be used by one thread at a time.
+ */
+public class PooledSpanSender implements DirectSpanSender, BufferFlusher {
+  private final ProxyPool pool;
+  private ProxyPool.Connection connection;
+  private int boundSpans;
+
+  PooledSpanSender(ProxyPool pool) {
+    this.pool = pool;
+  }
+
+  @Override
+  public void sendSpan(String name, long startMillis, long durationMillis, String source,
+                       UUID traceId, UUID spanId, List<UUID> parents, List<UUID> followsFrom,
+                       List<Pair<String, String>> tags, List<SpanLog> spanLogs)
+      throws IOException {
+    ProxyPool.Connection c = bind();
+    int failures;
+    try {
+      synchronized (c) {
+        WavefrontTracingSpanSender sender = c.sender();
+        int before = failures(sender);
+        sender.sendSpan(name, startMillis, durationMillis, source, traceId, spanId, parents,
+            followsFrom, tags, spanLogs);
+        failures = failures(sender) - before;
+      }
+    } catch (IOException e) {
+      failed(c, e);
+      throw e;
+    }
+    sent(c, failures, 1);
+  }
+
+  @Override
+  public void send(Span span) throws IOException {
+    ProxyPool.Connection c = bind();
+    int failures;
+    try {
+      synchronized (c) {
+        WavefrontTracingSpanSender sender = c.sender();
+        int before = failures(sender);
+        TraceSender.sendSpan(sender, span);
+        failures = failures(sender) - before;
+      }
+    } catch (IOException e) {
+      failed(c, e);
+      throw e;
+    }
+    sent(c, failures, 1);
+  }
+
+  @Override
+  public void send(SpanBatch batch) throws IOException {
+    ProxyPool.Connection c = bind();
+    int failures;
+    try {
+      synchronized (c) {
+        WavefrontTracingSpanSender sender = c.sender();
+        int before = failures(sender);
+        TraceSender.sendBatch(sender, batch);
+        failures = failures(sender) - before;
+      }
+    } catch (IOException e) {
+      failed(c, e);
+      throw e;
+    }
+    sent(c, failures, batch.size());
+  }
+
+  /**
+   * Flush the bound connection and let the next span pick a connection again
+   *
+   * @throws IOException if the connection could not be flushed
+   */
+  @Override
+  public void flush() throws IOException {
+    ProxyPool.Connection c = connection;
+    if (c == null) {
+      return;
+    }
+    int failures;
+    try {
+      synchronized (c) {
+        WavefrontTracingSpanSender sender = c.sender();
+        int before = failures(sender);
+        if (sender instanceof BufferFlusher) {
+          ((BufferFlusher) sender).flush();
+        }
+        failures = failures(sender) - before;
+      }
+    } catch (IOException e) {
+      failed(c, e);
+      throw e;
+    }
+    sent(c, failures, 0);
+    unbind();
+  }
+
+  @Override
+  public int getFailureCount() {
+    int failures = 0;
+    for (ProxyPool.Endpoint endpoint : pool.endpoints()) {
+      failures += (int) endpoint.errors();
+    }
+    return failures;
+  }
+
+  private ProxyPool.Connection bind() throws IOException {
+    if (connection != null && boundSpans >= pool.rebindSpans()) {
+      flush();
+    }
+    if (connection == null) {
+      connection = pool.acquire();
+    }
+    return connection;
+  }
+
+  private void unbind() {
+    if (connection != null) {
+      pool.release(connection);
+      connection = null;
+    }
+    boundSpans = 0;
+  }
+
+  /**
+   * Record a send that returned normally; a sender that spills what it could not send still
+   * counts the failure, so the endpoint is marked unhealthy all the same
+   */
+  private void sent(ProxyPool.Connection c, int failures, int spans) {
+    if (failures > 0) {
+      failed(c, null);
+    } else {
+      c.endpoint.succeeded(spans);
+      boundSpans += spans;
+    }
+  }
+
+  private static int failures(WavefrontTracingSpanSender sender) {
+    return sender instanceof BufferFlusher ? ((BufferFlusher) sender).getFailureCount() : 0;
+  }
+
+  private void failed(ProxyPool.Connection c, IOException e) {
+    c.endpoint.failed(e);
+    unbind();
+  }
+}
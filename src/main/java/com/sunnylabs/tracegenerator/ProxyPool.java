@@ -0,0 +1,348 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.common.BufferFlusher;
+import com.wavefront.sdk.entities.tracing.WavefrontTracingSpanSender;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.lang.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A fixed set of connections to one or more proxies, shared by every sending thread
+ * <p>
+ * Each endpoint gets the same number of connections. {@link #newSender()} gives a thread a
+ * {@link PooledSpanSender}, which is bound to one connection at a time, chosen round robin or as
+ * the one with the fewest senders queued on it. A sender picks a connection again after every
+ * flush, and after sending rebindSpans spans on one connection, so load moves between
+ * connections even for threads that only flush when they stop, and threads sharing a connection
+ * take turns on it. Connections are opened on first use and reconnect on their own.
+ * <p>
+ * When a send to an endpoint fails, the endpoint is unhealthy for a backoff that doubles with
+ * each consecutive failure, and new bindings avoid it until then unless every endpoint is
+ * unhealthy.
+ */
+public class ProxyPool implements MeterBinder, Closeable {
+  public static final int DEFAULT_REBIND_SPANS = 1000;
+  static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+  static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+  private static final Logger log = Logger.getLogger(ProxyPool.class.getName());
+
+  /**
+   * How a sender picks its connection
+   */
+  public enum Balance {
+    /**
+     * each binding takes the next connection in turn
+     */
+    ROUND_ROBIN,
+    /**
+     * each binding takes the connection with the fewest senders bound to it
+     */
+    LEAST_QUEUED;
+
+    /**
+     * @param name balance name in any case, with - or _ separators
+     * @return the balance
+     */
+    public static Balance parse(String name) {
+      return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+  }
+
+  private final List<Endpoint> endpoints;
+  private final List<Connection> connections;
+  private final Balance balance;
+  private final int rebindSpans;
+  private final AtomicInteger next = new AtomicInteger();
+
+  /**
+   * @param addresses              proxy tracing ports
+   * @param connectionsPerEndpoint connections to open to each proxy
+   * @param balance                how senders pick connections
+   * @param connector              creates the sender behind one connection
+   */
+  public ProxyPool(List<InetSocketAddress> addresses, int connectionsPerEndpoint,
+                   Balance balance,
+                   Function<InetSocketAddress, WavefrontTracingSpanSender> connector) {
+    this(addresses, connectionsPerEndpoint, balance, DEFAULT_REBIND_SPANS, connector);
+  }
+
+  /**
+   * @param addresses              proxy tracing ports
+   * @param connectionsPerEndpoint connections to open to each proxy
+   * @param balance                how senders pick connections
+   * @param rebindSpans            spans a sender sends on one connection before picking again
+   * @param connector              creates the sender behind one connection
+   */
+  public ProxyPool(List<InetSocketAddress> addresses, int connectionsPerEndpoint,
+                   Balance balance, int rebindSpans,
+                   Function<InetSocketAddress, WavefrontTracingSpanSender> connector) {
+    if (addresses.isEmpty()) {
+      throw new IllegalArgumentException("at least one proxy endpoint is required");
+    }
+    if (connectionsPerEndpoint < 1) {
+      throw new IllegalArgumentException("connectionsPerEndpoint must be at least 1");
+    }
+    if (rebindSpans < 1) {
+      throw new IllegalArgumentException("rebindSpans must be at least 1");
+    }
+    this.balance = balance;
+    this.rebindSpans = rebindSpans;
+    List<Endpoint> endpoints = new ArrayList<>();
+    List<Connection> connections = new ArrayList<>();
+    for (InetSocketAddress address : addresses) {
+      Endpoint endpoint = new Endpoint(address);
+      endpoints.add(endpoint);
+      for (int i = 0; i < connectionsPerEndpoint; i++) {
+        connections.add(new Connection(endpoint, connector));
+      }
+    }
+    this.endpoints = Collections.unmodifiableList(endpoints);
+    this.connections = Collections.unmodifiableList(connections);
+  }
+
+  /**
+   * Parse a comma separated list of proxy endpoints
+   *
+   * @param list        endpoints as host:port or just host
+   * @param defaultPort port for endpoints without one
+   * @return the endpoints, unresolved so a proxy that is down at startup is retried later
+   * @throws IllegalArgumentException if an endpoint is malformed
+   */
+  public static List<InetSocketAddress> parseEndpoints(String list, int defaultPort) {
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    for (String entry : list.split(",")) {
+      String endpoint = entry.trim();
+      if (endpoint.isEmpty()) {
+        continue;
+      }
+      int colon = endpoint.lastIndexOf(':');
+      try {
+        addresses.add(colon < 0 ?
+            InetSocketAddress.createUnresolved(endpoint, defaultPort) :
+            InetSocketAddress.createUnresolved(endpoint.substring(0, colon),
+                Integer.parseInt(endpoint.substring(colon + 1))));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Invalid proxy endpoint " + endpoint, e);
+      }
+    }
+    return addresses;
+  }
+
+  /**
+   * @return a sender for one thread, bound to a connection on first use
+   */
+  public PooledSpanSender newSender() {
+    return new PooledSpanSender(this);
+  }
+
+  /**
+   * @return spans a sender sends on one connection before picking again
+   */
+  int rebindSpans() {
+    return rebindSpans;
+  }
+
+  /**
+   * @return the proxies, with their health
+   */
+  public List<Endpoint> endpoints() {
+    return endpoints;
+  }
+
+  /**
+   * Flush and close every connection
+   */
+  @Override
+  public void close() {
+    for (Connection connection : connections) {
+      connection.close();
+    }
+  }
+
+  @Override
+  public void bindTo(@NonNull MeterRegistry registry) {
+    for (Endpoint endpoint : endpoints) {
+      Tags tags = Tags.of("endpoint", endpoint.toString());
+      Gauge.builder("tracegenerator.proxy.healthy", endpoint, e -> e.healthy() ? 1 : 0).
+          tags(tags).description("1 if spans are being sent to the proxy").register(registry);
+      FunctionCounter.builder("tracegenerator.proxy.sent.spans", endpoint, Endpoint::sentSpans).
+          tags(tags).register(registry);
+      FunctionCounter.builder("tracegenerator.proxy.errors", endpoint, Endpoint::errors).
+          tags(tags).register(registry);
+    }
+  }
+
+  /**
+   * Bind a sender to a connection of a healthy endpoint, or of any endpoint if none is healthy
+   */
+  Connection acquire() {
+    Connection chosen = choose(true);
+    if (chosen == null) {
+      chosen = choose(false);
+    }
+    chosen.users.incrementAndGet();
+    return chosen;
+  }
+
+  void release(Connection connection) {
+    connection.users.decrementAndGet();
+  }
+
+  private Connection choose(boolean healthyOnly) {
+    int size = connections.size();
+    if (balance == Balance.ROUND_ROBIN) {
+      for (int i = 0; i < size; i++) {
+        Connection connection = connections.get(Math.floorMod(next.getAndIncrement(), size));
+        if (!healthyOnly || connection.endpoint.healthy()) {
+          return connection;
+        }
+      }
+      return null;
+    }
+    // start from a rotating offset so ties are spread too
+    int offset = Math.floorMod(next.getAndIncrement(), size);
+    Connection least = null;
+    for (int i = 0; i < size; i++) {
+      Connection connection = connections.get((offset + i) % size);
+      if ((!healthyOnly || connection.endpoint.healthy()) &&
+          (least == null || connection.users.get() < least.users.get())) {
+        least = connection;
+      }
+    }
+    return least;
+  }
+
+  /**
+   * One proxy and its health
+   */
+  public static class Endpoint {
+    private final InetSocketAddress address;
+    private final LongAdder sentSpans = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long retryAtNanos;
+
+    Endpoint(InetSocketAddress address) {
+      this.address = address;
+    }
+
+    public InetSocketAddress address() {
+      return address;
+    }
+
+    /**
+     * @return false while backing off after a failed send
+     */
+    public boolean healthy() {
+      return consecutiveFailures.get() == 0 || System.nanoTime() - retryAtNanos >= 0;
+    }
+
+    /**
+     * @return spans handed to the proxy's connections
+     */
+    public long sentSpans() {
+      return sentSpans.sum();
+    }
+
+    /**
+     * @return failed sends
+     */
+    public long errors() {
+      return errors.sum();
+    }
+
+    void succeeded(int spans) {
+      sentSpans.add(spans);
+      if (consecutiveFailures.get() != 0) {
+        consecutiveFailures.set(0);
+        log.info("Proxy " + this + " is healthy again");
+      }
+    }
+
+    /**
+     * @param e the failure, or null if the sender kept the spans and did not throw
+     */
+    void failed(IOException e) {
+      errors.increment();
+      int failures = consecutiveFailures.incrementAndGet();
+      long backoff = Math.min(MIN_BACKOFF_NANOS << Math.min(failures - 1, 16), MAX_BACKOFF_NANOS);
+      retryAtNanos = System.nanoTime() + backoff;
+      if (failures == 1) {
+        log.log(Level.WARNING, "Proxy " + this + " failed, sending elsewhere", e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return address.getHostString() + ":" + address.getPort();
+    }
+  }
+
+  /**
+   * One connection, used by one bound sender at a time
+   */
+  static class Connection {
+    final Endpoint endpoint;
+    final AtomicInteger users = new AtomicInteger();
+    private final Function<InetSocketAddress, WavefrontTracingSpanSender> connector;
+    private WavefrontTracingSpanSender sender;
+
+    private Connection(Endpoint endpoint,
+                       Function<InetSocketAddress, WavefrontTracingSpanSender> connector) {
+      this.endpoint = endpoint;
+      this.connector = connector;
+    }
+
+    /**
+     * @return the connection's sender, created on first use; callers must hold the lock
+     * @throws IOException if the proxy's host can't be resolved
+     */
+    WavefrontTracingSpanSender sender() throws IOException {
+      if (sender == null) {
+        // resolve now rather than at startup, so a proxy can come up after the generator
+        InetSocketAddress address = endpoint.address.isUnresolved() ?
+            new InetSocketAddress(endpoint.address.getHostString(), endpoint.address.getPort()) :
+            endpoint.address;
+        if (address.isUnresolved()) {
+          throw new UnknownHostException(address.getHostString());
+        }
+        sender = connector.apply(address);
+      }
+      return sender;
+    }
+
+    synchronized void close() {
+      if (sender instanceof BufferFlusher) {
+        try {
+          ((BufferFlusher) sender).flush();
+        } catch (IOException e) {
+          endpoint.failed(e);
+        }
+      }
+      if (sender instanceof Closeable) {
+        try {
+          ((Closeable) sender).close();
+        } catch (IOException ignored) {
+        }
+      }
+      sender = null;
+    }
+  }
+}
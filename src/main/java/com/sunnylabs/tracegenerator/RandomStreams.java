@@ -0,0 +1,53 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The per-thread source of randomness used while generating traces
+ * <p>
+ * Threads use {@link ThreadLocalRandom} unless a seeded stream has been bound to them. Binding
+ * each generating thread its own stream derived from one seed with {@link #split(long, int)}
+ * makes every thread's output reproducible no matter how the threads are scheduled.
+ */
+public final class RandomStreams {
+  private static final ThreadLocal<Random> bound = new ThreadLocal<>();
+
+  private RandomStreams() {
+  }
+
+  /**
+   * @return the calling thread's random source
+   */
+  public static Random current() {
+    Random random = bound.get();
+    return random != null ? random : ThreadLocalRandom.current();
+  }
+
+  /**
+   * Use a specific random source on the calling thread
+   *
+   * @param random the source, which must not be shared with other threads
+   */
+  public static void bind(Random random) {
+    bound.set(random);
+  }
+
+  /**
+   * Go back to {@link ThreadLocalRandom} on the calling thread
+   */
+  public static void unbind() {
+    bound.remove();
+  }
+
+  /**
+   * Derive an independent stream from a seed
+   *
+   * @param seed   the run's seed
+   * @param stream the stream number, e.g. 0 for topology construction and one per worker after
+   * @return a new random source that is always the same for the same seed and stream
+   */
+  public static Random split(long seed, int stream) {
+    return new SplitMixRandom(SplitMixRandom.mix(seed) ^ SplitMixRandom.mix(stream + 1L));
+  }
+}
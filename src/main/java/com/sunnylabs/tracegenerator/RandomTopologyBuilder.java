@@ -0,0 +1,228 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Builds random applications, services, operations and calls between them
+ * <p>
+ * Names are drawn from word lists without repeats within their scope, and once a list runs out
+ * the words are reused with a numeric suffix, so the size of the topology is not limited by the
+ * word lists. Operations are kept in one flat list with each service's operations next to each
+ * other, so every random pick is a constant time index lookup. Calls always go from an operation
+ * to one later in a random ordering, so the call graph never has cycles.
+ */
+public class RandomTopologyBuilder {
+  private final Random random;
+  private final NamePool applicationNames;
+  private final NamePool serviceNames;
+  private final NamePool operationNames;
+  private int applications = 10;
+  private int servicesPerApp = 50;
+  private int operationsPerService = 10;
+  private int internalCallsPerService = 3;
+
+  private final List<Operation> operations = new ArrayList<>();
+  // index of each service's first operation in operations, and one past the last service
+  private final List<Integer> serviceStarts = new ArrayList<>();
+  // index of each application's first service in serviceStarts, and one past the last app
+  private final List<Integer> appStarts = new ArrayList<>();
+  private int[] ranks;
+
+  /**
+   * @param random source for all random choices
+   * @param words  word lists by "applications", "services" and "operations"
+   */
+  public RandomTopologyBuilder(Random random, Map<String, List<String>> words) {
+    this.random = random;
+    this.applicationNames = new NamePool(words.get("applications"), "application");
+    this.serviceNames = new NamePool(words.get("services"), "service");
+    this.operationNames = new NamePool(words.get("operations"), "operation");
+  }
+
+  /**
+   * @return the generated applications by name
+   */
+  public Map<String, Application> build() {
+    Map<String, Application> apps = new HashMap<>();
+    for (int a = 0; a < applications; a++) {
+      Application app = createApplication(applicationNames.next(random));
+      apps.put(app.getName(), app);
+    }
+    appStarts.add(serviceStarts.size());
+    serviceStarts.add(operations.size());
+
+    ranks = new int[operations.size()];
+    for (int i = 0; i < ranks.length; i++) {
+      int j = random.nextInt(i + 1);
+      ranks[i] = ranks[j];
+      ranks[j] = i;
+    }
+    createInternalCalls();
+    createCrossServiceCalls();
+    createCrossAppCalls();
+    return apps;
+  }
+
+  /**
+   * @param applications how many applications to create
+   */
+  public RandomTopologyBuilder applications(int applications) {
+    this.applications = applications;
+    return this;
+  }
+
+  /**
+   * @param servicesPerApp how many services to create in each application
+   */
+  public RandomTopologyBuilder servicesPerApp(int servicesPerApp) {
+    this.servicesPerApp = servicesPerApp;
+    return this;
+  }
+
+  /**
+   * @param operationsPerService how many operations to create in each service
+   */
+  public RandomTopologyBuilder operationsPerService(int operationsPerService) {
+    this.operationsPerService = operationsPerService;
+    return this;
+  }
+
+  /**
+   * @param internalCallsPerService how many calls to add between each service's operations
+   */
+  public RandomTopologyBuilder internalCallsPerService(int internalCallsPerService) {
+    this.internalCallsPerService = internalCallsPerService;
+    return this;
+  }
+
+  private Application createApplication(String name) {
+    Application app = new Application();
+    app.setName(name);
+    appStarts.add(serviceStarts.size());
+    Map<String, Service> services = new HashMap<>();
+    serviceNames.reset();
+    for (int s = 0; s < servicesPerApp; s++) {
+      Service service = createService(serviceNames.next(random), name);
+      services.put(service.getName(), service);
+    }
+    app.setServices(services);
+    return app;
+  }
+
+  private Service createService(String name, String application) {
+    Service service = new Service();
+    service.setName(name);
+    service.setApplication(application);
+    serviceStarts.add(operations.size());
+    Map<String, Operation> ops = new HashMap<>();
+    operationNames.reset();
+    for (int o = 0; o < operationsPerService; o++) {
+      Operation op = new Operation(operationNames.next(random));
+      ops.put(op.getName(), op);
+      operations.add(op);
+    }
+    service.setOperations(ops);
+    return service;
+  }
+
+  private void createInternalCalls() {
+    for (int s = 0; s < serviceStarts.size() - 1; s++) {
+      int start = serviceStarts.get(s);
+      int count = serviceStarts.get(s + 1) - start;
+      for (int i = 0; i < internalCallsPerService && count > 1; i++) {
+        int from = random.nextInt(count);
+        int to = (from + 1 + random.nextInt(count - 1)) % count;
+        addCall(start + from, start + to);
+      }
+    }
+  }
+
+  private void createCrossServiceCalls() {
+    // connect every service of an app to a random earlier one
+    for (int a = 0; a < appStarts.size() - 1; a++) {
+      int first = appStarts.get(a);
+      int end = appStarts.get(a + 1);
+      for (int s = first + 1; s < end; s++) {
+        int from = randomOperation(s);
+        int to = randomOperation(first + random.nextInt(s - first));
+        if (from >= 0 && to >= 0) {
+          addCall(from, to);
+        }
+      }
+    }
+  }
+
+  private void createCrossAppCalls() {
+    int apps = appStarts.size() - 1;
+    if (apps < 2) {
+      return;
+    }
+    for (int i = 0; i < apps; i++) {
+      int fromApp = random.nextInt(apps);
+      int toApp = (fromApp + 1 + random.nextInt(apps - 1)) % apps;
+      int from = randomOperationInApp(fromApp);
+      int to = randomOperationInApp(toApp);
+      if (from >= 0 && to >= 0) {
+        addCall(from, to);
+      }
+    }
+  }
+
+  private int randomOperationInApp(int app) {
+    int first = appStarts.get(app);
+    int count = appStarts.get(app + 1) - first;
+    return count == 0 ? -1 : randomOperation(first + random.nextInt(count));
+  }
+
+  private int randomOperation(int service) {
+    int start = serviceStarts.get(service);
+    int count = serviceStarts.get(service + 1) - start;
+    return count == 0 ? -1 : start + random.nextInt(count);
+  }
+
+  private void addCall(int a, int b) {
+    if (ranks[a] < ranks[b]) {
+      operations.get(a).addCall(operations.get(b));
+    } else {
+      operations.get(b).addCall(operations.get(a));
+    }
+  }
+
+  /**
+   * Draws names without repeats until {@link #reset()}, adding a numeric suffix once every word
+   * has been used
+   */
+  private static class NamePool {
+    private final String[] words;
+    private int remaining;
+    private int round;
+
+    private NamePool(List<String> words, String fallback) {
+      this.words = words == null || words.isEmpty() ?
+          new String[]{fallback} : words.toArray(new String[0]);
+      reset();
+    }
+
+    private void reset() {
+      remaining = words.length;
+      round = 1;
+    }
+
+    private String next(Random random) {
+      if (remaining == 0) {
+        remaining = words.length;
+        round++;
+      }
+      // partial Fisher-Yates shuffle, the drawn word moves out of the remaining range
+      int i = random.nextInt(remaining);
+      String word = words[i];
+      words[i] = words[--remaining];
+      words[remaining] = word;
+      return round == 1 ? word : word + "-" + round;
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces work to a target rate using absolute deadlines on the {@link System#nanoTime()} clock.
+ * <p>
+ * Deadlines are derived from the number of permits issued since {@link #start()} rather than
+ * from the previous wakeup, so a late iteration is made up by the following ones instead of
+ * drifting. Long waits park the thread; the last stretch before a deadline is spun to keep
+ * scheduling jitter well under a millisecond.
+ * <p>
+ * A pacer is not thread safe and is meant to be owned by a single generating thread.
+ */
+public class RatePacer {
+  static final long SPIN_THRESHOLD_NANOS = 50_000;
+
+  private final double nanosPerPermit;
+  private long startNanos;
+  private long permitsIssued;
+
+  /**
+   * @param permitsPerSecond target rate, must be positive
+   */
+  public RatePacer(double permitsPerSecond) {
+    if (!(permitsPerSecond > 0)) {
+      throw new IllegalArgumentException("permitsPerSecond must be positive");
+    }
+    this.nanosPerPermit = 1_000_000_000d / permitsPerSecond;
+  }
+
+  /**
+   * Reset the schedule so the first deadline is now
+   */
+  public void start() {
+    startNanos = System.nanoTime();
+    permitsIssued = 0;
+  }
+
+  /**
+   * Block until the next deadline is reached
+   *
+   * @return how many nanoseconds past the deadline the caller was released, 0 or more
+   */
+  public long awaitNext() {
+    return awaitDeadline(nextDeadline());
+  }
+
+  /**
+   * Block until a {@link System#nanoTime()} deadline, parking for long waits and spinning the
+   * last stretch
+   *
+   * @param deadline the deadline
+   * @return how many nanoseconds past the deadline the caller was released, 0 or more
+   */
+  static long awaitDeadline(long deadline) {
+    long remaining = deadline - System.nanoTime();
+    if (remaining > SPIN_THRESHOLD_NANOS) {
+      LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+    }
+    long now;
+    while ((now = System.nanoTime()) - deadline < 0) {
+      Thread.onSpinWait();
+    }
+    return now - deadline;
+  }
+
+  /**
+   * Consume permits, moving the next deadline forward
+   *
+   * @param permits how many permits the last unit of work used, e.g. 1 per trace or the span count
+   */
+  public void advance(long permits) {
+    permitsIssued += permits;
+  }
+
+  /**
+   * @return the {@link System#nanoTime()} value at which the next unit of work is due
+   */
+  public long nextDeadline() {
+    return startNanos + (long) (permitsIssued * nanosPerPermit);
+  }
+}
@@ -0,0 +1,85 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link TraceSender} that hands each finished trace to a shared {@link SpanScheduler}, which
+ * sends every span when it would really have completed
+ * <p>
+ * Like any TraceSender it holds the trace in progress, so each generating thread should use its
+ * own; the scheduler they share is thread safe.
+ */
+public class RealtimeTraceSender extends TraceSender {
+  private final SpanScheduler scheduler;
+
+  /**
+   * @param scheduler the scheduler whose emitter sends the spans
+   */
+  public RealtimeTraceSender(SpanScheduler scheduler) {
+    this(scheduler, Span.idGenerator());
+  }
+
+  /**
+   * @param scheduler   the scheduler whose emitter sends the spans
+   * @param idGenerator generator for trace ids
+   */
+  public RealtimeTraceSender(SpanScheduler scheduler, IdGenerator idGenerator) {
+    super(null, idGenerator);
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Schedule the collected spans as one trace and start a new trace
+   */
+  @Override
+  public void flush() {
+    if (!spans.isEmpty()) {
+      List<Span> trace = spans;
+      spans = new ArrayList<>();
+      schedule(trace);
+    }
+    nextTrace();
+  }
+
+  @Override
+  public void send(List<Span> trace) {
+    if (!spans.isEmpty()) {
+      spans.addAll(trace);
+      flush();
+      return;
+    }
+    schedule(trace);
+    nextTrace();
+  }
+
+  /**
+   * Generate a trace and schedule it. Spans wait in the scheduler until they complete anyway, so
+   * the trace is collected rather than streamed.
+   */
+  @Override
+  public int stream(TraceGenerator tracer) {
+    List<Span> trace = tracer.generateTrace(traceId);
+    send(trace);
+    return trace.size();
+  }
+
+  /**
+   * Schedule every span in a batch and clear the batch
+   */
+  @Override
+  public void send(SpanBatch batch) {
+    if (!spans.isEmpty()) {
+      flush();
+    }
+    scheduler.submit(batch.toSpans());
+    batch.clear();
+  }
+
+  private void schedule(List<Span> trace) {
+    for (Span span : trace) {
+      span.traceId(traceId);
+    }
+    scheduler.submit(trace);
+  }
+}
@@ -0,0 +1,14 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.UUID;
+
+/**
+ * Creates ids with {@link UUID#randomUUID()}, which draws from a shared {@link
+ * java.security.SecureRandom} and becomes a contention point with several generating threads
+ */
+public class SecureIdGenerator implements IdGenerator {
+  @Override
+  public UUID nextId() {
+    return UUID.randomUUID();
+  }
+}
@@ -0,0 +1,47 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * Creates a reproducible sequence of ids from a seed
+ * <p>
+ * Each thread draws from its own stream split off the seeded root in the order threads first
+ * ask for an id, so the ids seen by a single thread are fully determined by the seed.
+ */
+public class SeededIdGenerator implements IdGenerator {
+  private final SplittableRandom root;
+  private final ThreadLocal<SplittableRandom> streams;
+
+  /**
+   * @param seed the seed from which all ids are derived
+   */
+  public SeededIdGenerator(long seed) {
+    root = new SplittableRandom(seed);
+    streams = ThreadLocal.withInitial(this::split);
+  }
+
+  @Override
+  public UUID nextId() {
+    SplittableRandom random = streams.get();
+    return IdGenerator.randomUuid(random.nextLong(), random.nextLong());
+  }
+
+  @Override
+  public void nextId(Span span) {
+    SplittableRandom random = streams.get();
+    span.spanIdHigh = IdGenerator.randomHigh(random.nextLong());
+    span.spanIdLow = IdGenerator.randomLow(random.nextLong());
+  }
+
+  @Override
+  public void nextId(long[] ids, int offset) {
+    SplittableRandom random = streams.get();
+    ids[offset] = IdGenerator.randomHigh(random.nextLong());
+    ids[offset + 1] = IdGenerator.randomLow(random.nextLong());
+  }
+
+  private synchronized SplittableRandom split() {
+    return root.split();
+  }
+}
@@ -1,13 +1,11 @@
 package com.sunnylabs.tracegenerator;
 
-import com.wavefront.sdk.common.Pair;
-
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.UUID;
 
 /**
@@ -45,13 +43,51 @@ public class Service implements TraceGenerator {
       return Collections.emptyList();
     }
     List<Span> spans = op.generateTrace(traceId);
-    spans.forEach(s -> {
-      s.duration += baseLatency;
-      tags.forEach((k, v) -> s.tags.add(new Pair<>(k, v)));
-    });
+    spans.forEach(s -> s.duration += baseLatency);
     return spans;
   }
 
+  /**
+   * Generate a trace for a random operation in the service, pushing spans as they are generated
+   *
+   * @param traceId UUID to add as the traceId for generated spans
+   * @param sink    receives the spans
+   * @return the number of spans generated
+   * @throws IOException if the sink failed
+   */
+  @Override
+  public int generateTrace(UUID traceId, SpanSink sink) throws IOException {
+    Operation op = operations.get(getRandomOperation());
+    if (op == null) {
+      return 0;
+    }
+    return op.generateTrace(traceId, span -> {
+      span.duration += baseLatency;
+      sink.accept(span);
+    });
+  }
+
+  /**
+   * Generate a trace for a random operation in the service into the rows of a batch
+   *
+   * @param traceId UUID to add as the traceId for generated spans
+   * @param batch   receives the spans
+   * @return the number of spans generated
+   */
+  @Override
+  public int generateTrace(UUID traceId, SpanBatch batch) {
+    Operation op = operations.get(getRandomOperation());
+    if (op == null) {
+      return 0;
+    }
+    int first = batch.rows();
+    int count = op.generateTrace(traceId, batch);
+    for (int row = first; row < first + count; row++) {
+      batch.addDuration(row, baseLatency);
+    }
+    return count;
+  }
+
   /**
    * Set the operations available in the service
    *
@@ -61,13 +97,26 @@ public class Service implements TraceGenerator {
     for (Operation op : operations.values()) {
       op.setService(this.name);
       op.setApplication(this.application);
+      op.setServiceTags(this.tags);
     }
     this.operations = operations;
   }
 
+  /**
+   * Set the tags added to every span of the service's operations
+   *
+   * @param tags span tags by key
+   */
+  public void setTags(Map<String, String> tags) {
+    this.tags = tags;
+    if (operations != null) {
+      operations.values().forEach(op -> op.setServiceTags(tags));
+    }
+  }
+
   private String getRandomOperation() {
     List<String> names = new ArrayList<>(this.operations.keySet());
-    return names.get(new Random().nextInt(names.size()));
+    return names.get(RandomStreams.current().nextInt(names.size()));
   }
 
   /**
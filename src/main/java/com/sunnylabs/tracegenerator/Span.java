@@ -5,24 +5,61 @@ import com.wavefront.sdk.common.Pair;
 import com.wavefront.sdk.entities.tracing.SpanLog;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
 /**
  * An individual span in a trace
+ * <p>
+ * Spans are kept compact because millions are generated per second: ids are stored as pairs of
+ * longs rather than {@link UUID}s, with zero meaning no id, the single parent most spans have is
+ * stored inline, tags are one array of alternating keys and values that spans from the same
+ * {@link SpanTemplate} share, and span logs are only allocated when a span has some. The
+ * {@link #traceId()}, {@link #spanId()}, {@link #parents()} and {@link #tagList()} views are
+ * created on demand for the SDK.
  */
 public class Span {
+  private static volatile IdGenerator idGenerator = new FastIdGenerator();
+  private static final String[] NO_TAGS = new String[0];
 
   public String operationName;
   public long startTime;
   public long duration;
   public String source;
-  public UUID traceId;
-  public UUID spanId;
-  public List<UUID> parents;
+  public long traceIdHigh;
+  public long traceIdLow;
+  public long spanIdHigh;
+  public long spanIdLow;
+  /**
+   * the first parent, both halves zero for a root span
+   */
+  public long parentIdHigh;
+  public long parentIdLow;
+  /**
+   * parents after the first, null for the usual single parent
+   */
+  public List<UUID> moreParents;
   public List<UUID> followsFrom;
-  public List<Pair<String, String>> tags;
+  /**
+   * tag keys and values, alternating; may be shared with other spans and must not be modified
+   */
+  public String[] tags = NO_TAGS;
+  /**
+   * span logs, null until the span has any
+   */
   public List<SpanLog> spanLogs;
+  /**
+   * the template this span was created from, if any
+   */
+  public SpanTemplate template;
+
+  /**
+   * Create an empty span to fill in field by field
+   */
+  public Span() {
+  }
 
   /**
    * @param operationName the operation this span represents
@@ -41,23 +78,188 @@ public class Span {
     this.startTime = startTime;
     this.duration = duration;
     this.source = source;
-    this.traceId = traceId;
-    this.spanId = spanId;
-    this.parents = parents;
+    traceId(traceId);
+    spanId(spanId);
+    parents(parents);
     this.followsFrom = followsFrom;
-    this.tags = tags;
-    this.spanLogs = spanLogs;
+    if (tags != null) {
+      this.tags = new String[tags.size() * 2];
+      for (int i = 0; i < tags.size(); i++) {
+        this.tags[2 * i] = tags.get(i)._1;
+        this.tags[2 * i + 1] = tags.get(i)._2;
+      }
+    }
+    if (spanLogs != null && !spanLogs.isEmpty()) {
+      this.spanLogs = spanLogs;
+    }
+  }
+
+  /**
+   * @return the generator used for new span and trace ids
+   */
+  public static IdGenerator idGenerator() {
+    return idGenerator;
+  }
+
+  /**
+   * Set the generator used for new span and trace ids
+   *
+   * @param generator the id generator
+   */
+  public static void setIdGenerator(IdGenerator generator) {
+    idGenerator = generator;
+  }
+
+  /**
+   * @return the trace id, or null if it was never set
+   */
+  public UUID traceId() {
+    return uuid(traceIdHigh, traceIdLow);
+  }
+
+  /**
+   * @param traceId the trace id, or null to clear it
+   */
+  public void traceId(UUID traceId) {
+    traceIdHigh = traceId == null ? 0 : traceId.getMostSignificantBits();
+    traceIdLow = traceId == null ? 0 : traceId.getLeastSignificantBits();
+  }
+
+  /**
+   * @return the span id, or null if it was never set
+   */
+  public UUID spanId() {
+    return uuid(spanIdHigh, spanIdLow);
+  }
+
+  /**
+   * @param spanId the span id, or null to clear it
+   */
+  public void spanId(UUID spanId) {
+    spanIdHigh = spanId == null ? 0 : spanId.getMostSignificantBits();
+    spanIdLow = spanId == null ? 0 : spanId.getLeastSignificantBits();
+  }
+
+  /**
+   * @return the parent span ids, or null for a root span
+   */
+  public List<UUID> parents() {
+    if (!hasParent()) {
+      return null;
+    }
+    UUID first = new UUID(parentIdHigh, parentIdLow);
+    if (moreParents == null) {
+      return Collections.singletonList(first);
+    }
+    List<UUID> parents = new ArrayList<>(moreParents.size() + 1);
+    parents.add(first);
+    parents.addAll(moreParents);
+    return parents;
+  }
+
+  /**
+   * @param parents the parent span ids, null or empty for a root span
+   */
+  public void parents(List<UUID> parents) {
+    boolean hasParent = parents != null && !parents.isEmpty();
+    parentIdHigh = hasParent ? parents.get(0).getMostSignificantBits() : 0;
+    parentIdLow = hasParent ? parents.get(0).getLeastSignificantBits() : 0;
+    moreParents = hasParent && parents.size() > 1 ?
+        new ArrayList<>(parents.subList(1, parents.size())) : null;
+  }
+
+  /**
+   * Make another span the only parent of this one
+   *
+   * @param parent the parent span, whose id must be set
+   */
+  public void parent(Span parent) {
+    parentIdHigh = parent.spanIdHigh;
+    parentIdLow = parent.spanIdLow;
+    moreParents = null;
+  }
+
+  /**
+   * @return whether the span has a parent
+   */
+  public boolean hasParent() {
+    return parentIdHigh != 0 || parentIdLow != 0;
+  }
+
+  /**
+   * @return the number of parents
+   */
+  public int parentCount() {
+    return !hasParent() ? 0 : moreParents == null ? 1 : moreParents.size() + 1;
+  }
+
+  /**
+   * @return the tags as the key value pairs the SDK takes, shared with the template if there is one
+   */
+  public List<Pair<String, String>> tagList() {
+    if (template != null) {
+      List<Pair<String, String>> shared = template.tagList(tags);
+      if (shared != null) {
+        return shared;
+      }
+    }
+    List<Pair<String, String>> list = new ArrayList<>(tags.length / 2);
+    for (int i = 0; i < tags.length; i += 2) {
+      list.add(new Pair<>(tags[i], tags[i + 1]));
+    }
+    return list;
+  }
+
+  /**
+   * @param key a tag key
+   * @return the value of the first tag with the key, or null if there is none; constant time for
+   * spans that still have their template's tags
+   */
+  public String tagValue(String key) {
+    if (template != null) {
+      String value = template.tagValue(tags, key);
+      if (value != null || template.tagList(tags) != null) {
+        return value;
+      }
+    }
+    for (int i = 0; i < tags.length; i += 2) {
+      if (tags[i].equals(key)) {
+        return tags[i + 1];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the span logs, empty if there are none
+   */
+  public List<SpanLog> spanLogs() {
+    return spanLogs == null ? Collections.emptyList() : spanLogs;
+  }
+
+  private static UUID uuid(long high, long low) {
+    return high == 0 && low == 0 ? null : new UUID(high, low);
   }
 
   public static class Builder {
+    private static final int INITIAL_TAGS = 8;
+    private static final int APPLICATION = 1;
+    private static final int CLUSTER = 2;
+    private static final int SERVICE = 4;
+    private static final int SHARD = 8;
+    private static final int IDENTITY = APPLICATION | CLUSTER | SERVICE | SHARD;
+
     public UUID traceId;
     public UUID spanId;
     public long startMillis;
     public long durationMillis;
     List<UUID> parents;
     List<UUID> followsFrom;
-    List<Pair<String, String>> tags = new ArrayList<>();
-    List<SpanLog> spanLogs = new ArrayList<>();
+    String[] tags = new String[2 * INITIAL_TAGS];
+    int tagCount;
+    // identity tags added explicitly, so build does not search the tags for them
+    private int identityTags;
+    List<SpanLog> spanLogs;
     private String operationName;
     private String source;
     private String application;
@@ -65,17 +267,19 @@ public class Span {
     private String service;
     private String shard;
     private double errorChance;
+    // rolled on the first build, so building again gives the same error status
+    private Boolean error;
+    private IdGenerator idGenerator = Span.idGenerator;
 
     public Builder() {
       this("operation",
           System.currentTimeMillis(),
-          (long) (Math.random() * 500),
+          RandomStreams.current().nextInt(500),
           "source");
     }
 
     public Builder(String operationName, long startMillis, long durationMillis,
                    String source) {
-      this.spanId = UUID.randomUUID();
       this.operationName = operationName;
       this.startMillis = startMillis;
       this.durationMillis = durationMillis;
@@ -93,7 +297,13 @@ public class Span {
     }
 
     public Builder addTag(String key, String value) {
-      this.tags.add(new Pair<>(key, value));
+      if (2 * tagCount == tags.length) {
+        tags = Arrays.copyOf(tags, tags.length * 2);
+      }
+      tags[2 * tagCount] = key;
+      tags[2 * tagCount + 1] = value;
+      tagCount++;
+      identityTags |= identityTag(key);
       return this;
     }
 
@@ -113,49 +323,92 @@ public class Span {
       return this;
     }
 
+    /**
+     * Create a span. The builder is left unchanged, apart from the error roll, so it can build
+     * more spans with the same tags and error status.
+     */
     public Span build() {
-      spanId = spanId == null ? UUID.randomUUID() : spanId;
-      operationName = Strings.isNullOrEmpty(operationName) ? "operationName" : operationName;
-      source = Strings.isNullOrEmpty(source) ? "source" : source;
-
-      addIdentityTags();
-
-      if (errorChance > Math.random() * 100) {
-        addError();
+      if (error == null) {
+        error = errorChance > RandomStreams.current().nextDouble() * 100;
+      }
+      int missing = Integer.bitCount(IDENTITY & ~identityTags);
+      String[] spanTags = Arrays.copyOf(tags, 2 * (tagCount + missing + (error ? 1 : 0)));
+      int count = addIdentityTags(spanTags, tagCount);
+      if (error) {
+        put(spanTags, count, "error", "true");
       }
 
-      return new Span(operationName, startMillis, durationMillis, source, traceId, spanId,
-          parents, followsFrom, tags, spanLogs);
+      Span span = new Span();
+      span.operationName = Strings.isNullOrEmpty(operationName) ? "operationName" : operationName;
+      span.startTime = startMillis;
+      span.duration = durationMillis;
+      span.source = Strings.isNullOrEmpty(source) ? "source" : source;
+      span.traceId(traceId);
+      if (spanId != null) {
+        span.spanId(spanId);
+      } else {
+        idGenerator.nextId(span);
+      }
+      span.parents(parents);
+      span.followsFrom = followsFrom;
+      span.tags = spanTags;
+      if (spanLogs != null && !spanLogs.isEmpty()) {
+        span.spanLogs = spanLogs;
+      }
+      return span;
     }
 
-    private void addIdentityTags() {
-      if (!hasTag("application", tags)) {
-        addTag("application", Strings.isNullOrEmpty(application) ? "application" : application);
+    /**
+     * Append the identity tags that were not added explicitly
+     *
+     * @return the tag count afterwards
+     */
+    private int addIdentityTags(String[] spanTags, int count) {
+      if ((identityTags & APPLICATION) == 0) {
+        count = put(spanTags, count, "application",
+            Strings.isNullOrEmpty(application) ? "application" : application);
       }
-      if (!hasTag("cluster", tags)) {
-        addTag("cluster", Strings.isNullOrEmpty(cluster) ? "cluster" : cluster);
+      if ((identityTags & CLUSTER) == 0) {
+        count = put(spanTags, count, "cluster",
+            Strings.isNullOrEmpty(cluster) ? "cluster" : cluster);
       }
-      if (!hasTag("service", tags)) {
-        addTag("service", Strings.isNullOrEmpty(service) ? "service" : service);
+      if ((identityTags & SERVICE) == 0) {
+        count = put(spanTags, count, "service",
+            Strings.isNullOrEmpty(service) ? "service" : service);
       }
-      if (!hasTag("shard", tags)) {
-        addTag("shard", Strings.isNullOrEmpty(shard) ? "shard" : shard);
+      if ((identityTags & SHARD) == 0) {
+        count = put(spanTags, count, "shard", Strings.isNullOrEmpty(shard) ? "shard" : shard);
       }
+      return count;
     }
 
-    private void addError() {
-      addTag("error", "true");
-      // Uncomment the following line to enable sending of span logs
-      // spanLogs.add(new SpanLog(1000, ImmutableMap.of("errorChance", String.valueOf(errorChance))));
+    private static int put(String[] spanTags, int count, String key, String value) {
+      spanTags[2 * count] = key;
+      spanTags[2 * count + 1] = value;
+      return count + 1;
     }
 
-    private boolean hasTag(String tagName, List<Pair<String, String>> tags) {
-      for (Pair<String, String> tag : tags) {
-        if (tag._1.equals(tagName)) {
-          return true;
-        }
+    private static int identityTag(String key) {
+      if (key == null) {
+        return 0;
+      }
+      switch (key) {
+        case "application":
+          return APPLICATION;
+        case "cluster":
+          return CLUSTER;
+        case "service":
+          return SERVICE;
+        case "shard":
+          return SHARD;
+        default:
+          return 0;
       }
-      return false;
+    }
+
+    public Builder idGenerator(IdGenerator idGenerator) {
+      this.idGenerator = idGenerator;
+      return this;
     }
 
     public Builder errorChance(double percentage) {
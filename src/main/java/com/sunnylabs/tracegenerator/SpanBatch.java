@@ -0,0 +1,288 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Spans from many traces stored column by column
+ * <p>
+ * Each span is a row across primitive arrays: start time, duration, the two halves of its trace,
+ * span and parent ids, an error flag and an int reference to its {@link SpanTemplate}, which holds
+ * the interned name, source and tags. Generators append rows without creating span objects, and
+ * {@link NioSpanSender} encodes a whole batch in one tight loop, so thousands of spans cost a few
+ * array writes each and one socket write per buffer. Spans that did not come from a template or
+ * no longer match it are kept aside as objects and sent after the rows.
+ * <p>
+ * A batch is reused after {@link #clear()} and is not thread safe; each generating thread should
+ * fill its own.
+ */
+public class SpanBatch {
+  public static final int DEFAULT_CAPACITY = 1024;
+  // an id is two longs, high then low
+  private static final int ID_LONGS = 2;
+
+  private final Map<SpanTemplate, Integer> templateRefs = new IdentityHashMap<>();
+  private final List<SpanTemplate> templates = new ArrayList<>();
+  private final List<Span> others = new ArrayList<>();
+  private int size;
+  private int traces;
+  private long[] startMillis;
+  private long[] durations;
+  private long[] traceIds;
+  private long[] spanIds;
+  private long[] parentIds;
+  private int[] templateIndexes;
+  private boolean[] errors;
+
+  public SpanBatch() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity number of rows to allocate up front; the batch grows as needed
+   */
+  public SpanBatch(int capacity) {
+    capacity = Math.max(capacity, 1);
+    startMillis = new long[capacity];
+    durations = new long[capacity];
+    traceIds = new long[ID_LONGS * capacity];
+    spanIds = new long[ID_LONGS * capacity];
+    parentIds = new long[ID_LONGS * capacity];
+    templateIndexes = new int[capacity];
+    errors = new boolean[capacity];
+  }
+
+  /**
+   * Append a row for a new span with a fresh span id
+   *
+   * @param template    the span's operation
+   * @param traceId     trace the span belongs to
+   * @param parentRow   row of the parent span, or -1 for a root span
+   * @param startMillis millisecond timestamp for the beginning of the span
+   * @param duration    total duration for the span in milliseconds
+   * @param error       whether the span has the error tag
+   * @param ids         generator for the span id
+   * @return the new row
+   */
+  public int add(SpanTemplate template, UUID traceId, int parentRow, long startMillis,
+                 long duration, boolean error, IdGenerator ids) {
+    int row = append(template, startMillis, duration, error);
+    traceIds[ID_LONGS * row] = traceId.getMostSignificantBits();
+    traceIds[ID_LONGS * row + 1] = traceId.getLeastSignificantBits();
+    ids.nextId(spanIds, ID_LONGS * row);
+    if (parentRow >= 0) {
+      parentIds[ID_LONGS * row] = spanIds[ID_LONGS * parentRow];
+      parentIds[ID_LONGS * row + 1] = spanIds[ID_LONGS * parentRow + 1];
+    } else {
+      parentIds[ID_LONGS * row] = 0;
+      parentIds[ID_LONGS * row + 1] = 0;
+    }
+    return row;
+  }
+
+  /**
+   * Append an existing span, as a row if it still matches its template
+   *
+   * @param span the span, with its trace id set
+   */
+  public void add(Span span) {
+    SpanTemplate template = span.template;
+    if (template == null || !template.matches(span) || span.moreParents != null ||
+        span.followsFrom != null || span.spanLogs != null) {
+      others.add(span);
+      return;
+    }
+    int row = append(template, span.startTime, span.duration, template.isError(span));
+    traceIds[ID_LONGS * row] = span.traceIdHigh;
+    traceIds[ID_LONGS * row + 1] = span.traceIdLow;
+    spanIds[ID_LONGS * row] = span.spanIdHigh;
+    spanIds[ID_LONGS * row + 1] = span.spanIdLow;
+    parentIds[ID_LONGS * row] = span.parentIdHigh;
+    parentIds[ID_LONGS * row + 1] = span.parentIdLow;
+  }
+
+  /**
+   * Copy a range of rows into a new batch, for handing them to another thread while this batch
+   * is reused
+   *
+   * @param from first row to copy
+   * @param to   row after the last one to copy
+   * @return a new batch holding only those rows
+   */
+  public SpanBatch copy(int from, int to) {
+    SpanBatch copy = new SpanBatch(to - from);
+    for (int row = from; row < to; row++) {
+      int target = copy.append(template(row), startMillis[row], durations[row], errors[row]);
+      System.arraycopy(traceIds, ID_LONGS * row, copy.traceIds, ID_LONGS * target, ID_LONGS);
+      System.arraycopy(spanIds, ID_LONGS * row, copy.spanIds, ID_LONGS * target, ID_LONGS);
+      System.arraycopy(parentIds, ID_LONGS * row, copy.parentIds, ID_LONGS * target, ID_LONGS);
+    }
+    return copy;
+  }
+
+  /**
+   * Count a complete trace
+   */
+  public void endTrace() {
+    traces++;
+  }
+
+  /**
+   * @return rows in the batch, not counting spans kept as objects
+   */
+  public int rows() {
+    return size;
+  }
+
+  /**
+   * @return all spans in the batch
+   */
+  public int size() {
+    return size + others.size();
+  }
+
+  /**
+   * @return traces counted with {@link #endTrace()} since the last clear
+   */
+  public int traces() {
+    return traces;
+  }
+
+  /**
+   * Empty the batch, keeping its arrays for reuse
+   */
+  public void clear() {
+    size = 0;
+    traces = 0;
+    others.clear();
+    // templates are dropped too, so a batch never pins operations of a replaced topology
+    templates.clear();
+    templateRefs.clear();
+  }
+
+  /**
+   * @return the template of a row
+   */
+  public SpanTemplate template(int row) {
+    return templates.get(templateIndexes[row]);
+  }
+
+  public long startMillis(int row) {
+    return startMillis[row];
+  }
+
+  public long duration(int row) {
+    return durations[row];
+  }
+
+  /**
+   * Add to the duration of a row
+   */
+  public void addDuration(int row, long millis) {
+    durations[row] += millis;
+  }
+
+  public boolean error(int row) {
+    return errors[row];
+  }
+
+  public long traceIdHigh(int row) {
+    return traceIds[ID_LONGS * row];
+  }
+
+  public long traceIdLow(int row) {
+    return traceIds[ID_LONGS * row + 1];
+  }
+
+  public long spanIdHigh(int row) {
+    return spanIds[ID_LONGS * row];
+  }
+
+  public long spanIdLow(int row) {
+    return spanIds[ID_LONGS * row + 1];
+  }
+
+  public long parentIdHigh(int row) {
+    return parentIds[ID_LONGS * row];
+  }
+
+  public long parentIdLow(int row) {
+    return parentIds[ID_LONGS * row + 1];
+  }
+
+  /**
+   * @return whether a row has a parent
+   */
+  public boolean hasParent(int row) {
+    return parentIds[ID_LONGS * row] != 0 || parentIds[ID_LONGS * row + 1] != 0;
+  }
+
+  /**
+   * @return the spans that are kept as objects rather than rows
+   */
+  public List<Span> others() {
+    return others;
+  }
+
+  /**
+   * Create a span object for a row, for senders that need one
+   *
+   * @param row the row
+   * @return a new span equal to the row
+   */
+  public Span span(int row) {
+    Span span = template(row).newSpan(startMillis[row], durations[row], errors[row]);
+    span.traceIdHigh = traceIdHigh(row);
+    span.traceIdLow = traceIdLow(row);
+    span.spanIdHigh = spanIdHigh(row);
+    span.spanIdLow = spanIdLow(row);
+    span.parentIdHigh = parentIdHigh(row);
+    span.parentIdLow = parentIdLow(row);
+    return span;
+  }
+
+  /**
+   * @return every span in the batch as an object, rows first
+   */
+  public List<Span> toSpans() {
+    List<Span> spans = new ArrayList<>(size());
+    for (int row = 0; row < size; row++) {
+      spans.add(span(row));
+    }
+    spans.addAll(others);
+    return spans;
+  }
+
+  private int append(SpanTemplate template, long start, long duration, boolean error) {
+    if (size == startMillis.length) {
+      grow();
+    }
+    Integer ref = templateRefs.get(template);
+    if (ref == null) {
+      ref = templates.size();
+      templates.add(template);
+      templateRefs.put(template, ref);
+    }
+    int row = size++;
+    startMillis[row] = start;
+    durations[row] = duration;
+    templateIndexes[row] = ref;
+    errors[row] = error;
+    return row;
+  }
+
+  private void grow() {
+    int capacity = startMillis.length * 2;
+    startMillis = Arrays.copyOf(startMillis, capacity);
+    durations = Arrays.copyOf(durations, capacity);
+    traceIds = Arrays.copyOf(traceIds, ID_LONGS * capacity);
+    spanIds = Arrays.copyOf(spanIds, ID_LONGS * capacity);
+    parentIds = Arrays.copyOf(parentIds, ID_LONGS * capacity);
+    templateIndexes = Arrays.copyOf(templateIndexes, capacity);
+    errors = Arrays.copyOf(errors, capacity);
+  }
+}
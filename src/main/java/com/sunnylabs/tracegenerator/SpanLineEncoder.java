@@ -0,0 +1,325 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.common.Pair;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Encodes spans in the Wavefront span line format directly into a {@link ByteBuffer}
+ * <p>
+ * The output is byte for byte what the Wavefront SDK produces, but escaping and UTF-8 encoding
+ * are done per character straight into the buffer, so no intermediate strings are created.
+ * Callers must make sure the buffer has at least {@link #maxEncodedLength} bytes remaining.
+ */
+public final class SpanLineEncoder {
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+  private static final byte[] SOURCE = " source=".getBytes();
+  private static final byte[] TRACE_ID = " traceId=".getBytes();
+  private static final byte[] SPAN_ID = " spanId=".getBytes();
+  private static final byte[] PARENT = " parent=".getBytes();
+  private static final byte[] FOLLOWS_FROM = " followsFrom=".getBytes();
+  private static final int UUID_LENGTH = 36;
+  private static final int MAX_LONG_LENGTH = 20;
+  // worst case for one char: 3 UTF-8 bytes
+  private static final int MAX_BYTES_PER_CHAR = 3;
+
+  private SpanLineEncoder() {
+  }
+
+  /**
+   * @return an upper bound for the encoded size of the span in bytes
+   */
+  public static int maxEncodedLength(String name, String source, List<UUID> parents,
+                                     List<UUID> followsFrom, List<Pair<String, String>> tags) {
+    int length = maxHeadLength(name, source) + maxIdsAndTimestampsLength(parents, followsFrom);
+    if (tags != null) {
+      for (Pair<String, String> tag : tags) {
+        length += maxTagLength(tag._1, tag._2);
+      }
+    }
+    return length;
+  }
+
+  /**
+   * @return an upper bound for the encoded size of the name and source
+   */
+  public static int maxHeadLength(String name, String source) {
+    return MAX_BYTES_PER_CHAR * (name.length() + source.length()) + 4 + SOURCE.length;
+  }
+
+  /**
+   * @return an upper bound for the encoded size of one tag, including its leading space
+   */
+  public static int maxTagLength(String key, String value) {
+    // space, =, two pairs of quotes and an escape for every value character
+    return 6 + MAX_BYTES_PER_CHAR * key.length() + 2 * MAX_BYTES_PER_CHAR * value.length();
+  }
+
+  /**
+   * Write one span line, including the trailing newline
+   *
+   * @throws IllegalArgumentException if the name, source or a tag is blank, as the SDK does
+   */
+  public static void encode(ByteBuffer buffer, String name, long startMillis, long durationMillis,
+                            String source, UUID traceId, UUID spanId, List<UUID> parents,
+                            List<UUID> followsFrom, List<Pair<String, String>> tags) {
+    if (name == null || name.isEmpty()) {
+      throw new IllegalArgumentException("span name cannot be blank");
+    }
+    if (source == null || source.isEmpty()) {
+      throw new IllegalArgumentException("span source cannot be blank");
+    }
+    writeHead(buffer, name, source);
+    writeIds(buffer, traceId, spanId, parents, followsFrom);
+    if (tags != null) {
+      for (Pair<String, String> tag : tags) {
+        writeTag(buffer, tag._1, tag._2);
+      }
+    }
+    writeTimestamps(buffer, startMillis, durationMillis);
+  }
+
+  /**
+   * Write the name and source that begin a span line
+   */
+  public static void writeHead(ByteBuffer buffer, String name, String source) {
+    writeValue(buffer, name);
+    buffer.put(SOURCE);
+    writeKey(buffer, source);
+  }
+
+  /**
+   * Write the trace, span, parent and follows from ids that follow the source
+   */
+  public static void writeIds(ByteBuffer buffer, UUID traceId, UUID spanId, List<UUID> parents,
+                              List<UUID> followsFrom) {
+    buffer.put(TRACE_ID);
+    writeUuid(buffer, traceId);
+    buffer.put(SPAN_ID);
+    writeUuid(buffer, spanId);
+    if (parents != null) {
+      for (UUID parent : parents) {
+        buffer.put(PARENT);
+        writeUuid(buffer, parent);
+      }
+    }
+    if (followsFrom != null) {
+      for (UUID from : followsFrom) {
+        buffer.put(FOLLOWS_FROM);
+        writeUuid(buffer, from);
+      }
+    }
+  }
+
+  /**
+   * Write the ids of a span, reading its id halves directly
+   */
+  public static void writeIds(ByteBuffer buffer, Span span) {
+    buffer.put(TRACE_ID);
+    writeUuid(buffer, span.traceIdHigh, span.traceIdLow);
+    buffer.put(SPAN_ID);
+    writeUuid(buffer, span.spanIdHigh, span.spanIdLow);
+    if (span.hasParent()) {
+      buffer.put(PARENT);
+      writeUuid(buffer, span.parentIdHigh, span.parentIdLow);
+      if (span.moreParents != null) {
+        for (UUID parent : span.moreParents) {
+          buffer.put(PARENT);
+          writeUuid(buffer, parent);
+        }
+      }
+    }
+    if (span.followsFrom != null) {
+      for (UUID from : span.followsFrom) {
+        buffer.put(FOLLOWS_FROM);
+        writeUuid(buffer, from);
+      }
+    }
+  }
+
+  /**
+   * Write the ids of a {@link SpanBatch} row
+   */
+  public static void writeIds(ByteBuffer buffer, SpanBatch batch, int row) {
+    buffer.put(TRACE_ID);
+    writeUuid(buffer, batch.traceIdHigh(row), batch.traceIdLow(row));
+    buffer.put(SPAN_ID);
+    writeUuid(buffer, batch.spanIdHigh(row), batch.spanIdLow(row));
+    if (batch.hasParent(row)) {
+      buffer.put(PARENT);
+      writeUuid(buffer, batch.parentIdHigh(row), batch.parentIdLow(row));
+    }
+  }
+
+  /**
+   * @return an upper bound for the encoded size of the ids, timestamps and newline
+   */
+  public static int maxIdsAndTimestampsLength(List<UUID> parents, List<UUID> followsFrom) {
+    return maxIdsAndTimestampsLength(parents == null ? 0 : parents.size(),
+        followsFrom == null ? 0 : followsFrom.size());
+  }
+
+  /**
+   * @return an upper bound for the encoded size of the ids, timestamps and newline
+   */
+  public static int maxIdsAndTimestampsLength(int parents, int followsFrom) {
+    return TRACE_ID.length + SPAN_ID.length + 2 * UUID_LENGTH + 2 * (MAX_LONG_LENGTH + 1) + 1 +
+        parents * (PARENT.length + UUID_LENGTH) + followsFrom * (FOLLOWS_FROM.length + UUID_LENGTH);
+  }
+
+  /**
+   * Write the start time and duration that end a span line, and the newline
+   */
+  public static void writeTimestamps(ByteBuffer buffer, long startMillis, long durationMillis) {
+    buffer.put((byte) ' ');
+    writeLong(buffer, startMillis);
+    buffer.put((byte) ' ');
+    writeLong(buffer, durationMillis);
+    buffer.put((byte) '\n');
+  }
+
+  /**
+   * Write a tag with its leading space
+   *
+   * @throws IllegalArgumentException if the key or value is blank, as the SDK does
+   */
+  public static void writeTag(ByteBuffer buffer, String key, String value) {
+    if (key == null || key.isEmpty()) {
+      throw new IllegalArgumentException("span tag key cannot be blank");
+    }
+    if (value == null || value.isEmpty()) {
+      throw new IllegalArgumentException("span tag value cannot be blank for tag key: " + key);
+    }
+    buffer.put((byte) ' ');
+    writeKey(buffer, key);
+    buffer.put((byte) '=');
+    writeValue(buffer, value);
+  }
+
+  /**
+   * Write a quoted key or source, replacing unsupported characters with -
+   */
+  public static void writeKey(ByteBuffer buffer, String key) {
+    buffer.put((byte) '"');
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      boolean allowed = (c >= ',' && c <= '9' && c != '/') || (c >= 'A' && c <= 'Z') ||
+          (c >= 'a' && c <= 'z') || c == '_' ||
+          (i == 0 && (c == '\u2206' || c == '\u0394' || c == '~'));
+      if (allowed) {
+        writeChar(buffer, c);
+      } else {
+        buffer.put((byte) '-');
+      }
+    }
+    buffer.put((byte) '"');
+  }
+
+  /**
+   * Write a trimmed, quoted value with quotes and newlines escaped
+   */
+  public static void writeValue(ByteBuffer buffer, String value) {
+    int start = 0;
+    int end = value.length();
+    while (start < end && value.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && value.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    buffer.put((byte) '"');
+    for (int i = start; i < end; i++) {
+      char c = value.charAt(i);
+      if (c == '"') {
+        buffer.put((byte) '\\').put((byte) '"');
+      } else if (c == '\n') {
+        buffer.put((byte) '\\').put((byte) 'n');
+      } else if (c < 0x80) {
+        buffer.put((byte) c);
+      } else if (Character.isHighSurrogate(c) && i + 1 < end &&
+          Character.isLowSurrogate(value.charAt(i + 1))) {
+        writeCodePoint(buffer, Character.toCodePoint(c, value.charAt(++i)));
+      } else {
+        writeChar(buffer, c);
+      }
+    }
+    buffer.put((byte) '"');
+  }
+
+  /**
+   * Write a UUID in its canonical lower case form
+   */
+  public static void writeUuid(ByteBuffer buffer, UUID uuid) {
+    writeUuid(buffer, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+  }
+
+  /**
+   * Write a UUID given as its two halves in its canonical lower case form
+   */
+  public static void writeUuid(ByteBuffer buffer, long msb, long lsb) {
+    writeHex(buffer, msb >>> 32, 8);
+    buffer.put((byte) '-');
+    writeHex(buffer, msb >>> 16, 4);
+    buffer.put((byte) '-');
+    writeHex(buffer, msb, 4);
+    buffer.put((byte) '-');
+    writeHex(buffer, lsb >>> 48, 4);
+    buffer.put((byte) '-');
+    writeHex(buffer, lsb, 12);
+  }
+
+  /**
+   * Write a long in decimal
+   */
+  public static void writeLong(ByteBuffer buffer, long value) {
+    if (value == Long.MIN_VALUE) {
+      buffer.put(Long.toString(value).getBytes());
+      return;
+    }
+    if (value < 0) {
+      buffer.put((byte) '-');
+      value = -value;
+    }
+    int digits = 1;
+    for (long v = value / 10; v > 0; v /= 10) {
+      digits++;
+    }
+    int end = buffer.position() + digits;
+    for (int i = end - 1; i >= end - digits; i--) {
+      buffer.put(i, (byte) ('0' + value % 10));
+      value /= 10;
+    }
+    buffer.position(end);
+  }
+
+  private static void writeHex(ByteBuffer buffer, long value, int digits) {
+    for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+      buffer.put(HEX[(int) (value >>> shift) & 0xF]);
+    }
+  }
+
+  private static void writeChar(ByteBuffer buffer, char c) {
+    if (c < 0x80) {
+      buffer.put((byte) c);
+    } else if (c < 0x800) {
+      buffer.put((byte) (0xC0 | (c >> 6)));
+      buffer.put((byte) (0x80 | (c & 0x3F)));
+    } else if (Character.isSurrogate(c)) {
+      // unpaired surrogates encode as ? like String.getBytes
+      buffer.put((byte) '?');
+    } else {
+      buffer.put((byte) (0xE0 | (c >> 12)));
+      buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+      buffer.put((byte) (0x80 | (c & 0x3F)));
+    }
+  }
+
+  private static void writeCodePoint(ByteBuffer buffer, int codePoint) {
+    buffer.put((byte) (0xF0 | (codePoint >> 18)));
+    buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+    buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+    buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+  }
+}
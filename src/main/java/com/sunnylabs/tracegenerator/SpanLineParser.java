@@ -0,0 +1,135 @@
+package com.sunnylabs.tracegenerator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Validates span lines in the Wavefront span line format straight from a {@link ByteBuffer}
+ * <p>
+ * A line is checked field by field with absolute reads, so nothing is copied or decoded and no
+ * objects are created. The format is the one {@link SpanLineEncoder} and the SDK write:
+ * <pre>
+ * "name" source="source" traceId=uuid spanId=uuid [parent=uuid...] [followsFrom=uuid...]
+ *     ["key"="value"...] startMillis durationMillis
+ * </pre>
+ */
+public final class SpanLineParser {
+  /**
+   * returned for a line that is not a valid span
+   */
+  public static final int INVALID = -1;
+
+  private static final byte[] SOURCE = " source=".getBytes();
+  private static final byte[] TRACE_ID = " traceId=".getBytes();
+  private static final byte[] SPAN_ID = " spanId=".getBytes();
+  private static final byte[] PARENT = " parent=".getBytes();
+  private static final byte[] FOLLOWS_FROM = " followsFrom=".getBytes();
+  private static final int UUID_LENGTH = 36;
+
+  private SpanLineParser() {
+  }
+
+  /**
+   * Validate one span line
+   *
+   * @param buffer holds the line; its position and limit are not used or changed
+   * @param start  index of the first byte of the line
+   * @param end    index just past the last byte of the line, not including the newline
+   * @return the number of parents of the span, 0 for the root span of a trace, or
+   * {@link #INVALID}
+   */
+  public static int parse(ByteBuffer buffer, int start, int end) {
+    int p = quoted(buffer, start, end);
+    p = literal(buffer, p, end, SOURCE);
+    p = quoted(buffer, p, end);
+    p = literal(buffer, p, end, TRACE_ID);
+    p = uuid(buffer, p, end);
+    p = literal(buffer, p, end, SPAN_ID);
+    p = uuid(buffer, p, end);
+    int parents = 0;
+    while (p >= 0 && startsWith(buffer, p, end, PARENT)) {
+      p = uuid(buffer, p + PARENT.length, end);
+      parents++;
+    }
+    while (p >= 0 && startsWith(buffer, p, end, FOLLOWS_FROM)) {
+      p = uuid(buffer, p + FOLLOWS_FROM.length, end);
+    }
+    while (p >= 0 && p + 1 < end && buffer.get(p) == ' ' && buffer.get(p + 1) == '"') {
+      p = quoted(buffer, p + 1, end);
+      p = literal(buffer, p, end, '=');
+      p = quoted(buffer, p, end);
+    }
+    p = literal(buffer, p, end, ' ');
+    p = number(buffer, p, end);
+    p = literal(buffer, p, end, ' ');
+    p = number(buffer, p, end);
+    return p == end ? parents : INVALID;
+  }
+
+  /**
+   * @return the index after a non-empty quoted string starting at p, or -1
+   */
+  private static int quoted(ByteBuffer buffer, int p, int end) {
+    if (p < 0 || p >= end || buffer.get(p) != '"') {
+      return -1;
+    }
+    int first = ++p;
+    while (p < end) {
+      byte b = buffer.get(p);
+      if (b == '"') {
+        return p == first ? -1 : p + 1;
+      }
+      // an escaped quote or newline does not end the string
+      p += b == '\\' ? 2 : 1;
+    }
+    return -1;
+  }
+
+  private static int literal(ByteBuffer buffer, int p, int end, byte[] expected) {
+    return p >= 0 && startsWith(buffer, p, end, expected) ? p + expected.length : -1;
+  }
+
+  private static int literal(ByteBuffer buffer, int p, int end, char expected) {
+    return p >= 0 && p < end && buffer.get(p) == expected ? p + 1 : -1;
+  }
+
+  private static boolean startsWith(ByteBuffer buffer, int p, int end, byte[] expected) {
+    if (end - p < expected.length) {
+      return false;
+    }
+    for (int i = 0; i < expected.length; i++) {
+      if (buffer.get(p + i) != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int uuid(ByteBuffer buffer, int p, int end) {
+    if (p < 0 || end - p < UUID_LENGTH) {
+      return -1;
+    }
+    for (int i = 0; i < UUID_LENGTH; i++) {
+      byte b = buffer.get(p + i);
+      boolean valid = i == 8 || i == 13 || i == 18 || i == 23 ? b == '-' :
+          (b >= '0' && b <= '9') || (b >= 'a' && b <= 'f') || (b >= 'A' && b <= 'F');
+      if (!valid) {
+        return -1;
+      }
+    }
+    return p + UUID_LENGTH;
+  }
+
+  private static int number(ByteBuffer buffer, int p, int end) {
+    if (p < 0) {
+      return -1;
+    }
+    if (p < end && buffer.get(p) == '-') {
+      p++;
+    }
+    int first = p;
+    while (p < end && buffer.get(p) >= '0' && buffer.get(p) <= '9') {
+      p++;
+    }
+    return p == first ? -1 : p;
+  }
+}
@@ -0,0 +1,155 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.common.BufferFlusher;
+import com.wavefront.sdk.entities.tracing.WavefrontTracingSpanSender;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.lang.NonNull;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends each span when it would really have completed, at its start time plus duration
+ * <p>
+ * Generating threads hand over finished traces with {@link #submit(List)}. One emitter thread
+ * moves their spans into a {@link TimingWheel} and sends whatever has fallen due each tick, so
+ * spans from many traces interleave the way they do in production and there is no thread or
+ * timer per trace. Spans that are already due, such as backfilled ones, go out on the next tick.
+ */
+public class SpanScheduler implements MeterBinder {
+  private static final Logger log = Logger.getLogger(SpanScheduler.class.getName());
+  public static final long DEFAULT_TICK_MILLIS = 10;
+  // 1024 ticks of 10ms cover the default trace durations in one turn
+  public static final int DEFAULT_BUCKETS = 1024;
+
+  private final ConcurrentLinkedQueue<List<Span>> inbox = new ConcurrentLinkedQueue<>();
+  private final TimingWheel<Span> wheel;
+  private final LongAdder sentSpans = new LongAdder();
+  private final LongAdder sendErrors = new LongAdder();
+  private volatile int pending;
+  private volatile boolean running;
+  private Thread emitter;
+
+  public SpanScheduler() {
+    this(DEFAULT_TICK_MILLIS, DEFAULT_BUCKETS);
+  }
+
+  /**
+   * @param tickMillis how often the emitter sends spans that have fallen due
+   * @param buckets    number of ticks in one turn of the wheel
+   */
+  public SpanScheduler(long tickMillis, int buckets) {
+    this.wheel = new TimingWheel<>(tickMillis, buckets, System.currentTimeMillis());
+  }
+
+  /**
+   * Start the emitter thread
+   *
+   * @param sender the emitter's sender
+   */
+  public synchronized void start(WavefrontTracingSpanSender sender) {
+    if (running) {
+      return;
+    }
+    running = true;
+    emitter = new Thread(() -> emit(sender), "span-emitter");
+    emitter.start();
+  }
+
+  /**
+   * Stop the emitter once every submitted span has been sent
+   *
+   * @throws InterruptedException if interrupted while waiting for the emitter
+   */
+  public synchronized void stop() throws InterruptedException {
+    running = false;
+    if (emitter != null) {
+      emitter.join();
+      emitter = null;
+    }
+  }
+
+  /**
+   * Schedule a finished trace's spans
+   *
+   * @param trace spans with their traceId set; the list must not be modified afterwards
+   */
+  public void submit(List<Span> trace) {
+    inbox.add(trace);
+  }
+
+  /**
+   * @return spans in the wheel waiting to complete, as of the emitter's last tick
+   */
+  public int pending() {
+    return pending;
+  }
+
+  /**
+   * @return spans handed to the sender successfully
+   */
+  public long sentSpans() {
+    return sentSpans.sum();
+  }
+
+  /**
+   * @return spans that failed to send
+   */
+  public long sendErrors() {
+    return sendErrors.sum();
+  }
+
+  @Override
+  public void bindTo(@NonNull MeterRegistry registry) {
+    Gauge.builder("tracegenerator.emitter.pending.spans", this, SpanScheduler::pending).
+        description("spans waiting for their completion time").register(registry);
+    FunctionCounter.builder("tracegenerator.emitter.sent.spans", this,
+        SpanScheduler::sentSpans).register(registry);
+    FunctionCounter.builder("tracegenerator.emitter.errors", this,
+        SpanScheduler::sendErrors).register(registry);
+  }
+
+  private void emit(WavefrontTracingSpanSender sender) {
+    long tickNanos = TimeUnit.MILLISECONDS.toNanos(wheel.tickMillis());
+    // the wheel expires a whole tick at once, so round up to never send a span before it ends
+    long roundUp = wheel.tickMillis() - 1;
+    while (running || !inbox.isEmpty() || wheel.size() > 0) {
+      List<Span> trace;
+      while ((trace = inbox.poll()) != null) {
+        for (Span span : trace) {
+          wheel.add(span.startTime + span.duration + roundUp, span);
+        }
+      }
+      int sent = wheel.expire(System.currentTimeMillis(), span -> send(sender, span));
+      pending = wheel.size();
+      if (sent > 0 && sender instanceof BufferFlusher) {
+        try {
+          ((BufferFlusher) sender).flush();
+        } catch (IOException e) {
+          sendErrors.increment();
+          log.log(Level.FINE, "failed to flush sender", e);
+        }
+      }
+      LockSupport.parkNanos(tickNanos);
+    }
+  }
+
+  private void send(WavefrontTracingSpanSender sender, Span span) {
+    try {
+      TraceSender.sendSpan(sender, span);
+      sentSpans.increment();
+    } catch (IOException e) {
+      sendErrors.increment();
+      log.log(Level.FINE, "failed to send span", e);
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package com.sunnylabs.tracegenerator;
+
+import java.io.IOException;
+
+/**
+ * Receives the spans of a trace one at a time, as soon as each is generated
+ * <p>
+ * A span is complete when it is accepted, and sinks must not hold on to it unless they need it
+ * later, so a trace of any size can be generated in constant memory.
+ */
+@FunctionalInterface
+public interface SpanSink {
+  /**
+   * @param span the next span of the trace; parents are always accepted before their children
+   * @throws IOException if the span could not be handled, which stops the trace
+   */
+  void accept(Span span) throws IOException;
+}
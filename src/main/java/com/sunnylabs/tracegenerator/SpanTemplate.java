@@ -0,0 +1,215 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.java_sdk.com.google.common.base.Strings;
+import com.wavefront.sdk.common.Pair;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The parts of an {@link Operation}'s spans that are the same for every trace
+ * <p>
+ * The name, source and complete tag list are resolved once, with the same defaults
+ * {@link Span.Builder} applies, and also kept pre-encoded in the span line format. The tags are
+ * interned in the topology's {@link TagDictionary}, so spans created from a template share its
+ * tag arrays with each other and with every operation that has the same tags, and
+ * {@link #encode} only has to write the ids, timestamps and optional error tag of each span.
+ */
+public class SpanTemplate {
+  private static final Pair<String, String> ERROR_TAG = new Pair<>("error", "true");
+  private static final byte[] ERROR_BYTES = new TagDictionary().
+      tagSet(Collections.singletonList(ERROR_TAG)).encoded();
+
+  private final String name;
+  private final String source;
+  private final TagDictionary.TagSet tags;
+  private final TagDictionary.TagSet errorTags;
+  private final String[] tagArray;
+  private final String[] errorTagArray;
+  private final byte[] head;
+  private final byte[] tagBytes;
+
+  /**
+   * @param operation   operation to take the name, source, identity and operation tags from
+   * @param serviceTags tags of the operation's service, added after the operation's own tags
+   */
+  public SpanTemplate(Operation operation, Map<String, String> serviceTags) {
+    this(operation, serviceTags, new TagDictionary());
+  }
+
+  /**
+   * @param operation   operation to take the name, source, identity and operation tags from
+   * @param serviceTags tags of the operation's service, added after the operation's own tags
+   * @param dictionary  interns the name, source and tags, shared by the whole topology
+   */
+  public SpanTemplate(Operation operation, Map<String, String> serviceTags,
+                      TagDictionary dictionary) {
+    name = dictionary.intern(
+        Strings.isNullOrEmpty(operation.getName()) ? "operationName" : operation.getName());
+    source = dictionary.intern(
+        Strings.isNullOrEmpty(operation.getSource()) ? "source" : operation.getSource());
+
+    Span.Builder builder = new Span.Builder(name, 0, 0, source).
+        setIdentityTags(operation.getApplication(), "cluster", operation.getService(), "shard").
+        idGenerator(() -> null);
+    operation.getTags().forEach(builder::addTag);
+    List<Pair<String, String>> resolved = new ArrayList<>(builder.build().tagList());
+    if (serviceTags != null) {
+      serviceTags.forEach((k, v) -> resolved.add(new Pair<>(k, v)));
+    }
+    tags = dictionary.tagSet(resolved);
+    resolved.add(ERROR_TAG);
+    errorTags = dictionary.tagSet(resolved);
+    tagArray = tags.array();
+    errorTagArray = errorTags.array();
+
+    ByteBuffer buffer = ByteBuffer.allocate(SpanLineEncoder.maxHeadLength(name, source));
+    SpanLineEncoder.writeHead(buffer, name, source);
+    head = toArray(buffer);
+    tagBytes = tags.encoded();
+  }
+
+  /**
+   * Create a span for this template. The span is the only object created; the caller fills in
+   * its ids.
+   *
+   * @param startMillis millisecond timestamp for the beginning of the span
+   * @param duration    total duration for the span in milliseconds
+   * @param error       whether to add the error tag
+   * @return a span sharing this template's name, source and tags
+   */
+  public Span newSpan(long startMillis, long duration, boolean error) {
+    Span span = new Span();
+    span.operationName = name;
+    span.startTime = startMillis;
+    span.duration = duration;
+    span.source = source;
+    span.tags = error ? errorTagArray : tagArray;
+    span.template = this;
+    return span;
+  }
+
+  /**
+   * Create a span for this template
+   *
+   * @param traceId     UUID used to correlate spans within a trace
+   * @param spanId      unique span id
+   * @param parents     list of span ids that are parents of this span
+   * @param startMillis millisecond timestamp for the beginning of the span
+   * @param duration    total duration for the span in milliseconds
+   * @param error       whether to add the error tag
+   * @return a span sharing this template's name, source and tags
+   */
+  public Span newSpan(UUID traceId, UUID spanId, List<UUID> parents, long startMillis,
+                      long duration, boolean error) {
+    Span span = newSpan(startMillis, duration, error);
+    span.traceId(traceId);
+    span.spanId(spanId);
+    span.parents(parents);
+    return span;
+  }
+
+  /**
+   * @return whether the span still has exactly this template's name, source and tags, so it can
+   * be written with {@link #encode}
+   */
+  public boolean matches(Span span) {
+    return span.template == this && span.operationName == name && span.source == source &&
+        (span.tags == tagArray || span.tags == errorTagArray);
+  }
+
+  /**
+   * @return whether a span created from this template has the error tag
+   */
+  public boolean isError(Span span) {
+    return span.tags == errorTagArray;
+  }
+
+  /**
+   * @return an upper bound for the encoded size of a {@link SpanBatch} row of this template
+   */
+  public int maxEncodedLength() {
+    return head.length + tagBytes.length + ERROR_BYTES.length +
+        SpanLineEncoder.maxIdsAndTimestampsLength(1, 0);
+  }
+
+  /**
+   * @return an upper bound for the encoded size of a span from this template
+   */
+  public int maxEncodedLength(Span span) {
+    return head.length + tagBytes.length + ERROR_BYTES.length +
+        SpanLineEncoder.maxIdsAndTimestampsLength(span.parentCount(),
+            span.followsFrom == null ? 0 : span.followsFrom.size());
+  }
+
+  /**
+   * Write a span created from this template, which must {@link #matches match} it
+   *
+   * @param buffer destination with at least {@link #maxEncodedLength} bytes remaining
+   * @param span   the span
+   */
+  public void encode(ByteBuffer buffer, Span span) {
+    buffer.put(head);
+    SpanLineEncoder.writeIds(buffer, span);
+    buffer.put(tagBytes);
+    if (span.tags == errorTagArray) {
+      buffer.put(ERROR_BYTES);
+    }
+    SpanLineEncoder.writeTimestamps(buffer, span.startTime, span.duration);
+  }
+
+  /**
+   * @return the resolved tags of spans without errors
+   */
+  public List<Pair<String, String>> tags() {
+    return tags.list();
+  }
+
+  /**
+   * @param tagArray tags of a span created from this template
+   * @param key      a tag key
+   * @return the value of the first tag with the key, or null if there is none or the tags are
+   * not this template's
+   */
+  String tagValue(String[] tagArray, String key) {
+    return tagArray == this.tagArray ? tags.value(key) :
+        tagArray == errorTagArray ? errorTags.value(key) : null;
+  }
+
+  /**
+   * Write a {@link SpanBatch} row of this template
+   *
+   * @param buffer destination with at least {@link #maxEncodedLength()} bytes remaining
+   * @param batch  the batch
+   * @param row    a row whose template is this one
+   */
+  public void encode(ByteBuffer buffer, SpanBatch batch, int row) {
+    buffer.put(head);
+    SpanLineEncoder.writeIds(buffer, batch, row);
+    buffer.put(tagBytes);
+    if (batch.error(row)) {
+      buffer.put(ERROR_BYTES);
+    }
+    SpanLineEncoder.writeTimestamps(buffer, batch.startMillis(row), batch.duration(row));
+  }
+
+  /**
+   * @param tagArray tags of a span created from this template
+   * @return the same tags as a shared list, or null if they are not this template's
+   */
+  List<Pair<String, String>> tagList(String[] tagArray) {
+    return tagArray == this.tagArray ? tags.list() :
+        tagArray == errorTagArray ? errorTags.list() : null;
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.position()];
+    buffer.flip();
+    buffer.get(bytes);
+    return bytes;
+  }
+}
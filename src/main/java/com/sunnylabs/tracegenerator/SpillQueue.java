@@ -0,0 +1,346 @@
+package com.sunnylabs.tracegenerator;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.lang.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * A bounded FIFO of encoded spans on disk, for senders to keep what they could not send while a
+ * proxy is down
+ * <p>
+ * The queue is a file of equal segments used as a ring, each memory-mapped once when the queue
+ * is created, so spilling is a copy into mapped memory and the file never grows past its budget.
+ * Each record is a length followed by whole span lines, as written by one flush. When every
+ * segment is in use the {@link DropPolicy} either discards the oldest segment or the record being
+ * spilled.
+ * <p>
+ * Records are replayed oldest first by one thread at a time, and a record is only removed once
+ * it has been written, so a record that fails part way through is replayed again in full. Every
+ * method is thread safe. The queue only lives as long as the process: the file is deleted on
+ * close or exit.
+ */
+public class SpillQueue implements MeterBinder, Closeable {
+  private static final Logger log = Logger.getLogger(SpillQueue.class.getName());
+  private static final int HEADER = Integer.BYTES;
+
+  /**
+   * What to discard when the queue is full
+   */
+  public enum DropPolicy {
+    /**
+     * discard the record being spilled
+     */
+    DROP_NEWEST,
+    /**
+     * discard the oldest segment of records to make room
+     */
+    DROP_OLDEST;
+
+    /**
+     * @param name policy name in any case, with - or _ separators
+     * @return the policy
+     */
+    public static DropPolicy parse(String name) {
+      return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+  }
+
+  /**
+   * Where replayed records go
+   */
+  public interface Sink {
+    /**
+     * @param records one spilled record, whole span lines
+     * @throws IOException if the record could not be written; it stays queued
+     */
+    void write(ByteBuffer records) throws IOException;
+  }
+
+  private final Path file;
+  private final FileChannel channel;
+  private final MappedByteBuffer[] segments;
+  private final int segmentSize;
+  private final DropPolicy dropPolicy;
+  private final ReentrantLock replaying = new ReentrantLock();
+  // per segment: where the next record is written, where the oldest unread one starts, and how
+  // many are unread
+  private final int[] writePositions;
+  private final int[] readPositions;
+  private final int[] unread;
+  private int head;
+  private int tail;
+  private int used = 1;
+  // records removed from the head so far, so a replay can tell whether its record was dropped
+  private long removed;
+  private volatile long queuedBytes;
+  private long queuedRecords;
+  private long spilledBytes;
+  private long replayedBytes;
+  private long droppedBytes;
+  private ByteBuffer replayBuffer = ByteBuffer.allocateDirect(0);
+
+  /**
+   * Create an empty queue in a new file
+   *
+   * @param directory   where to create the file
+   * @param maxBytes    disk budget; the file holds as many whole segments as fit, at least two
+   * @param segmentSize size in bytes of each segment, which is also the largest record
+   * @param dropPolicy  what to discard when the queue is full
+   * @throws IOException if the file could not be created or mapped
+   */
+  public SpillQueue(Path directory, long maxBytes, int segmentSize, DropPolicy dropPolicy)
+      throws IOException {
+    if (segmentSize <= HEADER) {
+      throw new IllegalArgumentException("segmentSize must be more than " + HEADER + " bytes");
+    }
+    int count = (int) Math.max(2, Math.min(maxBytes / segmentSize, Integer.MAX_VALUE));
+    this.segmentSize = segmentSize;
+    this.dropPolicy = dropPolicy;
+    Files.createDirectories(directory);
+    file = Files.createTempFile(directory, "spans-", ".spill");
+    file.toFile().deleteOnExit();
+    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    segments = new MappedByteBuffer[count];
+    try {
+      for (int i = 0; i < count; i++) {
+        segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentSize,
+            segmentSize);
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    writePositions = new int[count];
+    readPositions = new int[count];
+    unread = new int[count];
+    log.info(String.format("Spilling unsent spans to %s, up to %d MB", file,
+        (long) count * segmentSize / (1024 * 1024)));
+  }
+
+  /**
+   * Append a record
+   *
+   * @param records whole span lines, from its position to its limit; consumed either way
+   * @return false if the record was discarded because the queue is full or it is larger than a
+   * segment
+   */
+  public synchronized boolean offer(ByteBuffer records) {
+    int length = records.remaining();
+    if (length == 0) {
+      return true;
+    }
+    if (HEADER + length > segmentSize || !makeRoom(HEADER + length)) {
+      droppedBytes += length;
+      records.position(records.limit());
+      return false;
+    }
+    MappedByteBuffer segment = segments[tail];
+    int position = writePositions[tail];
+    segment.putInt(position, length);
+    segment.position(position + HEADER);
+    segment.put(records);
+    writePositions[tail] = segment.position();
+    unread[tail]++;
+    queuedRecords++;
+    queuedBytes += length;
+    spilledBytes += length;
+    return true;
+  }
+
+  /**
+   * Write queued records to a sink, oldest first, until the queue is empty. Does nothing if
+   * another thread is already replaying. Records spilled meanwhile are replayed too.
+   *
+   * @param sink where to write the records
+   * @return true if the queue was empty when the replay finished, false if another thread is
+   * replaying
+   * @throws IOException if the sink failed; the record it was writing stays queued
+   */
+  public boolean replay(Sink sink) throws IOException {
+    if (isEmpty()) {
+      return true;
+    }
+    if (!replaying.tryLock()) {
+      return false;
+    }
+    try {
+      while (true) {
+        long record;
+        synchronized (this) {
+          if (queuedRecords == 0) {
+            return true;
+          }
+          record = removed;
+          copyHead();
+        }
+        sink.write(replayBuffer);
+        synchronized (this) {
+          // the record may have been dropped to make room while it was being written
+          if (removed == record) {
+            removeHead();
+          }
+        }
+      }
+    } finally {
+      replaying.unlock();
+    }
+  }
+
+  /**
+   * @return true if there is nothing to replay
+   */
+  public boolean isEmpty() {
+    return queuedBytes == 0;
+  }
+
+  /**
+   * @return bytes of span lines waiting to be replayed
+   */
+  public long queuedBytes() {
+    return queuedBytes;
+  }
+
+  /**
+   * @return bytes of span lines spilled so far
+   */
+  public synchronized long spilledBytes() {
+    return spilledBytes;
+  }
+
+  /**
+   * @return bytes of span lines written back out by {@link #replay}
+   */
+  public synchronized long replayedBytes() {
+    return replayedBytes;
+  }
+
+  /**
+   * @return bytes of span lines discarded because the queue was full
+   */
+  public synchronized long droppedBytes() {
+    return droppedBytes;
+  }
+
+  /**
+   * @return the backing file
+   */
+  public Path file() {
+    return file;
+  }
+
+  /**
+   * Discard everything queued and delete the file
+   *
+   * @throws IOException if the file could not be deleted
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      channel.close();
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Override
+  public void bindTo(@NonNull MeterRegistry registry) {
+    Gauge.builder("tracegenerator.spill.queued.bytes", this, SpillQueue::queuedBytes).
+        description("bytes of unsent spans waiting to be replayed").register(registry);
+    FunctionCounter.builder("tracegenerator.spill.spilled.bytes", this,
+        SpillQueue::spilledBytes).register(registry);
+    FunctionCounter.builder("tracegenerator.spill.replayed.bytes", this,
+        SpillQueue::replayedBytes).register(registry);
+    FunctionCounter.builder("tracegenerator.spill.dropped.bytes", this,
+        SpillQueue::droppedBytes).register(registry);
+  }
+
+  /**
+   * Make sure the tail segment has room for a record, moving on to the next segment and
+   * dropping the oldest one if the policy allows
+   *
+   * @return false if the record has to be dropped
+   */
+  private boolean makeRoom(int size) {
+    if (writePositions[tail] + size <= segmentSize) {
+      return true;
+    }
+    if (used == segments.length) {
+      if (dropPolicy == DropPolicy.DROP_NEWEST) {
+        return false;
+      }
+      dropHead();
+    }
+    tail = (tail + 1) % segments.length;
+    used++;
+    writePositions[tail] = 0;
+    readPositions[tail] = 0;
+    unread[tail] = 0;
+    return true;
+  }
+
+  /**
+   * Discard the unread records of the oldest segment, which is never the tail
+   */
+  private void dropHead() {
+    int bytes = writePositions[head] - readPositions[head] - HEADER * unread[head];
+    droppedBytes += bytes;
+    queuedBytes -= bytes;
+    queuedRecords -= unread[head];
+    removed += unread[head];
+    unread[head] = 0;
+    head = (head + 1) % segments.length;
+    used--;
+  }
+
+  /**
+   * Copy the oldest record into the replay buffer, ready to be written
+   */
+  private void copyHead() {
+    MappedByteBuffer segment = segments[head];
+    int position = readPositions[head];
+    int length = segment.getInt(position);
+    if (replayBuffer.capacity() < length) {
+      replayBuffer = ByteBuffer.allocateDirect(Math.max(length,
+          (int) Math.min(segmentSize, 2L * replayBuffer.capacity())));
+    }
+    replayBuffer.clear();
+    segment.limit(position + HEADER + length).position(position + HEADER);
+    replayBuffer.put(segment);
+    segment.limit(segmentSize);
+    replayBuffer.flip();
+  }
+
+  private void removeHead() {
+    int position = readPositions[head];
+    int length = segments[head].getInt(position);
+    readPositions[head] = position + HEADER + length;
+    unread[head]--;
+    queuedRecords--;
+    queuedBytes -= length;
+    replayedBytes += length;
+    removed++;
+    if (unread[head] == 0) {
+      if (head == tail) {
+        // empty, start again at the beginning of the segment
+        writePositions[tail] = 0;
+        readPositions[tail] = 0;
+      } else {
+        head = (head + 1) % segments.length;
+        used--;
+      }
+    }
+  }
+}
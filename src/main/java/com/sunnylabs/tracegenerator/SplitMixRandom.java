@@ -0,0 +1,47 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.Random;
+
+/**
+ * A {@link Random} backed by the SplitMix64 generator
+ * <p>
+ * Unlike {@link Random} itself it keeps its state in a plain field rather than an atomic, so it
+ * is cheap but must be confined to one thread.
+ */
+public class SplitMixRandom extends Random {
+  private static final long serialVersionUID = 1L;
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private long state;
+
+  /**
+   * @param seed the initial state
+   */
+  public SplitMixRandom(long seed) {
+    // Random's constructor calls setSeed before our state exists
+    super(0);
+    state = seed;
+  }
+
+  @Override
+  public synchronized void setSeed(long seed) {
+    state = seed;
+  }
+
+  @Override
+  protected int next(int bits) {
+    return (int) (nextLong() >>> (64 - bits));
+  }
+
+  @Override
+  public long nextLong() {
+    state += GOLDEN_GAMMA;
+    return mix(state);
+  }
+
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,126 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.common.Pair;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns the tag keys, values and complete tag sets of a topology
+ * <p>
+ * Operations mostly carry the same handful of identity and service tags, so every distinct
+ * string is kept once and operations with the same tags share one immutable {@link TagSet},
+ * including its encoded bytes. A dictionary is filled while a topology is loaded and is not
+ * thread safe; a new one is used for each load so a replaced topology's tags can be collected.
+ */
+public class TagDictionary {
+  private final Map<String, String> strings = new HashMap<>();
+  private final Map<List<String>, TagSet> sets = new HashMap<>();
+
+  /**
+   * @param value a string
+   * @return the dictionary's copy of the string
+   */
+  public String intern(String value) {
+    String interned = strings.putIfAbsent(value, value);
+    return interned == null ? value : interned;
+  }
+
+  /**
+   * @param tags tag keys and values in order
+   * @return the shared tag set with the same tags in the same order
+   */
+  public TagSet tagSet(List<Pair<String, String>> tags) {
+    String[] array = new String[tags.size() * 2];
+    for (int i = 0; i < tags.size(); i++) {
+      array[2 * i] = intern(tags.get(i)._1);
+      array[2 * i + 1] = intern(tags.get(i)._2);
+    }
+    return sets.computeIfAbsent(Arrays.asList(array), key -> new TagSet(array));
+  }
+
+  /**
+   * @return the number of distinct strings
+   */
+  public int strings() {
+    return strings.size();
+  }
+
+  /**
+   * @return the number of distinct tag sets
+   */
+  public int tagSets() {
+    return sets.size();
+  }
+
+  /**
+   * An immutable list of tags, held as an array of alternating keys and values, as the key value
+   * pairs the SDK takes and pre-encoded in the span line format
+   */
+  public static final class TagSet {
+    private final String[] array;
+    private final List<Pair<String, String>> list;
+    private final Map<String, String> values;
+    private final byte[] encoded;
+
+    private TagSet(String[] array) {
+      this.array = array;
+      List<Pair<String, String>> pairs = new ArrayList<>(array.length / 2);
+      Map<String, String> byKey = new HashMap<>();
+      int length = 0;
+      for (int i = 0; i < array.length; i += 2) {
+        pairs.add(new Pair<>(array[i], array[i + 1]));
+        byKey.putIfAbsent(array[i], array[i + 1]);
+        length += SpanLineEncoder.maxTagLength(array[i], array[i + 1]);
+      }
+      list = Collections.unmodifiableList(pairs);
+      values = byKey;
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      for (int i = 0; i < array.length; i += 2) {
+        SpanLineEncoder.writeTag(buffer, array[i], array[i + 1]);
+      }
+      encoded = Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * @return the tags as alternating keys and values; shared, must not be modified
+     */
+    String[] array() {
+      return array;
+    }
+
+    /**
+     * @return the tags as key value pairs
+     */
+    public List<Pair<String, String>> list() {
+      return list;
+    }
+
+    /**
+     * @return the tags in the span line format; shared, must not be modified
+     */
+    byte[] encoded() {
+      return encoded;
+    }
+
+    /**
+     * @param key a tag key
+     * @return the value of the first tag with the key, or null if there is none
+     */
+    public String value(String key) {
+      return values.get(key);
+    }
+
+    /**
+     * @return the number of tags
+     */
+    public int size() {
+      return list.size();
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel of items that fall due at a millisecond time
+ * <p>
+ * Time is divided into ticks and each tick hashes to one of a power-of-two number of buckets, so
+ * adding an item is constant time however many are pending, and expiring visits only the buckets
+ * of the ticks that have passed. Items due further ahead than one turn of the wheel share buckets
+ * with nearer ones and stay put until their own tick. Items are linked through parallel primitive
+ * arrays with a free list rather than node objects, so millions can be pending without adding
+ * garbage.
+ * <p>
+ * Not thread safe; one thread should own the wheel.
+ *
+ * @param <T> the item type
+ */
+public class TimingWheel<T> {
+  private static final int NONE = -1;
+
+  private final long tickMillis;
+  private final int mask;
+  private final int[] heads;
+  private long[] ticks;
+  private Object[] items;
+  private int[] next;
+  private int free = NONE;
+  private int used;
+  private int size;
+  private long currentTick;
+
+  /**
+   * @param tickMillis  resolution of the wheel
+   * @param buckets     number of buckets, rounded up to a power of two
+   * @param startMillis the time the wheel starts at
+   */
+  public TimingWheel(long tickMillis, int buckets, long startMillis) {
+    if (tickMillis < 1 || buckets < 1) {
+      throw new IllegalArgumentException("tickMillis and buckets must be positive");
+    }
+    int size = Integer.highestOneBit(Math.max(buckets - 1, 1)) << 1;
+    this.tickMillis = tickMillis;
+    this.mask = size - 1;
+    this.heads = new int[size];
+    Arrays.fill(heads, NONE);
+    this.ticks = new long[16];
+    this.items = new Object[16];
+    this.next = new int[16];
+    this.currentTick = startMillis / tickMillis;
+  }
+
+  /**
+   * Add an item; items already due are expired by the next {@link #expire}
+   *
+   * @param dueMillis when the item falls due
+   * @param item      the item
+   */
+  public void add(long dueMillis, T item) {
+    long tick = Math.max(dueMillis / tickMillis, currentTick);
+    int node = allocate();
+    ticks[node] = tick;
+    items[node] = item;
+    int bucket = (int) (tick & mask);
+    next[node] = heads[bucket];
+    heads[bucket] = node;
+    size++;
+  }
+
+  /**
+   * Remove every item that is due and hand it to an action, advancing the wheel to a time
+   *
+   * @param nowMillis the current time
+   * @param action    receives the due items; items in the same tick come in no particular order
+   * @return the number of items expired
+   */
+  @SuppressWarnings("unchecked")
+  public int expire(long nowMillis, Consumer<? super T> action) {
+    long nowTick = nowMillis / tickMillis;
+    if (nowTick < currentTick) {
+      return 0;
+    }
+    // after a full turn every bucket has been visited, later ticks would only revisit them
+    long last = Math.min(nowTick, currentTick + mask);
+    int expired = 0;
+    for (long tick = currentTick; tick <= last; tick++) {
+      int bucket = (int) (tick & mask);
+      int previous = NONE;
+      int node = heads[bucket];
+      while (node != NONE) {
+        int following = next[node];
+        if (ticks[node] <= nowTick) {
+          if (previous == NONE) {
+            heads[bucket] = following;
+          } else {
+            next[previous] = following;
+          }
+          T item = (T) items[node];
+          release(node);
+          expired++;
+          action.accept(item);
+        } else {
+          previous = node;
+        }
+        node = following;
+      }
+    }
+    currentTick = nowTick + 1;
+    return expired;
+  }
+
+  /**
+   * @return items waiting to fall due
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return milliseconds in one tick
+   */
+  public long tickMillis() {
+    return tickMillis;
+  }
+
+  private int allocate() {
+    if (free != NONE) {
+      int node = free;
+      free = next[node];
+      return node;
+    }
+    if (used == ticks.length) {
+      int capacity = ticks.length * 2;
+      ticks = Arrays.copyOf(ticks, capacity);
+      items = Arrays.copyOf(items, capacity);
+      next = Arrays.copyOf(next, capacity);
+    }
+    return used++;
+  }
+
+  private void release(int node) {
+    items[node] = null;
+    next[node] = free;
+    free = node;
+    size--;
+  }
+}
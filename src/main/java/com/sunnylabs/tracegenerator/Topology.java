@@ -8,14 +8,18 @@ import org.yaml.snakeyaml.constructor.Constructor;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
+import java.util.stream.Collectors;
 
 /**
  * The collection of applications and entrypoints to use when simulating traces
@@ -25,7 +29,12 @@ public class Topology {
   private final int servicesPerApp;
   private final int operationsPerService;
   private final int internalCallsPerApp;
+  private final Random random;
   private RawConfig raw;
+  private volatile List<TracePlan> plans;
+  private List<Operation> entrypoints = Collections.emptyList();
+  private double[] entrypointWeights = new double[0];
+  private AliasSampler entrypointSampler;
 
   /**
    * @param desiredRandomApps    for random topology, how many apps to create
@@ -34,10 +43,23 @@ public class Topology {
    * @param internalCallsPerApp  for random topology, how many calls between each app's services
    */
   public Topology(int desiredRandomApps, int servicesPerApp, int operationsPerService, int internalCallsPerApp) {
+    this(desiredRandomApps, servicesPerApp, operationsPerService, internalCallsPerApp, new Random());
+  }
+
+  /**
+   * @param desiredRandomApps    for random topology, how many apps to create
+   * @param servicesPerApp       for random topology, how many services to add per app
+   * @param operationsPerService for random topology, how many operations each service should have
+   * @param internalCallsPerApp  for random topology, how many calls between each app's services
+   * @param random               source for all random choices made while building the topology
+   */
+  public Topology(int desiredRandomApps, int servicesPerApp, int operationsPerService,
+                  int internalCallsPerApp, Random random) {
     this.desiredRandomApps = desiredRandomApps;
     this.servicesPerApp = servicesPerApp;
     this.operationsPerService = operationsPerService;
     this.internalCallsPerApp = internalCallsPerApp;
+    this.random = random;
   }
 
   /**
@@ -46,8 +68,29 @@ public class Topology {
   public void load(InputStream stream) {
     Yaml yaml = new Yaml(new Constructor(RawConfig.class));
     raw = getRawConfig(stream, yaml);
+    plans = null;
     setDefaults();
     checkCallGraph();
+    buildTemplates();
+    resolveEntrypoints();
+  }
+
+  /**
+   * Load an already resolved and validated topology, as read from a {@link TopologySnapshot}
+   *
+   * @param applications the applications by name, with all references wired up
+   * @param entrypoints  the trace entrypoints
+   * @param weights      relative weight of each entrypoint
+   * @param traffic      the configured traffic curve, or null
+   */
+  void restore(Map<String, Application> applications, List<Operation> entrypoints,
+               double[] weights, TrafficCurve traffic) {
+    raw = new RawConfig();
+    raw.applications = applications;
+    raw.traffic = traffic;
+    plans = null;
+    buildTemplates();
+    setEntrypoints(entrypoints, weights);
   }
 
   /**
@@ -64,23 +107,60 @@ public class Topology {
   }
 
   /**
-   * Get the trace entrypoints
+   * Get the trace entrypoints, resolved when the topology is loaded
    *
    * @return a list of operations from which to start traces
    */
   @NonNull
   public List<Operation> entrypoints() {
-    List<Operation> entries = new ArrayList<>();
-    List<Application> applications = applications();
-    if (!applications.isEmpty()) {
-      applications.forEach(a -> a.getServices().forEach((svcName, s) -> s.getOperations().forEach((opName, o) -> {
-        String slug = a.getName() + "." + s.getName() + "." + o.getName();
-        if (raw.entrypoints == null || raw.entrypoints.isEmpty() || raw.entrypoints.contains(slug)) {
-          entries.add(o);
+    return entrypoints;
+  }
+
+  /**
+   * Pick an entrypoint according to the configured weights in constant time
+   *
+   * @param random source of randomness owned by the calling thread
+   * @return an index into {@link #entrypoints()} and {@link #plans()}
+   * @throws IllegalStateException if the topology has no entrypoints
+   */
+  public int sampleEntrypoint(Random random) {
+    if (entrypointSampler == null) {
+      throw new IllegalStateException("topology has no entrypoints");
+    }
+    return entrypointSampler.sample(random);
+  }
+
+  /**
+   * Pick an entrypoint according to the configured weights in constant time
+   *
+   * @param random source of randomness owned by the calling thread
+   * @return an operation from which to start a trace
+   * @throws IllegalStateException if the topology has no entrypoints
+   */
+  public Operation randomEntrypoint(Random random) {
+    return entrypoints.get(sampleEntrypoint(random));
+  }
+
+  /**
+   * Get the entrypoints compiled to flat trace plans. Plans are compiled on first use and
+   * cached until the topology is loaded again.
+   *
+   * @return a plan for each operation in {@link #entrypoints()}, in the same order
+   */
+  @NonNull
+  public List<TracePlan> plans() {
+    List<TracePlan> compiled = plans;
+    if (compiled == null) {
+      synchronized (this) {
+        compiled = plans;
+        if (compiled == null) {
+          compiled = Collections.unmodifiableList(
+              entrypoints().stream().map(TracePlan::compile).collect(Collectors.toList()));
+          plans = compiled;
         }
-      })));
+      }
     }
-    return entries;
+    return compiled;
   }
 
   /**
@@ -93,7 +173,111 @@ public class Topology {
     return raw.applications.get(name);
   }
 
+  /**
+   * @return the traffic curve from the topology's traffic section, or null if it has none
+   */
+  public TrafficCurve traffic() {
+    return raw.traffic;
+  }
+
+  /**
+   * @param index an index into {@link #entrypoints()}
+   * @return the relative weight of the entrypoint
+   */
+  public double entrypointWeight(int index) {
+    return entrypointWeights[index];
+  }
+
+  private void resolveEntrypoints() {
+    Map<String, Double> weights = configuredWeights();
+    List<Operation> entries = new ArrayList<>();
+    List<Double> entryWeights = new ArrayList<>();
+    for (Application a : applications()) {
+      if (a.getServices() == null) {
+        continue;
+      }
+      for (Service s : a.getServices().values()) {
+        if (s.getOperations() == null) {
+          continue;
+        }
+        for (Operation o : s.getOperations().values()) {
+          Double weight = weights.isEmpty() ? Double.valueOf(1) :
+              weights.get(a.getName() + "." + s.getName() + "." + o.getName());
+          if (weight != null && weight > 0) {
+            entries.add(o);
+            entryWeights.add(weight);
+          }
+        }
+      }
+    }
+    setEntrypoints(entries, entryWeights.stream().mapToDouble(Double::doubleValue).toArray());
+  }
+
+  private void setEntrypoints(List<Operation> entries, double[] weights) {
+    entrypoints = Collections.unmodifiableList(entries);
+    entrypointWeights = weights;
+    entrypointSampler = entries.isEmpty() ? null : new AliasSampler(weights);
+  }
+
+  /**
+   * Parse configured entrypoints, each either a plain "app.service.operation" string with a
+   * weight of 1 or a single-entry map of that string to a weight
+   */
+  private Map<String, Double> configuredWeights() {
+    Map<String, Double> weights = new HashMap<>();
+    if (raw.entrypoints == null) {
+      return weights;
+    }
+    for (Object entry : raw.entrypoints) {
+      if (entry instanceof String) {
+        weights.put((String) entry, 1d);
+      } else if (entry instanceof Map) {
+        ((Map<?, ?>) entry).forEach((slug, weight) -> {
+          if (!(weight instanceof Number) || ((Number) weight).doubleValue() < 0) {
+            throw new IllegalArgumentException(
+                String.format("Entrypoint %s must have a non-negative numeric weight", slug));
+          }
+          weights.put(String.valueOf(slug), ((Number) weight).doubleValue());
+        });
+      } else {
+        throw new IllegalArgumentException("Invalid entrypoint " + entry);
+      }
+    }
+    return weights;
+  }
+
+  /**
+   * Pre-encode the constant parts of every operation's spans, replacing templates from any
+   * earlier load. All templates intern their tags in one new dictionary, so operations with the
+   * same tags share them.
+   */
+  private void buildTemplates() {
+    TagDictionary dictionary = new TagDictionary();
+    for (Application app : applications()) {
+      if (app.getServices() == null) {
+        continue;
+      }
+      for (Service svc : app.getServices().values()) {
+        if (svc.getOperations() == null) {
+          continue;
+        }
+        for (Operation op : svc.getOperations().values()) {
+          op.setServiceTags(svc.getTags());
+          op.buildTemplate(dictionary);
+        }
+      }
+    }
+  }
+
+  /**
+   * Check that the call graph has no cycles with an iterative depth-first search that visits
+   * every operation and call once
+   *
+   * @throws IllegalArgumentException listing every circular reference found
+   */
   private void checkCallGraph() {
+    Map<Operation, Boolean> finished = new IdentityHashMap<>();
+    List<String> cycles = new ArrayList<>();
     for (Application app : raw.applications.values()) {
       if (app.getServices() == null || app.getServices().isEmpty()) {
         continue;
@@ -104,26 +288,70 @@ public class Topology {
           continue;
         }
         for (Operation op : ops.values()) {
-          checkCalls(op, Collections.emptyList());
+          if (!finished.containsKey(op)) {
+            checkCalls(op, finished, cycles);
+          }
         }
       }
     }
+    if (!cycles.isEmpty()) {
+      throw new IllegalArgumentException(String.join("; ", cycles));
+    }
   }
 
-  private void checkCalls(Operation operation, List<Operation> callGraph) {
-    List<Operation> graph = new ArrayList<>(callGraph);
-    graph.add(operation);
-    for (Operation o : operation.getCalls()) {
-      if (graph.contains(o)) {
-        throw new IllegalArgumentException(
-            String.format("Operation %s.%s.%s has circular reference to %s.%s.%s",
-                operation.getApplication(), operation.getService(), operation.getName(),
-                o.getApplication(), o.getService(), o.getName()));
+  /**
+   * Walk the calls below an operation, marking operations on the current path false and
+   * operations whose calls are all checked true
+   */
+  private void checkCalls(Operation root, Map<Operation, Boolean> finished, List<String> cycles) {
+    List<Operation> path = new ArrayList<>();
+    Deque<Iterator<Operation>> pending = new ArrayDeque<>();
+    path.add(root);
+    pending.push(calls(root));
+    finished.put(root, false);
+    while (!pending.isEmpty()) {
+      Iterator<Operation> calls = pending.peek();
+      if (!calls.hasNext()) {
+        pending.pop();
+        finished.put(path.remove(path.size() - 1), true);
+        continue;
+      }
+      Operation o = calls.next();
+      Boolean state = finished.get(o);
+      if (state == null) {
+        path.add(o);
+        pending.push(calls(o));
+        finished.put(o, false);
+      } else if (!state) {
+        cycles.add(describeCycle(path, o));
       }
-      checkCalls(o, graph);
     }
   }
 
+  private static Iterator<Operation> calls(Operation operation) {
+    return operation.getCalls() == null ? Collections.emptyIterator() :
+        operation.getCalls().iterator();
+  }
+
+  private static String describeCycle(List<Operation> path, Operation target) {
+    Operation operation = path.get(path.size() - 1);
+    StringBuilder cycle = new StringBuilder();
+    int start = path.size() - 1;
+    while (path.get(start) != target) {
+      start--;
+    }
+    for (int i = start; i < path.size(); i++) {
+      cycle.append(slug(path.get(i))).append(" -> ");
+    }
+    cycle.append(slug(target));
+    return String.format("Operation %s has circular reference to %s (%s)",
+        slug(operation), slug(target), cycle);
+  }
+
+  private static String slug(Operation op) {
+    return op.getApplication() + "." + op.getService() + "." + op.getName();
+  }
+
   private void setDefaults() {
     // TODO split out random topology and configured topology
     if (raw.applications == null || raw.applications.isEmpty()) {
@@ -134,24 +362,16 @@ public class Topology {
   }
 
   private Map<String, Application> createRandomApps() {
-    Map<String, Application> apps = new HashMap<>();
     Yaml yaml = new Yaml();
     InputStream inputStream = this.getClass().getClassLoader()
         .getResourceAsStream("wordlists.yaml");
     Map<String, List<String>> words = yaml.load(inputStream);
-
-    List<String> appNames = words.get("applications");
-    for (int i = 0; i < desiredRandomApps && appNames.size() > 0; i++) {
-      int idx = new Random().nextInt(appNames.size());
-      String name = appNames.get(idx);
-      appNames.remove(idx);
-
-      apps.put(name, createRandomApp(words.get("services"), words.get("operations")));
-    }
-
-    fixReferences(apps);
-    createRandomCalls(apps);
-    return apps;
+    return new RandomTopologyBuilder(random, words).
+        applications(desiredRandomApps).
+        servicesPerApp(servicesPerApp).
+        operationsPerService(operationsPerService).
+        internalCallsPerService(internalCallsPerApp).
+        build();
   }
 
   /**
@@ -176,82 +396,14 @@ public class Topology {
     });
   }
 
-  private void createRandomCalls(Map<String, Application> apps) {
-    // internal calls per service
-    apps.values().forEach(a -> a.getServices().values().forEach(s -> {
-      Map<String, Operation> ops = s.getOperations();
-      List<Operation> available = new ArrayList<>(ops.values());
-      for (int i = 0; i < internalCallsPerApp && available.size() > 1; i++) {
-        Operation o = getRandom(ops);
-        available.remove(o);
-        o.addCall(getRandom(available));
-      }
-    }));
-
-    // cross service calls per app
-    apps.values().forEach(a -> {
-      Collection<Service> services = a.getServices().values();
-      List<Service> available = new ArrayList<>(services);
-      while (available.size() > 1) {
-        Service s = getRandom(services);
-        Operation o = getRandom(s.getOperations());
-
-        available.remove(s);
-        Operation op2 = getRandom(getRandom(available).getOperations());
-
-        o.addCall(op2);
-      }
-    });
-
-    // cross app calls
-    for (int i = 0; i < apps.size(); i++) {
-      Operation random = getRandom(getRandom(getRandom(apps).getServices()).getOperations());
-      Operation target = getRandom(getRandom(getRandom(apps).getServices()).getOperations());
-      while (target.getApplication().equals(random.getApplication())) {
-        target = getRandom(getRandom(getRandom(apps).getServices()).getOperations());
-      }
-      random.addCall(target);
-    }
-  }
-
   private <T> T getRandom(Map<?, T> from) {
-    return new ArrayList<>(from.values()).get(new Random().nextInt(from.size()));
-  }
-
-  private <T> T getRandom(Collection<T> from) {
-    return new ArrayList<>(from).get(new Random().nextInt(from.size()));
-  }
-
-  private Application createRandomApp(List<String> svcNames, List<String> opNames) {
-    List<String> serviceNames = new ArrayList<>(svcNames);
-    List<String> operationNames = new ArrayList<>(opNames);
-    Application a = new Application();
-    Map<String, Service> services = new HashMap<>();
-    int desiredServices = Math.min(servicesPerApp, serviceNames.size());
-    for (int i = 0; i < desiredServices; i++) {
-      int idx = new Random().nextInt(serviceNames.size());
-      String name = serviceNames.get(idx);
-      serviceNames.remove(idx);
-      Service service = createRandomService(operationNames);
-      services.put(name, service);
-    }
-    a.setServices(services);
-    return a;
-  }
-
-  private Service createRandomService(List<String> operationNames) {
-    List<String> names = new ArrayList<>(operationNames);
-    Service s = new Service();
-    Map<String, Operation> operations = new HashMap<>();
-    int desiredOperations = Math.min(operationsPerService, names.size());
-    for (int i = 0; i < desiredOperations; i++) {
-      int idx = new Random().nextInt(names.size());
-      String name = names.get(idx);
-      names.remove(idx);
-      operations.put(name, new Operation(name));
+    int skip = random.nextInt(from.size());
+    for (T value : from.values()) {
+      if (skip-- == 0) {
+        return value;
+      }
     }
-    s.setOperations(operations);
-    return s;
+    throw new IllegalStateException("map changed while picking");
   }
 
   private void fixOperationReferences(List<Operation> calls) {
@@ -325,7 +477,8 @@ public class Topology {
 
   @Data
   private static class RawConfig {
-    public List<String> entrypoints = new ArrayList<>();
+    public List<Object> entrypoints = new ArrayList<>();
     public Map<String, Application> applications = new HashMap<>();
+    public TrafficCurve traffic;
   }
 }
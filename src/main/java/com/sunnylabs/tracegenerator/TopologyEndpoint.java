@@ -0,0 +1,66 @@
+package com.sunnylabs.tracegenerator;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Actuator endpoint that shows the current topology and reloads it on demand
+ * <p>
+ * The app has no web server, so the endpoint is exposed over JMX as the
+ * org.springframework.boot:type=Endpoint,name=Topology MBean.
+ */
+@Endpoint(id = "topology")
+public class TopologyEndpoint {
+  private static final long RELOAD_TIMEOUT_SECONDS = 60;
+
+  private final TopologyReloader reloader;
+
+  public TopologyEndpoint(TopologyReloader reloader) {
+    this.reloader = reloader;
+  }
+
+  @ReadOperation
+  public Map<String, Object> topology() {
+    Map<String, Object> result = new LinkedHashMap<>();
+    try {
+      Topology topology = reloader.holder().current();
+      result.put("applications", topology.applications().size());
+      result.put("entrypoints", topology.entrypoints().size());
+    } catch (IllegalStateException e) {
+      result.put("error", e.getMessage());
+    }
+    result.put("loadedAtMillis", reloader.loadedAtMillis());
+    result.put("reloads", reloader.reloads());
+    result.put("failedReloads", reloader.failures());
+    return result;
+  }
+
+  /**
+   * Load the topology again and wait until it is in use
+   *
+   * @return the new topology's summary, or why it was rejected
+   */
+  @WriteOperation
+  public Map<String, Object> reload() throws InterruptedException {
+    Map<String, Object> result = new LinkedHashMap<>();
+    try {
+      reloader.reload().get(RELOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      result.put("reloaded", true);
+    } catch (ExecutionException e) {
+      result.put("reloaded", false);
+      result.put("error", String.valueOf(e.getCause().getMessage()));
+    } catch (TimeoutException e) {
+      result.put("reloaded", false);
+      result.put("error", "still loading after " + RELOAD_TIMEOUT_SECONDS + "s");
+    }
+    result.putAll(topology());
+    return result;
+  }
+}
@@ -0,0 +1,59 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * The topology currently used for generation, which can be replaced while generators run
+ * <p>
+ * A {@link Topology} is never changed once it is published here; a reload builds and validates a
+ * new one and swaps it in. Generators read {@link #current()} once per trace and keep using that
+ * instance for the whole trace, so a swap needs no locks and never pauses them.
+ */
+public class TopologyHolder {
+  private final AtomicReference<Topology> current = new AtomicReference<>();
+  private final List<Consumer<Topology>> listeners = new CopyOnWriteArrayList<>();
+
+  public TopologyHolder() {
+  }
+
+  /**
+   * @param topology the initial topology
+   */
+  public TopologyHolder(Topology topology) {
+    current.set(topology);
+  }
+
+  /**
+   * @return the topology to generate the next trace from
+   * @throws IllegalStateException if no topology has been loaded yet
+   */
+  public Topology current() {
+    Topology topology = current.get();
+    if (topology == null) {
+      throw new IllegalStateException("no topology has been loaded");
+    }
+    return topology;
+  }
+
+  /**
+   * Publish a fully loaded topology and notify the listeners
+   *
+   * @param topology the new topology
+   * @return the topology it replaced, null if there was none
+   */
+  public Topology swap(Topology topology) {
+    Topology previous = current.getAndSet(topology);
+    listeners.forEach(l -> l.accept(topology));
+    return previous;
+  }
+
+  /**
+   * @param listener called on the swapping thread with every topology swapped in after this call
+   */
+  public void onSwap(Consumer<Topology> listener) {
+    listeners.add(listener);
+  }
+}
@@ -0,0 +1,174 @@
+package com.sunnylabs.tracegenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads new topologies in the background and swaps them into a {@link TopologyHolder}
+ * <p>
+ * Reloads run one at a time on a single background thread, so generation never waits for YAML
+ * parsing or validation. A topology that fails to load, or has no entrypoints, is rejected and
+ * generation carries on with the current one. Reloads can be requested directly, through the
+ * {@link TopologyEndpoint}, or by {@link #watch watching} the topology file.
+ */
+public class TopologyReloader implements Closeable {
+  private static final Logger log = Logger.getLogger(TopologyReloader.class.getName());
+  // editors often write a file in several steps, wait for them to finish
+  private static final long WATCH_DELAY_MILLIS = 200;
+
+  private final TopologyHolder holder;
+  private final Callable<Topology> loader;
+  private final ScheduledExecutorService executor;
+  private final AtomicLong reloads = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private volatile long loadedAtMillis;
+  private WatchService watchService;
+  private ScheduledFuture<?> pendingWatchReload;
+
+  /**
+   * @param holder where to publish loaded topologies
+   * @param loader loads and validates a complete new topology each time it is called
+   */
+  public TopologyReloader(TopologyHolder holder, Callable<Topology> loader) {
+    this.holder = holder;
+    this.loader = loader;
+    this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "topology-reloader");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Load a new topology in the background and swap it in
+   *
+   * @return completes with the new topology once it is in use, or exceptionally if it was rejected
+   */
+  public CompletableFuture<Topology> reload() {
+    CompletableFuture<Topology> result = new CompletableFuture<>();
+    executor.execute(() -> load(result));
+    return result;
+  }
+
+  /**
+   * Reload whenever a file is created or modified
+   *
+   * @param file the topology file
+   * @throws IOException if the file's directory cannot be watched
+   */
+  public synchronized void watch(Path file) throws IOException {
+    if (watchService != null) {
+      throw new IllegalStateException("already watching a topology file");
+    }
+    Path absolute = file.toAbsolutePath();
+    watchService = FileSystems.getDefault().newWatchService();
+    absolute.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+    WatchService service = watchService;
+    Thread watcher = new Thread(() -> watchLoop(service, absolute.getFileName()),
+        "topology-watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+    log.info("Watching " + absolute + " for topology changes");
+  }
+
+  /**
+   * @return topologies swapped in since this reloader was created
+   */
+  public long reloads() {
+    return reloads.get();
+  }
+
+  /**
+   * @return reloads that were rejected
+   */
+  public long failures() {
+    return failures.get();
+  }
+
+  /**
+   * @return when the current topology was swapped in, 0 if this reloader has not swapped one in
+   */
+  public long loadedAtMillis() {
+    return loadedAtMillis;
+  }
+
+  /**
+   * @return the holder this reloader swaps topologies into
+   */
+  public TopologyHolder holder() {
+    return holder;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    executor.shutdownNow();
+    if (watchService != null) {
+      watchService.close();
+      watchService = null;
+    }
+  }
+
+  private void load(CompletableFuture<Topology> result) {
+    long start = System.nanoTime();
+    try {
+      Topology topology = loader.call();
+      if (topology.entrypoints().isEmpty()) {
+        throw new IllegalArgumentException("topology has no entrypoints");
+      }
+      holder.swap(topology);
+      loadedAtMillis = System.currentTimeMillis();
+      reloads.incrementAndGet();
+      log.info(String.format("Swapped in topology with %d entrypoints, loaded in %d ms",
+          topology.entrypoints().size(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+      result.complete(topology);
+    } catch (Exception e) {
+      failures.incrementAndGet();
+      log.log(Level.WARNING, "Rejected topology reload, keeping the current topology", e);
+      result.completeExceptionally(e);
+    }
+  }
+
+  private void watchLoop(WatchService service, Path fileName) {
+    try {
+      while (true) {
+        WatchKey key = service.take();
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+          changed |= fileName.equals(event.context());
+        }
+        key.reset();
+        if (changed) {
+          scheduleWatchReload();
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // closed
+    }
+  }
+
+  private synchronized void scheduleWatchReload() {
+    if (pendingWatchReload != null) {
+      pendingWatchReload.cancel(false);
+    }
+    pendingWatchReload = executor.schedule(() -> load(new CompletableFuture<>()),
+        WATCH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,362 @@
+package com.sunnylabs.tracegenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves a loaded, validated {@link Topology} to a compact binary file and restores it
+ * <p>
+ * Restoring skips YAML parsing, reference fixing and call graph validation: the file is memory
+ * mapped and the operations, services, applications, call graph, weighted entrypoints and
+ * traffic curve are rebuilt directly from it. Because random topologies are saved fully resolved,
+ * the same file can be shared to run an identical topology across restarts and generator nodes.
+ * <p>
+ * The header records what the topology was built from, such as the topology file's contents and
+ * the random topology settings, so a stale snapshot can be detected with {@link #source(Path)}.
+ * <p>
+ * All strings are stored once in a string table and referenced by index. Operations are stored in
+ * one list and calls reference them by index, so shared operations stay shared.
+ */
+public final class TopologySnapshot {
+  private static final int MAGIC = 0x54475331; // TGS1
+  private static final int VERSION = 3;
+
+  private TopologySnapshot() {
+  }
+
+  /**
+   * Write a snapshot without a source, replacing the file atomically
+   *
+   * @param topology a loaded topology
+   * @param path     destination file
+   * @throws IOException if the file could not be written
+   */
+  public static void write(Topology topology, Path path) throws IOException {
+    write(topology, path, "");
+  }
+
+  /**
+   * Write a snapshot, replacing the file atomically so readers never see a partial snapshot
+   *
+   * @param topology a loaded topology
+   * @param path     destination file
+   * @param source   fingerprint of what the topology was built from
+   * @throws IOException if the file could not be written
+   */
+  public static void write(Topology topology, Path path, String source) throws IOException {
+    Strings strings = new Strings();
+    TrafficCurve traffic = topology.traffic();
+    if (traffic != null) {
+      strings.add(traffic.getCurve()).add(traffic.getArrivals());
+    }
+    Map<Operation, Integer> ids = new IdentityHashMap<>();
+    List<Operation> operations = new ArrayList<>();
+    for (Application app : topology.applications()) {
+      strings.add(app.getName());
+      if (app.getServices() == null) {
+        continue;
+      }
+      for (Service svc : app.getServices().values()) {
+        strings.add(svc.getName());
+        strings.add(svc.getApplication());
+        tags(svc.getTags()).forEach((k, v) -> strings.add(k).add(v));
+        if (svc.getOperations() != null) {
+          svc.getOperations().values().forEach(op -> collect(op, ids, operations, strings));
+        }
+      }
+    }
+
+    Path parent = path.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(temp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      byte[] sourceBytes = source.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(sourceBytes.length);
+      out.write(sourceBytes);
+      out.writeInt(strings.list.size());
+      for (String string : strings.list) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+
+      out.writeInt(operations.size());
+      for (Operation op : operations) {
+        out.writeInt(strings.index(op.getName()));
+        out.writeInt(strings.index(op.getApplication()));
+        out.writeInt(strings.index(op.getService()));
+        out.writeInt(strings.index(op.getSource()));
+        out.writeFloat(op.getErrorChance());
+        writeTags(out, op.getTags(), strings);
+        List<Operation> calls = op.getCalls() == null ? new ArrayList<>() : op.getCalls();
+        out.writeInt(calls.size());
+        for (Operation call : calls) {
+          out.writeInt(ids.get(call));
+        }
+      }
+
+      List<Application> apps = topology.applications();
+      out.writeInt(apps.size());
+      for (Application app : apps) {
+        out.writeInt(strings.index(app.getName()));
+        Map<String, Service> services = app.getServices() == null ? new HashMap<>() :
+            app.getServices();
+        out.writeInt(services.size());
+        for (Service svc : services.values()) {
+          out.writeInt(strings.index(svc.getName()));
+          out.writeInt(strings.index(svc.getApplication()));
+          out.writeInt(svc.getBaseLatency());
+          writeTags(out, svc.getTags(), strings);
+          Map<String, Operation> ops = svc.getOperations() == null ? new HashMap<>() :
+              svc.getOperations();
+          out.writeInt(ops.size());
+          for (Map.Entry<String, Operation> op : ops.entrySet()) {
+            out.writeInt(strings.index(op.getKey()));
+            out.writeInt(ids.get(op.getValue()));
+          }
+        }
+      }
+
+      List<Operation> entrypoints = topology.entrypoints();
+      out.writeInt(entrypoints.size());
+      for (int i = 0; i < entrypoints.size(); i++) {
+        out.writeInt(ids.get(entrypoints.get(i)));
+        out.writeDouble(topology.entrypointWeight(i));
+      }
+
+      out.writeBoolean(traffic != null);
+      if (traffic != null) {
+        out.writeInt(strings.index(traffic.getCurve()));
+        out.writeInt(strings.index(traffic.getArrivals()));
+        out.writeDouble(traffic.getPeriodSeconds());
+        out.writeDouble(traffic.getLowRatio());
+        out.writeDouble(traffic.getPeakHourUtc());
+        out.writeDouble(traffic.getAtSeconds());
+        out.writeDouble(traffic.getFactor());
+        out.writeDouble(traffic.getLengthSeconds());
+      }
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Restore a snapshot into a topology, replacing whatever it had loaded
+   *
+   * @param topology the topology to load into
+   * @param path     snapshot file
+   * @throws IOException if the file could not be read or is not a valid snapshot
+   */
+  public static void read(Topology topology, Path path) throws IOException {
+    ByteBuffer buffer = map(path);
+    try {
+      header(buffer);
+      restore(topology, buffer);
+    } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw new IOException("Invalid topology snapshot " + path, e);
+    }
+  }
+
+  /**
+   * Read what a snapshot was built from, without restoring it
+   *
+   * @param path snapshot file
+   * @return the source passed to {@link #write(Topology, Path, String)}
+   * @throws IOException if the file could not be read or is not a valid snapshot
+   */
+  public static String source(Path path) throws IOException {
+    ByteBuffer buffer = map(path);
+    try {
+      return header(buffer);
+    } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw new IOException("Invalid topology snapshot " + path, e);
+    }
+  }
+
+  private static ByteBuffer map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  /**
+   * Check the magic number and version
+   *
+   * @return the source
+   */
+  private static String header(ByteBuffer in) throws IOException {
+    if (in.getInt() != MAGIC) {
+      throw new IOException("Not a topology snapshot");
+    }
+    int version = in.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported topology snapshot version " + version);
+    }
+    byte[] source = new byte[in.getInt()];
+    in.get(source);
+    return new String(source, StandardCharsets.UTF_8);
+  }
+
+  private static void restore(Topology topology, ByteBuffer in) {
+    String[] strings = new String[in.getInt()];
+    for (int i = 0; i < strings.length; i++) {
+      byte[] bytes = new byte[in.getInt()];
+      in.get(bytes);
+      strings[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    Operation[] operations = new Operation[in.getInt()];
+    int[][] calls = new int[operations.length][];
+    for (int i = 0; i < operations.length; i++) {
+      Operation op = new Operation(string(strings, in.getInt()));
+      op.setApplication(string(strings, in.getInt()));
+      op.setService(string(strings, in.getInt()));
+      op.setSource(string(strings, in.getInt()));
+      op.setErrorChance(in.getFloat());
+      op.setTags(readTags(in, strings));
+      calls[i] = new int[in.getInt()];
+      for (int c = 0; c < calls[i].length; c++) {
+        calls[i][c] = in.getInt();
+      }
+      operations[i] = op;
+    }
+    for (int i = 0; i < operations.length; i++) {
+      List<Operation> opCalls = new ArrayList<>(calls[i].length);
+      for (int call : calls[i]) {
+        opCalls.add(operations[call]);
+      }
+      operations[i].setCalls(opCalls);
+    }
+
+    int appCount = in.getInt();
+    Map<String, Application> apps = new HashMap<>();
+    for (int a = 0; a < appCount; a++) {
+      Application app = new Application();
+      app.setName(string(strings, in.getInt()));
+      int serviceCount = in.getInt();
+      Map<String, Service> services = new HashMap<>();
+      for (int s = 0; s < serviceCount; s++) {
+        Service svc = new Service();
+        svc.setName(string(strings, in.getInt()));
+        svc.setApplication(string(strings, in.getInt()));
+        svc.setBaseLatency(in.getInt());
+        svc.setTags(readTags(in, strings));
+        int opCount = in.getInt();
+        Map<String, Operation> ops = new HashMap<>();
+        for (int o = 0; o < opCount; o++) {
+          ops.put(string(strings, in.getInt()), operations[in.getInt()]);
+        }
+        svc.setOperations(ops);
+        services.put(svc.getName(), svc);
+      }
+      app.setServices(services);
+      apps.put(app.getName(), app);
+    }
+
+    int entrypointCount = in.getInt();
+    List<Operation> entrypoints = new ArrayList<>(entrypointCount);
+    double[] weights = new double[entrypointCount];
+    for (int i = 0; i < entrypointCount; i++) {
+      entrypoints.add(operations[in.getInt()]);
+      weights[i] = in.getDouble();
+    }
+
+    TrafficCurve traffic = null;
+    if (in.get() != 0) {
+      traffic = new TrafficCurve();
+      traffic.setCurve(string(strings, in.getInt()));
+      traffic.setArrivals(string(strings, in.getInt()));
+      traffic.setPeriodSeconds(in.getDouble());
+      traffic.setLowRatio(in.getDouble());
+      traffic.setPeakHourUtc(in.getDouble());
+      traffic.setAtSeconds(in.getDouble());
+      traffic.setFactor(in.getDouble());
+      traffic.setLengthSeconds(in.getDouble());
+    }
+    topology.restore(apps, entrypoints, weights, traffic);
+  }
+
+  private static void collect(Operation root, Map<Operation, Integer> ids,
+                              List<Operation> operations, Strings strings) {
+    List<Operation> stack = new ArrayList<>();
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      Operation op = stack.remove(stack.size() - 1);
+      if (ids.containsKey(op)) {
+        continue;
+      }
+      ids.put(op, operations.size());
+      operations.add(op);
+      strings.add(op.getName()).add(op.getApplication()).add(op.getService()).add(op.getSource());
+      tags(op.getTags()).forEach((k, v) -> strings.add(k).add(v));
+      if (op.getCalls() != null) {
+        stack.addAll(op.getCalls());
+      }
+    }
+  }
+
+  private static void writeTags(DataOutputStream out, Map<String, String> tags, Strings strings)
+      throws IOException {
+    out.writeInt(tags(tags).size());
+    for (Map.Entry<String, String> tag : tags(tags).entrySet()) {
+      out.writeInt(strings.index(tag.getKey()));
+      out.writeInt(strings.index(tag.getValue()));
+    }
+  }
+
+  private static Map<String, String> readTags(ByteBuffer in, String[] strings) {
+    int count = in.getInt();
+    Map<String, String> tags = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      tags.put(string(strings, in.getInt()), string(strings, in.getInt()));
+    }
+    return tags;
+  }
+
+  private static Map<String, String> tags(Map<String, String> tags) {
+    return tags == null ? Collections.emptyMap() : tags;
+  }
+
+  private static String string(String[] strings, int index) {
+    return index < 0 ? null : strings[index];
+  }
+
+  /**
+   * String table, with -1 standing for null
+   */
+  private static class Strings {
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final List<String> list = new ArrayList<>();
+
+    private Strings add(String string) {
+      if (string != null && !indexes.containsKey(string)) {
+        indexes.put(string, list.size());
+        list.add(string);
+      }
+      return this;
+    }
+
+    private int index(String string) {
+      return string == null ? -1 : indexes.get(string);
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package com.sunnylabs.tracegenerator;
+
+/**
+ * The per-thread clock that generated spans are timestamped from
+ * <p>
+ * Threads use the wall clock unless they have set a virtual time, which stays fixed until it is
+ * set again. A backfilling thread sets the virtual time to each trace's start before generating
+ * it, so traces can be generated for any period as fast as they can be sent.
+ */
+public final class TraceClock {
+  private static final ThreadLocal<long[]> virtual = new ThreadLocal<>();
+
+  private TraceClock() {
+  }
+
+  /**
+   * @return the calling thread's current time in epoch milliseconds
+   */
+  public static long now() {
+    long[] time = virtual.get();
+    return time != null ? time[0] : System.currentTimeMillis();
+  }
+
+  /**
+   * Use a virtual time on the calling thread
+   *
+   * @param epochMillis the time {@link #now()} returns until it is set again
+   */
+  public static void set(long epochMillis) {
+    long[] time = virtual.get();
+    if (time == null) {
+      virtual.set(new long[]{epochMillis});
+    } else {
+      time[0] = epochMillis;
+    }
+  }
+
+  /**
+   * Go back to the wall clock on the calling thread
+   */
+  public static void unset() {
+    virtual.remove();
+  }
+}
@@ -1,8 +1,42 @@
 package com.sunnylabs.tracegenerator;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.UUID;
 
 public interface TraceGenerator {
   List<Span> generateTrace(UUID traceId);
+
+  /**
+   * Generate a trace, pushing each span to a sink as it is generated instead of collecting them
+   *
+   * @param traceId UUID to add as the traceId for generated spans
+   * @param sink    receives the spans in the same order {@link #generateTrace(UUID)} returns them
+   * @return the number of spans generated
+   * @throws IOException if the sink failed, in which case the rest of the trace is not generated
+   */
+  default int generateTrace(UUID traceId, SpanSink sink) throws IOException {
+    List<Span> spans = generateTrace(traceId);
+    for (Span span : spans) {
+      sink.accept(span);
+    }
+    return spans.size();
+  }
+
+  /**
+   * Generate a trace into the rows of a batch, which generators with templates do without
+   * creating span objects
+   *
+   * @param traceId UUID to add as the traceId for generated spans
+   * @param batch   receives the spans in the same order {@link #generateTrace(UUID)} returns them
+   * @return the number of spans generated
+   */
+  default int generateTrace(UUID traceId, SpanBatch batch) {
+    List<Span> spans = generateTrace(traceId);
+    for (Span span : spans) {
+      span.traceId(traceId);
+      batch.add(span);
+    }
+    return spans.size();
+  }
 }
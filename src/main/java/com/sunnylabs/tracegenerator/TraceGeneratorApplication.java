@@ -1,6 +1,9 @@
 package com.sunnylabs.tracegenerator;
 
+import com.wavefront.sdk.common.BufferFlusher;
+import com.wavefront.sdk.entities.tracing.WavefrontTracingSpanSender;
 import com.wavefront.sdk.proxy.WavefrontProxyClient;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
@@ -10,21 +13,111 @@ import org.springframework.context.annotation.Bean;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 import java.util.Random;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @SpringBootApplication
 public class TraceGeneratorApplication {
   public Logger log = Logger.getLogger(TraceSender.class.toString());
 
-  @SuppressWarnings("deprecation")
-  private WavefrontProxyClient client;
   private TraceSender traceSender;
+  private ProxyPool proxyPool;
+  private SpillQueue spillQueue;
   @Value("${generator.send_frequency_ms:30000}")
   private int sendFrequency;
+  @Value("${generator.mode:timer}")
+  private String mode;
+  @Value("${generator.traces_per_second:0}")
+  private double tracesPerSecond;
+  @Value("${generator.spans_per_second:0}")
+  private double spansPerSecond;
+  @Value("${generator.report_interval_s:10}")
+  private int reportInterval;
+  @Value("${generator.worker_threads:0}")
+  private int workerThreads;
+  @Value("${generator.engine:recursive}")
+  private String engine;
+  @Value("${generator.streaming:false}")
+  private boolean streaming;
+  @Value("${generator.batch_spans:0}")
+  private int batchSpans;
+  @Value("${generator.id_generator:fast}")
+  private String idGenerator;
+  @Value("${generator.id_seed:0}")
+  private long idSeed;
+  @Value("${generator.seed:}")
+  private String seed;
+  @Value("${backfill.start:P1D}")
+  private String backfillStart;
+  @Value("${backfill.end:}")
+  private String backfillEnd;
+  @Value("${generator.traffic.curve:constant}")
+  private String trafficCurve;
+  @Value("${generator.traffic.arrivals:fixed}")
+  private String trafficArrivals;
+  @Value("${generator.traffic.period_s:3600}")
+  private double trafficPeriod;
+  @Value("${generator.traffic.low_ratio:0.2}")
+  private double trafficLowRatio;
+  @Value("${generator.traffic.peak_hour_utc:14}")
+  private double trafficPeakHour;
+  @Value("${generator.traffic.at_s:300}")
+  private double trafficAt;
+  @Value("${generator.traffic.factor:2}")
+  private double trafficFactor;
+  @Value("${generator.traffic.length_s:60}")
+  private double trafficLength;
+  @Value("${sender.type:sdk}")
+  private String senderType;
+  @Value("${proxy.host:localhost}")
+  private String proxyHost;
+  @Value("${proxy.tracing_port:30001}")
+  private int tracingPort;
+  @Value("${proxy.endpoints:}")
+  private String proxyEndpoints;
+  @Value("${proxy.connections_per_endpoint:0}")
+  private int connectionsPerEndpoint;
+  @Value("${proxy.balance:least-queued}")
+  private String proxyBalance;
+  @Value("${proxy.rebind_spans:1000}")
+  private int proxyRebindSpans;
+  @Value("${spill.max_mb:0}")
+  private long spillMaxMb;
+  @Value("${spill.segment_mb:16}")
+  private int spillSegmentMb;
+  @Value("${spill.directory:}")
+  private String spillDirectory;
+  @Value("${spill.drop_policy:drop-oldest}")
+  private String spillDropPolicy;
+  @Value("${sender.emission:batch}")
+  private String emission;
+  @Value("${sender.async:false}")
+  private boolean asyncSender;
+  @Value("${sender.queue_capacity:10000}")
+  private int queueCapacity;
+  @Value("${sender.batch_size:500}")
+  private int batchSize;
+  @Value("${sender.max_flush_delay_ms:100}")
+  private long maxFlushDelay;
+  @Value("${sender.overflow_policy:block}")
+  private String overflowPolicy;
+  @Value("${sender.writer_threads:1}")
+  private int writerThreads;
   @Value("${topology.app_count:10}")
   private int desiredRandomApps;
   @Value("${topology.services_per_app:50}")
@@ -33,49 +126,317 @@ public class TraceGeneratorApplication {
   private int operationsPerService;
   @Value("${topology.internal_call_count:3}")
   private int internalCallsPerApp;
-
-  private Topology topology;
-
+  @Value("${topology.snapshot_file:}")
+  private String snapshotFile;
+  @Value("${topology.file:}")
+  private String topologyFile;
 
   public static void main(String[] args) {
     SpringApplication.run(TraceGeneratorApplication.class, args);
   }
 
   @Bean
-  public CommandLineRunner commandLineRunner(ApplicationContext ctx) {
+  public TopologyHolder topologyHolder() {
+    return new TopologyHolder();
+  }
+
+  @Bean
+  public TopologyReloader topologyReloader(TopologyHolder holder) {
+    return new TopologyReloader(holder, this::reloadTopology);
+  }
+
+  @Bean
+  public TopologyEndpoint topologyEndpoint(TopologyReloader reloader) {
+    return new TopologyEndpoint(reloader);
+  }
+
+  @Bean
+  public CommandLineRunner commandLineRunner(ApplicationContext ctx, MeterRegistry registry,
+                                             TopologyHolder holder, TopologyReloader reloader) {
     return args -> {
-      topology = new Topology(desiredRandomApps, servicesPerApp,
-          operationsPerService, internalCallsPerApp);
-      InputStream inputStream = this.getClass().getClassLoader()
-          .getResourceAsStream("config.yaml");
-      topology.load(inputStream);
+      Long runSeed = seed.isEmpty() ? null : Long.valueOf(seed);
+      Span.setIdGenerator(IdGenerator.named(idGenerator, idSeed));
+      holder.swap(loadTopology());
+      if (!topologyFile.isEmpty()) {
+        reloader.watch(Paths.get(topologyFile));
+      }
+      GeneratorMetrics metrics = new GeneratorMetrics(registry);
+      boolean compiledPlans = "plan".equals(engine);
+      int workers = workerThreads > 0 ? workerThreads : Runtime.getRuntime().availableProcessors();
+      int sendingThreads = "realtime".equals(emission) ? 1 : asyncSender ? writerThreads :
+          "rate".equals(mode) || "backfill".equals(mode) ? workers : 1;
+      spillQueue = newSpillQueue();
+      if (spillQueue != null) {
+        spillQueue.bindTo(registry);
+      }
+      proxyPool = newProxyPool(sendingThreads);
+      proxyPool.bindTo(registry);
+
+      Supplier<TraceSender> senders;
+      if ("realtime".equals(emission)) {
+        SpanScheduler scheduler = new SpanScheduler();
+        scheduler.bindTo(registry);
+        scheduler.start(newSpanSender());
+        senders = () -> new RealtimeTraceSender(scheduler);
+      } else if (asyncSender) {
+        TraceQueue queue = new TraceQueue(queueCapacity, batchSize, maxFlushDelay,
+            TraceQueue.OverflowPolicy.parse(overflowPolicy));
+        queue.bindTo(registry);
+        queue.start(this::newSpanSender, writerThreads);
+        senders = () -> new AsyncTraceSender(queue);
+      } else {
+        // by default the pool has a connection for each sender, so senders rarely share a socket
+        senders = () -> new TraceSender(newSpanSender());
+      }
 
-      // TODO extend WavefrontClient instead of using WavefrontProxyClient
-      // TODO get ports and hostnames from app properties
-      client = new WavefrontProxyClient.Builder("localhost").
-          distributionPort(2878).
-          metricsPort(2878).
-          tracingPort(30001).build();
-      traceSender = new TraceSender(client);
+      // a traffic section in the topology overrides the properties; it is read once at startup
+      TrafficCurve traffic = holder.current().traffic() != null ? holder.current().traffic() :
+          trafficCurve();
+
+      if ("rate".equals(mode)) {
+        boolean pacedBySpans = spansPerSecond > 0;
+        if (pacedBySpans && (!"constant".equals(traffic.getCurve()) ||
+            !"fixed".equals(traffic.getArrivals()))) {
+          log.warning(String.format("generator.spans_per_second is set, ignoring the %s traffic " +
+              "curve and %s arrivals", traffic.getCurve(), traffic.getArrivals()));
+        }
+        new LoadEngine.Builder().
+            topology(holder).
+            senders(senders).
+            workers(workers).
+            tracesPerSecond(tracesPerSecond).
+            shape(pacedBySpans ? null :
+                traffic.shape(tracesPerSecond, System.currentTimeMillis())).
+            arrivals(traffic.arrivalProcess()).
+            spansPerSecond(spansPerSecond).
+            compiledPlans(compiledPlans).
+            streaming(streaming).
+            batchSpans(batchSpans).
+            seed(runSeed).
+            metrics(metrics).
+            build().start(reportInterval);
+        return;
+      }
+
+      if ("backfill".equals(mode)) {
+        Instant end = backfillEnd.isEmpty() ? Instant.now() : Instant.parse(backfillEnd);
+        // the start is either a time or how long before the end to begin
+        Instant start = backfillStart.startsWith("P") ?
+            end.minus(Duration.parse(backfillStart)) : Instant.parse(backfillStart);
+        if (spansPerSecond > 0) {
+          log.warning("generator.spans_per_second does not apply to backfill, which generates " +
+              "generator.traces_per_second along the traffic curve");
+        }
+        new Backfill.Builder().
+            topology(holder).
+            senders(senders).
+            start(start).
+            end(end).
+            tracesPerSecond(tracesPerSecond).
+            shape(traffic.shape(tracesPerSecond, start.toEpochMilli())).
+            arrivals(traffic.arrivalProcess()).
+            workers(workers).
+            compiledPlans(compiledPlans).
+            streaming(streaming).
+            batchSpans(batchSpans).
+            seed(runSeed).
+            metrics(metrics).
+            build().run();
+        return;
+      }
+
+      traceSender = senders.get();
+      metrics.bindEntrypoints(holder.current().entrypoints());
+      holder.onSwap(topology -> metrics.bindEntrypoints(topology.entrypoints()));
 
       Timer t = new Timer();
       t.scheduleAtFixedRate(new TimerTask() {
+        private final Random random = runSeed == null ? null : RandomStreams.split(runSeed, 1);
+
         @Override
         public void run() {
+          if (random != null) {
+            RandomStreams.bind(random);
+          }
+          long begin = System.nanoTime();
+          Topology topology = holder.current();
+          int entrypoint = topology.sampleEntrypoint(RandomStreams.current());
+          Operation op = topology.entrypoints().get(entrypoint);
+          TraceGenerator generator = compiledPlans ? topology.plans().get(entrypoint) : op;
+          List<Span> trace = generator.generateTrace(traceSender.traceId);
+          long generated = System.nanoTime();
+          metrics.recordTrace(entrypoint, trace.size(), generated - begin);
+          log.info(String.format("Sending %d spans for %s.%s.%s", trace.size(),
+              op.getApplication(), op.getService(), op.getName()));
+          long sendStart = System.nanoTime();
           try {
-            Operation op = randomEntrypoint();
-            List<Span> trace = op.generateTrace(traceSender.traceId);
-            log.info(String.format("Sending %d spans for %s.%s.%s", trace.size(),
-                op.getApplication(), op.getService(), op.getName()));
             traceSender.send(trace);
-          } catch (IOException ignored) {
+            if (traceSender.sender instanceof BufferFlusher) {
+              // traces are far apart in timer mode, don't leave them buffered
+              ((BufferFlusher) traceSender.sender).flush();
+            }
+          } catch (IOException e) {
+            metrics.recordSendError();
+            log.log(Level.WARNING, "Failed to send trace", e);
+          } finally {
+            metrics.recordSend(System.nanoTime() - sendStart);
           }
         }
       }, 0, sendFrequency);
     };
   }
 
-  private Operation randomEntrypoint() {
-    return topology.entrypoints().get(new Random().nextInt(topology.entrypoints().size()));
+  /**
+   * Traffic curve from the generator.traffic.* properties
+   */
+  private TrafficCurve trafficCurve() {
+    TrafficCurve curve = new TrafficCurve();
+    curve.setCurve(trafficCurve);
+    curve.setArrivals(trafficArrivals);
+    curve.setPeriodSeconds(trafficPeriod);
+    curve.setLowRatio(trafficLowRatio);
+    curve.setPeakHourUtc(trafficPeakHour);
+    curve.setAtSeconds(trafficAt);
+    curve.setFactor(trafficFactor);
+    curve.setLengthSeconds(trafficLength);
+    return curve;
+  }
+
+  /**
+   * Load the startup topology from the snapshot file if there is one, otherwise from the topology
+   * file, saving a snapshot for the next start
+   */
+  private Topology loadTopology() throws IOException {
+    Path snapshot = snapshotFile.isEmpty() ? null : Paths.get(snapshotFile);
+    if (snapshot == null || !Files.exists(snapshot)) {
+      return reloadTopology();
+    }
+    String saved;
+    try {
+      saved = TopologySnapshot.source(snapshot);
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Ignoring unreadable topology snapshot " + snapshot, e);
+      return reloadTopology();
+    }
+    if (!saved.equals(topologySource())) {
+      log.warning(String.format("Topology snapshot %s was built from a different topology file " +
+          "or random topology settings, rebuilding it", snapshot));
+      return reloadTopology();
+    }
+    long start = System.nanoTime();
+    Topology topology = newTopology();
+    TopologySnapshot.read(topology, snapshot);
+    log.info(String.format("Restored topology from %s in %d ms", snapshot,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    compilePlans(topology);
+    return topology;
+  }
+
+  /**
+   * Load a complete topology from the topology file, or config.yaml on the classpath, ready to
+   * be swapped in
+   */
+  private Topology reloadTopology() throws IOException {
+    Topology topology = newTopology();
+    try (InputStream inputStream = topologyFile.isEmpty() ?
+        this.getClass().getClassLoader().getResourceAsStream("config.yaml") :
+        Files.newInputStream(Paths.get(topologyFile))) {
+      topology.load(inputStream);
+    }
+    if (!snapshotFile.isEmpty()) {
+      TopologySnapshot.write(topology, Paths.get(snapshotFile), topologySource());
+      log.info("Saved topology snapshot to " + snapshotFile);
+    }
+    compilePlans(topology);
+    return topology;
+  }
+
+  /**
+   * Fingerprint of what the topology is built from: the contents of the topology file or the
+   * bundled config.yaml, and the random topology settings and seed
+   */
+  private String topologySource() throws IOException {
+    byte[] config;
+    if (topologyFile.isEmpty()) {
+      try (InputStream in = getClass().getClassLoader().getResourceAsStream("config.yaml")) {
+        config = in == null ? new byte[0] : in.readAllBytes();
+      }
+    } else {
+      config = Files.readAllBytes(Paths.get(topologyFile));
+    }
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    return String.format("file=%s sha256=%s random=%d,%d,%d,%d seed=%s",
+        topologyFile.isEmpty() ? "config.yaml" : topologyFile,
+        new BigInteger(1, digest.digest(config)).toString(16), desiredRandomApps,
+        servicesPerApp, operationsPerService, internalCallsPerApp, seed);
+  }
+
+  private Topology newTopology() {
+    // the same seed builds the same random topology on every reload
+    return new Topology(desiredRandomApps, servicesPerApp, operationsPerService,
+        internalCallsPerApp, seed.isEmpty() ? new Random() :
+        RandomStreams.split(Long.parseLong(seed), 0));
+  }
+
+  private void compilePlans(Topology topology) {
+    // compile before the swap so generators never wait for it
+    if ("plan".equals(engine)) {
+      log.info(String.format("Compiled %d trace plans", topology.plans().size()));
+    }
+  }
+
+  private WavefrontTracingSpanSender newSpanSender() {
+    return proxyPool.newSender();
+  }
+
+  private ProxyPool newProxyPool(int sendingThreads) {
+    List<InetSocketAddress> endpoints = proxyEndpoints.isEmpty() ?
+        ProxyPool.parseEndpoints(proxyHost, tracingPort) :
+        ProxyPool.parseEndpoints(proxyEndpoints, tracingPort);
+    int connections = connectionsPerEndpoint > 0 ? connectionsPerEndpoint :
+        (sendingThreads + endpoints.size() - 1) / endpoints.size();
+    log.info(String.format("Sending spans to %s over %d connections each", endpoints,
+        connections));
+    return new ProxyPool(endpoints, connections, ProxyPool.Balance.parse(proxyBalance),
+        proxyRebindSpans, this::newConnection);
+  }
+
+  private SpillQueue newSpillQueue() throws IOException {
+    if (spillMaxMb <= 0) {
+      return null;
+    }
+    if (!"nio".equals(senderType)) {
+      log.warning("spill.max_mb is ignored, only sender.type=nio spills unsent spans");
+      return null;
+    }
+    Path directory = Paths.get(spillDirectory.isEmpty() ?
+        System.getProperty("java.io.tmpdir") : spillDirectory);
+    return new SpillQueue(directory, spillMaxMb * 1024 * 1024, spillSegmentMb * 1024 * 1024,
+        SpillQueue.DropPolicy.parse(spillDropPolicy));
+  }
+
+  private WavefrontTracingSpanSender newConnection(InetSocketAddress address) {
+    if ("nio".equals(senderType)) {
+      // connections to every proxy share the spill queue, so spans spilled for a proxy that is
+      // down are replayed to whichever proxy is up
+      return new NioSpanSender(address, NioSpanSender.DEFAULT_BUFFER_SIZE,
+          NioSpanSender.DEFAULT_MAX_FLUSH_DELAY_MILLIS, spillQueue);
+    }
+    return newProxyClient(address);
+  }
+
+  @SuppressWarnings("deprecation")
+  private WavefrontProxyClient newProxyClient(InetSocketAddress address) {
+    // TODO extend WavefrontClient instead of using WavefrontProxyClient
+    // TODO get metrics and distribution ports from app properties
+    return new WavefrontProxyClient.Builder(address.getHostString()).
+        distributionPort(2878).
+        metricsPort(2878).
+        tracingPort(address.getPort()).build();
   }
 }
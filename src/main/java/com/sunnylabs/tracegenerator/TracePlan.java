@@ -0,0 +1,228 @@
+package com.sunnylabs.tracegenerator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * An immutable, flattened form of the call tree below an entrypoint {@link Operation}
+ * <p>
+ * The tree is laid out in the same depth-first order the recursive {@link Operation#generateTrace}
+ * produces. Each node stores the index of its parent node and an operation id, and per-operation
+ * data such as the operation's {@link SpanTemplate} is looked up once at compile time, so generating
+ * a trace is a single linear pass over primitive arrays.
+ */
+public class TracePlan implements TraceGenerator {
+  private static final int ROOT_DURATION_MILLIS = 1200;
+
+  private final Operation root;
+  private final int[] parents;
+  private final int[] operationIds;
+  private final float[] errorChances;
+  private final SpanTemplate[] templates;
+
+  private TracePlan(Operation root, int[] parents, int[] operationIds, List<Operation> operations) {
+    this.root = root;
+    this.parents = parents;
+    this.operationIds = operationIds;
+    int count = operations.size();
+    errorChances = new float[count];
+    templates = new SpanTemplate[count];
+    for (int id = 0; id < count; id++) {
+      Operation op = operations.get(id);
+      errorChances[id] = op.getErrorChance();
+      templates[id] = op.template();
+    }
+  }
+
+  /**
+   * Flatten the call tree below an operation. The call graph must be free of cycles.
+   *
+   * @param root the entrypoint operation
+   * @return the compiled plan
+   */
+  public static TracePlan compile(Operation root) {
+    Map<Operation, Integer> ids = new IdentityHashMap<>();
+    List<Operation> operations = new ArrayList<>();
+    List<Integer> parents = new ArrayList<>();
+    List<Integer> operationIds = new ArrayList<>();
+
+    // explicit stack of (operation, parent node) in pre-order
+    List<Operation> stack = new ArrayList<>();
+    List<Integer> stackParents = new ArrayList<>();
+    stack.add(root);
+    stackParents.add(-1);
+    while (!stack.isEmpty()) {
+      int last = stack.size() - 1;
+      Operation op = stack.remove(last);
+      int parent = stackParents.remove(last);
+      Integer id = ids.get(op);
+      if (id == null) {
+        id = operations.size();
+        ids.put(op, id);
+        operations.add(op);
+      }
+      int node = parents.size();
+      parents.add(parent);
+      operationIds.add(id);
+      List<Operation> calls = op.getCalls();
+      if (calls != null) {
+        for (int i = calls.size() - 1; i >= 0; i--) {
+          stack.add(calls.get(i));
+          stackParents.add(node);
+        }
+      }
+    }
+    return new TracePlan(root,
+        parents.stream().mapToInt(Integer::intValue).toArray(),
+        operationIds.stream().mapToInt(Integer::intValue).toArray(),
+        operations);
+  }
+
+  /**
+   * @return the entrypoint operation this plan was compiled from
+   */
+  public Operation root() {
+    return root;
+  }
+
+  /**
+   * @return the number of spans in every trace generated from this plan
+   */
+  public int size() {
+    return parents.length;
+  }
+
+  /**
+   * Generate a trace by walking the plan once
+   *
+   * @param traceId UUID to add as the traceId for generated spans
+   * @return a List of {@link Span}s in the trace, in the same order as the recursive generator
+   */
+  @Override
+  public List<Span> generateTrace(UUID traceId) {
+    List<Span> trace = new ArrayList<>(parents.length);
+    IdGenerator ids = Span.idGenerator();
+    long traceIdHigh = traceId.getMostSignificantBits();
+    long traceIdLow = traceId.getLeastSignificantBits();
+    walk((node, parent, id, startMillis, duration, error) -> {
+      Span span = templates[id].newSpan(startMillis, duration, error);
+      span.traceIdHigh = traceIdHigh;
+      span.traceIdLow = traceIdLow;
+      ids.nextId(span);
+      if (parent >= 0) {
+        span.parent(trace.get(parent));
+      }
+      trace.add(span);
+    });
+    return trace;
+  }
+
+  /**
+   * Generate a trace by walking the plan once, pushing each span as soon as it is generated.
+   * Only the timing and id halves of each node are kept, not the spans.
+   *
+   * @param traceId UUID to add as the traceId for generated spans
+   * @param sink    receives the spans, in the same order as the recursive generator
+   * @return the number of spans generated
+   * @throws IOException if the sink failed
+   */
+  @Override
+  public int generateTrace(UUID traceId, SpanSink sink) throws IOException {
+    long[] spanIds = new long[2 * parents.length];
+    IdGenerator ids = Span.idGenerator();
+    long traceIdHigh = traceId.getMostSignificantBits();
+    long traceIdLow = traceId.getLeastSignificantBits();
+    walk((node, parent, id, startMillis, duration, error) -> {
+      Span span = templates[id].newSpan(startMillis, duration, error);
+      span.traceIdHigh = traceIdHigh;
+      span.traceIdLow = traceIdLow;
+      ids.nextId(span);
+      spanIds[2 * node] = span.spanIdHigh;
+      spanIds[2 * node + 1] = span.spanIdLow;
+      if (parent >= 0) {
+        span.parentIdHigh = spanIds[2 * parent];
+        span.parentIdLow = spanIds[2 * parent + 1];
+      }
+      sink.accept(span);
+    });
+    return parents.length;
+  }
+
+  /**
+   * Generate a trace by walking the plan once, appending each span as a row of a batch. Parent
+   * links are row offsets, so no span objects are created.
+   *
+   * @param traceId UUID to add as the traceId for generated spans
+   * @param batch   receives the spans, in the same order as the recursive generator
+   * @return the number of spans generated
+   */
+  @Override
+  public int generateTrace(UUID traceId, SpanBatch batch) {
+    IdGenerator ids = Span.idGenerator();
+    int first = batch.rows();
+    walk((node, parent, id, startMillis, duration, error) ->
+        batch.add(templates[id], traceId, parent < 0 ? -1 : first + parent, startMillis,
+            duration, error, ids));
+    return parents.length;
+  }
+
+  /**
+   * One node of a trace, with its timing and error drawn
+   */
+  private interface NodeStep<E extends Exception> {
+    /**
+     * @param node        index of the node in the plan
+     * @param parent      index of the parent node, or -1 for the root
+     * @param id          the node's operation id
+     * @param startMillis start time of the span
+     * @param duration    duration of the span in milliseconds
+     * @param error       whether the span is an error
+     */
+    void node(int node, int parent, int id, long startMillis, int duration, boolean error)
+        throws E;
+  }
+
+  /**
+   * Walk the plan in order, drawing each node's duration, offset within its parent and error
+   * from the thread's random stream, always in the same order whatever the output
+   */
+  private <E extends Exception> void walk(NodeStep<E> step) throws E {
+    Random random = RandomStreams.current();
+    int size = parents.length;
+    int[] offsets = new int[size];
+    int[] durations = new int[size];
+    long now = TraceClock.now();
+    int rootBudget = randomDuration(random, ROOT_DURATION_MILLIS);
+
+    for (int node = 0; node < size; node++) {
+      int parent = parents[node];
+      int budget = parent < 0 ? rootBudget : durations[parent];
+      int duration = randomDuration(random, budget);
+      int offset = randomDuration(random, budget - duration) + (parent < 0 ? 0 : offsets[parent]);
+      durations[node] = duration;
+      offsets[node] = offset;
+
+      int id = operationIds[node];
+      boolean error = errorChances[id] > random.nextDouble() * 100;
+      step.node(node, parent, id, now + offset, duration, error);
+    }
+  }
+
+  private static int randomDuration(Random random, int max) {
+    if (max < 10) {
+      return max;
+    }
+    return random.nextInt(max / 2) + max / 2;
+  }
+
+  @Override
+  public String toString() {
+    return "TracePlan{" + root.getApplication() + "." + root.getService() + "." +
+        root.getName() + ", spans=" + parents.length + "}";
+  }
+}
@@ -0,0 +1,321 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.common.BufferFlusher;
+import com.wavefront.sdk.entities.tracing.WavefrontTracingSpanSender;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.lang.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded queue of finished traces drained in batches by dedicated writer threads
+ * <p>
+ * Generating threads hand over whole traces with {@link #submit(List)}, or as the rows of a
+ * {@link SpanBatch} with {@link #submit(SpanBatch)}, and return to generating right away. Each
+ * writer owns its own {@link WavefrontTracingSpanSender}, collects up to batchSize traces, waiting
+ * at most the max flush delay for a batch to fill, then sends them and flushes the sender. Rows
+ * are encoded straight from the batch by a {@link DirectSpanSender}.
+ */
+public class TraceQueue implements MeterBinder {
+  private static final Logger log = Logger.getLogger(TraceQueue.class.getName());
+  private static final long IDLE_POLL_MILLIS = 100;
+
+  /**
+   * What to do with a trace when the queue is full
+   */
+  public enum OverflowPolicy {
+    /**
+     * wait for space, slowing generation down to what the writers can send
+     */
+    BLOCK,
+    /**
+     * discard the trace being submitted
+     */
+    DROP_NEWEST,
+    /**
+     * discard the oldest queued trace to make room
+     */
+    DROP_OLDEST;
+
+    /**
+     * @param name policy name in any case, with - or _ separators
+     * @return the policy
+     */
+    public static OverflowPolicy parse(String name) {
+      return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+  }
+
+  /**
+   * A queued trace, held either as span objects or as batch rows
+   */
+  private static final class Trace {
+    final List<Span> spans;
+    final SpanBatch rows;
+
+    Trace(List<Span> spans, SpanBatch rows) {
+      this.spans = spans;
+      this.rows = rows;
+    }
+
+    int size() {
+      return spans != null ? spans.size() : rows.size();
+    }
+  }
+
+  private final ArrayBlockingQueue<Trace> queue;
+  private final int batchSize;
+  private final long maxFlushDelayNanos;
+  private final OverflowPolicy overflowPolicy;
+  private final LongAdder droppedTraces = new LongAdder();
+  private final LongAdder droppedSpans = new LongAdder();
+  private final LongAdder sentSpans = new LongAdder();
+  private final LongAdder sendErrors = new LongAdder();
+  private final List<Thread> writers = new ArrayList<>();
+  private volatile boolean running;
+
+  /**
+   * @param capacity           maximum number of queued traces
+   * @param batchSize          maximum number of traces a writer sends before flushing
+   * @param maxFlushDelayMillis longest a writer waits for a batch to fill
+   * @param overflowPolicy     what to do when the queue is full
+   */
+  public TraceQueue(int capacity, int batchSize, long maxFlushDelayMillis,
+                    OverflowPolicy overflowPolicy) {
+    if (capacity < 1 || batchSize < 1 || maxFlushDelayMillis < 0) {
+      throw new IllegalArgumentException("capacity and batchSize must be positive and " +
+          "maxFlushDelayMillis must not be negative");
+    }
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.batchSize = batchSize;
+    this.maxFlushDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxFlushDelayMillis);
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Start the writer threads
+   *
+   * @param senders       creates the sender for each writer, called once per writer
+   * @param writerThreads number of writers
+   */
+  public synchronized void start(Supplier<? extends WavefrontTracingSpanSender> senders,
+                                 int writerThreads) {
+    if (running) {
+      return;
+    }
+    running = true;
+    for (int i = 0; i < writerThreads; i++) {
+      WavefrontTracingSpanSender sender = senders.get();
+      Thread writer = new Thread(() -> drain(sender), "trace-writer-" + i);
+      writers.add(writer);
+      writer.start();
+    }
+  }
+
+  /**
+   * Stop the writers once they have sent everything already queued
+   *
+   * @throws InterruptedException if interrupted while waiting for the writers
+   */
+  public synchronized void stop() throws InterruptedException {
+    running = false;
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    writers.clear();
+  }
+
+  /**
+   * Queue a finished trace for sending
+   *
+   * @param trace spans with their traceId set; the list must not be modified afterwards
+   * @return false if the trace was dropped because the queue was full
+   * @throws InterruptedIOException if interrupted while blocked on a full queue
+   */
+  public boolean submit(List<Span> trace) throws InterruptedIOException {
+    return submit(new Trace(trace, null));
+  }
+
+  /**
+   * Queue a finished trace held as batch rows
+   *
+   * @param trace rows and spans of one trace, with its traceId set; the batch must not be
+   *              modified afterwards
+   * @return false if the trace was dropped because the queue was full
+   * @throws InterruptedIOException if interrupted while blocked on a full queue
+   */
+  public boolean submit(SpanBatch trace) throws InterruptedIOException {
+    return submit(new Trace(null, trace));
+  }
+
+  private boolean submit(Trace trace) throws InterruptedIOException {
+    switch (overflowPolicy) {
+      case BLOCK:
+        try {
+          queue.put(trace);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted while waiting for queue space");
+        }
+        return true;
+      case DROP_OLDEST:
+        while (!queue.offer(trace)) {
+          Trace oldest = queue.poll();
+          if (oldest != null) {
+            dropped(oldest);
+          }
+        }
+        return true;
+      default:
+        if (queue.offer(trace)) {
+          return true;
+        }
+        dropped(trace);
+        return false;
+    }
+  }
+
+  /**
+   * @return traces waiting to be sent
+   */
+  public int depth() {
+    return queue.size();
+  }
+
+  /**
+   * @return traces discarded because the queue was full
+   */
+  public long droppedTraces() {
+    return droppedTraces.sum();
+  }
+
+  /**
+   * @return spans discarded because the queue was full
+   */
+  public long droppedSpans() {
+    return droppedSpans.sum();
+  }
+
+  /**
+   * @return spans handed to a sender successfully
+   */
+  public long sentSpans() {
+    return sentSpans.sum();
+  }
+
+  /**
+   * @return spans that failed to send
+   */
+  public long sendErrors() {
+    return sendErrors.sum();
+  }
+
+  @Override
+  public void bindTo(@NonNull MeterRegistry registry) {
+    Gauge.builder("tracegenerator.sender.queue.depth", this, TraceQueue::depth).
+        description("traces waiting for a writer").register(registry);
+    FunctionCounter.builder("tracegenerator.sender.dropped.traces", this,
+        TraceQueue::droppedTraces).register(registry);
+    FunctionCounter.builder("tracegenerator.sender.dropped.spans", this,
+        TraceQueue::droppedSpans).register(registry);
+    FunctionCounter.builder("tracegenerator.sender.sent.spans", this,
+        TraceQueue::sentSpans).register(registry);
+    FunctionCounter.builder("tracegenerator.sender.errors", this,
+        TraceQueue::sendErrors).register(registry);
+  }
+
+  private void dropped(Trace trace) {
+    droppedTraces.increment();
+    droppedSpans.add(trace.size());
+  }
+
+  private void drain(WavefrontTracingSpanSender sender) {
+    List<Trace> batch = new ArrayList<>(batchSize);
+    try {
+      while (running || !queue.isEmpty()) {
+        Trace first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        fill(batch);
+        write(sender, batch);
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void fill(List<Trace> batch) throws InterruptedException {
+    long deadline = System.nanoTime() + maxFlushDelayNanos;
+    while (batch.size() < batchSize) {
+      queue.drainTo(batch, batchSize - batch.size());
+      long remaining = deadline - System.nanoTime();
+      if (batch.size() >= batchSize || remaining <= 0) {
+        return;
+      }
+      Trace next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+      if (next == null) {
+        return;
+      }
+      batch.add(next);
+    }
+  }
+
+  private void write(WavefrontTracingSpanSender sender, List<Trace> batch) {
+    for (Trace trace : batch) {
+      if (trace.spans != null) {
+        for (Span span : trace.spans) {
+          send(sender, span);
+        }
+      } else if (sender instanceof DirectSpanSender) {
+        try {
+          ((DirectSpanSender) sender).send(trace.rows);
+          sentSpans.add(trace.size());
+        } catch (IOException e) {
+          // a failed buffer write loses the whole trace
+          sendErrors.add(trace.size());
+          log.log(Level.FINE, "failed to send spans", e);
+        }
+      } else {
+        for (int row = 0; row < trace.rows.rows(); row++) {
+          send(sender, trace.rows.span(row));
+        }
+        for (Span span : trace.rows.others()) {
+          send(sender, span);
+        }
+      }
+    }
+    if (sender instanceof BufferFlusher) {
+      try {
+        ((BufferFlusher) sender).flush();
+      } catch (IOException e) {
+        sendErrors.increment();
+        log.log(Level.FINE, "failed to flush sender", e);
+      }
+    }
+  }
+
+  private void send(WavefrontTracingSpanSender sender, Span span) {
+    try {
+      TraceSender.sendSpan(sender, span);
+      sentSpans.increment();
+    } catch (IOException e) {
+      sendErrors.increment();
+      log.log(Level.FINE, "failed to send span", e);
+    }
+  }
+}
@@ -7,13 +7,30 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
+/**
+ * Collects the spans of one trace at a time and sends them together
+ * <p>
+ * A sender holds the trace in progress and is not thread safe; each generating thread should
+ * use its own.
+ */
 public class TraceSender {
   public WavefrontTracingSpanSender sender;
   public List<Span> spans = new ArrayList<>();
-  public UUID traceId = UUID.randomUUID();
+  public UUID traceId;
+  private final IdGenerator idGenerator;
 
   public TraceSender(WavefrontTracingSpanSender spanSender) {
-    sender = spanSender;
+    this(spanSender, Span.idGenerator());
+  }
+
+  /**
+   * @param spanSender  destination for spans
+   * @param idGenerator generator for trace ids
+   */
+  public TraceSender(WavefrontTracingSpanSender spanSender, IdGenerator idGenerator) {
+    this.sender = spanSender;
+    this.idGenerator = idGenerator;
+    this.traceId = idGenerator.nextId();
   }
 
   public void addSpan(Span span) {
@@ -21,15 +38,68 @@ public class TraceSender {
   }
 
 
+  /**
+   * Send the collected spans as one trace and start a new trace. If sending fails, the spans
+   * that were not sent are dropped, so a failed trace is never merged into the next one; keeping
+   * spans through an outage is up to the sender, for example with a {@link SpillQueue}.
+   *
+   * @throws IOException if a span could not be sent; the caller counts the failed trace
+   */
   public void flush() throws IOException {
-    List<Span> iterable = new ArrayList<>(spans);
-    for (Span span : iterable) {
-      sender.sendSpan(span.operationName, span.startTime, span.duration, span.source, traceId,
-          span.spanId, span.parents, span.followsFrom, span.tags, span.spanLogs);
-      spans.remove(span);
+    try {
+      for (Span span : spans) {
+        span.traceId(traceId);
+        sendSpan(sender, span);
+      }
+    } finally {
+      spans.clear();
+      nextTrace();
+    }
+  }
+
+  /**
+   * Send one span, using the pre-encoded template when the sender supports it
+   *
+   * @param sender destination for the span
+   * @param span   the span, with its trace id set
+   * @throws IOException if the span could not be sent
+   */
+  static void sendSpan(WavefrontTracingSpanSender sender, Span span) throws IOException {
+    if (sender instanceof DirectSpanSender) {
+      ((DirectSpanSender) sender).send(span);
+    } else {
+      sender.sendSpan(span.operationName, span.startTime, span.duration, span.source,
+          span.traceId(), span.spanId(), span.parents(), span.followsFrom, span.tagList(),
+          span.spanLogs());
     }
+  }
+
+  /**
+   * Send every span in a batch, in bulk when the sender supports it and otherwise as one span
+   * object per row
+   *
+   * @param sender destination for the spans
+   * @param batch  spans with their trace ids set
+   * @throws IOException if a span could not be sent
+   */
+  static void sendBatch(WavefrontTracingSpanSender sender, SpanBatch batch) throws IOException {
+    if (sender instanceof DirectSpanSender) {
+      ((DirectSpanSender) sender).send(batch);
+      return;
+    }
+    for (int row = 0; row < batch.rows(); row++) {
+      sendSpan(sender, batch.span(row));
+    }
+    for (Span span : batch.others()) {
+      sendSpan(sender, span);
+    }
+  }
 
-    traceId = UUID.randomUUID();
+  /**
+   * Start a new trace with a new id
+   */
+  protected void nextTrace() {
+    traceId = idGenerator.nextId();
   }
 
   public void send(List<Span> spans) throws IOException {
@@ -41,4 +111,62 @@ public class TraceSender {
     tracer.generateTrace(traceId).forEach(this::addSpan);
     flush();
   }
+
+  /**
+   * Generate a trace into a batch under the current trace id and start a new trace
+   *
+   * @param tracer generator for the trace
+   * @param batch  receives the spans; send it with {@link #send(SpanBatch)} once it is big enough
+   * @return the number of spans generated
+   */
+  public int generate(TraceGenerator tracer, SpanBatch batch) {
+    try {
+      return tracer.generateTrace(traceId, batch);
+    } finally {
+      batch.endTrace();
+      nextTrace();
+    }
+  }
+
+  /**
+   * Send every span in a batch and clear it, even if sending failed part way through. Direct
+   * senders encode the rows in bulk; other senders get one span object per row.
+   *
+   * @param batch spans from any number of traces, each with its own trace id
+   * @throws IOException if a span could not be sent; the rest of the batch is dropped
+   */
+  public void send(SpanBatch batch) throws IOException {
+    if (!spans.isEmpty()) {
+      flush();
+    }
+    try {
+      sendBatch(sender, batch);
+    } finally {
+      batch.clear();
+    }
+  }
+
+  /**
+   * Generate a trace and send each span as soon as it is generated, so the trace is never
+   * collected in memory and encoding overlaps with generation. Starts a new trace afterwards,
+   * even if sending failed part way through.
+   *
+   * @param tracer generator for the trace
+   * @return the number of spans sent
+   * @throws IOException if a span could not be sent; the rest of the trace is not generated
+   */
+  public int stream(TraceGenerator tracer) throws IOException {
+    if (!spans.isEmpty()) {
+      flush();
+    }
+    UUID id = traceId;
+    try {
+      return tracer.generateTrace(id, span -> {
+        span.traceId(id);
+        sendSpan(sender, span);
+      });
+    } finally {
+      nextTrace();
+    }
+  }
 }
@@ -0,0 +1,83 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How the trace rate varies over a run and how arrivals are spread, as configured in the
+ * topology's {@code traffic} section or the generator.traffic properties
+ */
+@lombok.Data
+public class TrafficCurve {
+  /**
+   * constant, diurnal, sine, step or spike
+   */
+  private String curve = "constant";
+  /**
+   * fixed, poisson or pareto
+   */
+  private String arrivals = "fixed";
+  /**
+   * sine: length of one cycle
+   */
+  private double periodSeconds = 3600;
+  /**
+   * sine and diurnal: the lowest rate as a fraction of the configured rate, which is the highest
+   */
+  private double lowRatio = 0.2;
+  /**
+   * diurnal: hour of the day, in UTC, with the most traffic
+   */
+  private double peakHourUtc = 14;
+  /**
+   * step and spike: seconds after the start of the run at which the rate changes
+   */
+  private double atSeconds = 300;
+  /**
+   * step and spike: how many times the configured rate to run at after the change
+   */
+  private double factor = 2;
+  /**
+   * spike: how long the spike lasts
+   */
+  private double lengthSeconds = 60;
+
+  /**
+   * @param tracesPerSecond the configured rate: the constant rate, the peak of a diurnal or sine
+   *                        curve, or the base rate of a step or spike
+   * @param originMillis    start of the run, which sine, step and spike times are relative to
+   * @return the rate over time
+   * @throws IllegalArgumentException if the curve is not known
+   */
+  public TrafficShape shape(double tracesPerSecond, long originMillis) {
+    double low = tracesPerSecond * lowRatio;
+    long at = originMillis + millis(atSeconds);
+    switch (curve) {
+      case "constant":
+        return TrafficShape.constant(tracesPerSecond);
+      case "diurnal":
+        return TrafficShape.diurnal(tracesPerSecond, low, peakHourUtc);
+      case "sine":
+        return TrafficShape.sine((tracesPerSecond + low) / 2, (tracesPerSecond - low) / 2,
+            Math.max(millis(periodSeconds), 1), originMillis);
+      case "step":
+        return TrafficShape.step(tracesPerSecond, tracesPerSecond * factor, at);
+      case "spike":
+        return TrafficShape.spike(tracesPerSecond, tracesPerSecond * factor, at,
+            millis(lengthSeconds));
+      default:
+        throw new IllegalArgumentException("Unknown traffic curve " + curve);
+    }
+  }
+
+  /**
+   * @return the inter-arrival distribution
+   * @throws IllegalArgumentException if the arrival process is not known
+   */
+  public ArrivalProcess arrivalProcess() {
+    return ArrivalProcess.named(arrivals);
+  }
+
+  private static long millis(double seconds) {
+    return (long) (seconds * TimeUnit.SECONDS.toMillis(1));
+  }
+}
@@ -0,0 +1,85 @@
+package com.sunnylabs.tracegenerator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The trace rate over time, used to spread generated traffic over a period
+ */
+@FunctionalInterface
+public interface TrafficShape {
+  long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  /**
+   * @param epochMillis a point in time
+   * @return traces per second at that time, 0 or less for no traffic
+   */
+  double rate(long epochMillis);
+
+  /**
+   * @param tracesPerSecond the rate at all times
+   * @return a flat rate
+   */
+  static TrafficShape constant(double tracesPerSecond) {
+    return t -> tracesPerSecond;
+  }
+
+  /**
+   * A daily cycle that follows a cosine between a trough and a peak rate
+   *
+   * @param peakTracesPerSecond   rate at the peak hour
+   * @param troughTracesPerSecond rate twelve hours from the peak
+   * @param peakHourUtc           hour of the day, in UTC, with the most traffic
+   * @return the daily cycle
+   */
+  static TrafficShape diurnal(double peakTracesPerSecond, double troughTracesPerSecond,
+                              double peakHourUtc) {
+    long peakOffset = (long) (peakHourUtc * TimeUnit.HOURS.toMillis(1));
+    double mid = (peakTracesPerSecond + troughTracesPerSecond) / 2;
+    double amplitude = (peakTracesPerSecond - troughTracesPerSecond) / 2;
+    return t -> {
+      double phase = Math.floorMod(t - peakOffset, DAY_MILLIS) / (double) DAY_MILLIS;
+      return mid + amplitude * Math.cos(2 * Math.PI * phase);
+    };
+  }
+
+  /**
+   * A sine wave around a mean rate
+   *
+   * @param meanTracesPerSecond the average rate
+   * @param amplitude           how far the rate swings either side of the mean, in traces/s
+   * @param periodMillis        length of one cycle
+   * @param originMillis        time at which the rate is at the mean and rising
+   * @return the wave
+   */
+  static TrafficShape sine(double meanTracesPerSecond, double amplitude, long periodMillis,
+                           long originMillis) {
+    return t -> meanTracesPerSecond + amplitude *
+        Math.sin(2 * Math.PI * Math.floorMod(t - originMillis, periodMillis) / periodMillis);
+  }
+
+  /**
+   * A rate that changes once and stays changed
+   *
+   * @param tracesPerSecond rate before the step
+   * @param stepped         rate from the step on
+   * @param atMillis        time of the step
+   * @return the step
+   */
+  static TrafficShape step(double tracesPerSecond, double stepped, long atMillis) {
+    return t -> t < atMillis ? tracesPerSecond : stepped;
+  }
+
+  /**
+   * A burst of traffic on top of a base rate
+   *
+   * @param tracesPerSecond rate outside the spike
+   * @param spiked          rate during the spike
+   * @param atMillis        start of the spike
+   * @param lengthMillis    how long the spike lasts
+   * @return the spike
+   */
+  static TrafficShape spike(double tracesPerSecond, double spiked, long atMillis,
+                            long lengthMillis) {
+    return t -> t >= atMillis && t - atMillis < lengthMillis ? spiked : tracesPerSecond;
+  }
+}
@@ -0,0 +1,45 @@
+package com.sunnylabs.tracegenerator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AliasSamplerTest {
+  @Test
+  public void singleWeight() {
+    AliasSampler subject = new AliasSampler(new double[]{3});
+    Random random = new Random(1);
+    for (int i = 0; i < 100; i++) {
+      assertThat(subject.sample(random), is(0));
+    }
+  }
+
+  @Test
+  public void followsWeights() {
+    AliasSampler subject = new AliasSampler(new double[]{1, 5, 0, 4});
+    Random random = new Random(42);
+    int samples = 200_000;
+    int[] counts = new int[subject.size()];
+    for (int i = 0; i < samples; i++) {
+      counts[subject.sample(random)]++;
+    }
+
+    assertThat(counts[0] / (double) samples, is(closeTo(0.1, 0.01)));
+    assertThat(counts[1] / (double) samples, is(closeTo(0.5, 0.01)));
+    assertThat(counts[2], is(0));
+    assertThat(counts[3] / (double) samples, is(closeTo(0.4, 0.01)));
+  }
+
+  @Test
+  public void rejectsInvalidWeights() {
+    assertThrows(IllegalArgumentException.class, () -> new AliasSampler(new double[0]));
+    assertThrows(IllegalArgumentException.class, () -> new AliasSampler(new double[]{0, 0}));
+    assertThrows(IllegalArgumentException.class, () -> new AliasSampler(new double[]{1, -1}));
+    assertThrows(IllegalArgumentException.class, () -> new AliasSampler(new double[]{Double.NaN}));
+  }
+}
@@ -27,8 +27,8 @@ public class ApplicationTest {
     List<Span> result = subject.generateTrace(traceId, "one");
     assertThat(result, hasSize(1));
     Span span = result.get(0);
-    assertThat(span.traceId, is(traceId));
-    assertThat(serviceName(span.tags), is("one"));
+    assertThat(span.traceId(), is(traceId));
+    assertThat(serviceName(span.tagList()), is("one"));
   }
 
   private Application getTestSubject(List<Service> serviceList) {
@@ -59,9 +59,9 @@ public class ApplicationTest {
 
     List<Span> result = subject.generateTrace(UUID.randomUUID(), "one");
     assertThat(result, hasSize(3));
-    assertThat(serviceName(result.get(0).tags), is("one"));
-    assertThat(serviceName(result.get(1).tags), is("two"));
-    assertThat(serviceName(result.get(2).tags), is("three"));
+    assertThat(serviceName(result.get(0).tagList()), is("one"));
+    assertThat(serviceName(result.get(1).tagList()), is("two"));
+    assertThat(serviceName(result.get(2).tagList()), is("three"));
   }
 
   private String serviceName(List<Pair<String, String>> tags) {
@@ -0,0 +1,63 @@
+package com.sunnylabs.tracegenerator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ArrivalProcessTest {
+  private static final int SAMPLES = 200_000;
+
+  @Test
+  public void fixedGapsAreTheMean() {
+    assertThat(ArrivalProcess.fixed().nextGap(12.5, new Random(1)), is(12.5));
+  }
+
+  @Test
+  public void poissonGapsKeepTheMean() {
+    Random random = new Random(42);
+    ArrivalProcess subject = ArrivalProcess.poisson();
+    double sum = 0;
+    double sumSquares = 0;
+    for (int i = 0; i < SAMPLES; i++) {
+      double gap = subject.nextGap(10, random);
+      assertThat(gap, is(greaterThanOrEqualTo(0d)));
+      sum += gap;
+      sumSquares += gap * gap;
+    }
+    double mean = sum / SAMPLES;
+    assertThat(mean, is(closeTo(10, 0.2)));
+    // an exponential distribution's standard deviation equals its mean
+    assertThat(Math.sqrt(sumSquares / SAMPLES - mean * mean), is(closeTo(10, 0.3)));
+  }
+
+  @Test
+  public void paretoGapsKeepTheMeanAndBurst() {
+    Random random = new Random(42);
+    ArrivalProcess subject = ArrivalProcess.pareto(2.5);
+    double sum = 0;
+    double max = 0;
+    for (int i = 0; i < SAMPLES; i++) {
+      double gap = subject.nextGap(10, random);
+      sum += gap;
+      max = Math.max(max, gap);
+    }
+    assertThat(sum / SAMPLES, is(closeTo(10, 0.5)));
+    assertThat(max, is(greaterThan(100d)));
+  }
+
+  @Test
+  public void named() {
+    assertThat(ArrivalProcess.named("fixed").nextGap(3, new Random(1)), is(3d));
+    ArrivalProcess.named("poisson");
+    ArrivalProcess.named("pareto");
+    assertThrows(IllegalArgumentException.class, () -> ArrivalProcess.named("gamma"));
+    assertThrows(IllegalArgumentException.class, () -> ArrivalProcess.pareto(1));
+  }
+}
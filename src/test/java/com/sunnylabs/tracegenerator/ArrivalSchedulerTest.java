@@ -0,0 +1,57 @@
+package com.sunnylabs.tracegenerator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ArrivalSchedulerTest {
+  @Test
+  public void fixedArrivalsFollowTheShareOfTheRate() {
+    ArrivalScheduler subject = new ArrivalScheduler(TrafficShape.constant(1000),
+        ArrivalProcess.fixed(), 0.5);
+    subject.start();
+    long first = subject.nextDeadline();
+
+    subject.advance();
+    assertThat(subject.nextDeadline() - first, is(2_000_000L));
+  }
+
+  @Test
+  public void scheduleIgnoresSlowSends() throws InterruptedException {
+    ArrivalScheduler subject = new ArrivalScheduler(TrafficShape.constant(1000),
+        ArrivalProcess.fixed(), 1);
+    subject.start();
+    long first = subject.nextDeadline();
+
+    // a send that blocks for 50 arrivals leaves them due rather than pushing the schedule back
+    Thread.sleep(50);
+    long lag = subject.awaitNext();
+    subject.advance();
+
+    assertThat(lag, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(45)));
+    assertThat(subject.nextDeadline() - first, is(1_000_000L));
+    assertThat(subject.awaitNext(), greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(44)));
+  }
+
+  @Test
+  public void idlesWithoutTraffic() {
+    ArrivalScheduler subject = new ArrivalScheduler(TrafficShape.constant(0),
+        ArrivalProcess.poisson(), 1);
+    subject.start();
+    long first = subject.nextDeadline();
+
+    assertThat(subject.awaitNext(), is(-1L));
+    assertThat(subject.nextDeadline() - first, is(ArrivalScheduler.IDLE_STEP_NANOS));
+  }
+
+  @Test
+  public void rejectsEmptyShare() {
+    assertThrows(IllegalArgumentException.class, () ->
+        new ArrivalScheduler(TrafficShape.constant(1), ArrivalProcess.fixed(), 0));
+  }
+}
@@ -0,0 +1,134 @@
+package com.sunnylabs.tracegenerator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BackfillTest {
+  private final Instant end = Instant.parse("2020-11-01T00:00:00Z");
+  private final Instant start = end.minus(Duration.ofHours(1));
+
+  @Test
+  public void generatesPeriodOnVirtualClock() throws InterruptedException {
+    List<StubWavefrontClient> clients = new CopyOnWriteArrayList<>();
+    Backfill subject = new Backfill.Builder().
+        topology(TestTopologies.load("op: { calls: [{ name: a }] }, a: {}")).
+        senders(() -> {
+          StubWavefrontClient client = new StubWavefrontClient();
+          clients.add(client);
+          return new TraceSender(client);
+        }).
+        start(start).end(end).
+        tracesPerSecond(10).
+        workers(4).
+        build();
+
+    subject.run();
+
+    assertThat(clients, hasSize(4));
+    assertThat(subject.tracesSent(), is(allOf(greaterThanOrEqualTo(36_000L),
+        lessThanOrEqualTo(36_004L))));
+    assertThat(subject.spansSent(), is(subject.tracesSent() * 2));
+    clients.forEach(c -> c.spans.forEach(span -> {
+      assertThat(span.startTime, is(greaterThanOrEqualTo(start.toEpochMilli())));
+      assertThat(span.startTime, is(lessThan(end.plusSeconds(2).toEpochMilli())));
+    }));
+  }
+
+  @Test
+  public void followsTrafficShape() throws InterruptedException {
+    StubWavefrontClient client = new StubWavefrontClient();
+    // no traffic in the first half hour
+    long middle = start.plus(Duration.ofMinutes(30)).toEpochMilli();
+    Backfill subject = new Backfill.Builder().
+        topology(TestTopologies.load("op: {}")).
+        senders(() -> new TraceSender(client)).
+        start(start).end(end).
+        tracesPerSecond(2).
+        shape(t -> t < middle ? 0 : 2).
+        compiledPlans(true).
+        streaming(true).
+        build();
+
+    subject.run();
+
+    assertThat(subject.tracesSent(), is(allOf(greaterThanOrEqualTo(3600L),
+        lessThanOrEqualTo(3601L))));
+    client.spans.forEach(span -> assertThat(span.startTime, is(greaterThanOrEqualTo(middle))));
+  }
+
+  @Test
+  public void sendsColumnarBatches() throws InterruptedException {
+    StubWavefrontClient client = new StubWavefrontClient();
+    Backfill subject = new Backfill.Builder().
+        topology(TestTopologies.load("op: { calls: [{ name: a }] }, a: {}")).
+        senders(() -> new TraceSender(client)).
+        start(start).end(end).
+        tracesPerSecond(1).
+        compiledPlans(true).batchSpans(100).
+        build();
+
+    subject.run();
+
+    assertThat(subject.tracesSent(), is(allOf(greaterThanOrEqualTo(3600L),
+        lessThanOrEqualTo(3601L))));
+    assertThat(subject.spansSent(), is(subject.tracesSent() * 2));
+    assertThat((long) client.spans.size(), is(subject.spansSent()));
+  }
+
+  @Test
+  public void bindsEntrypointMetersOfSwappedTopology() throws InterruptedException {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    TopologyHolder holder = new TopologyHolder(TestTopologies.load("op: {}"));
+    Backfill subject = new Backfill.Builder().
+        topology(holder).
+        senders(() -> new TraceSender(new StubWavefrontClient())).
+        start(start).end(start.plusSeconds(60)).
+        tracesPerSecond(1).
+        metrics(new GeneratorMetrics(registry)).
+        build();
+
+    holder.swap(TestTopologies.loadAll("op: {}, other: {}"));
+    subject.run();
+
+    assertThat(registry.get("tracegenerator.traces").tag("entrypoint", "app.svc.other").
+        functionCounter().count(), is(greaterThan(0d)));
+  }
+
+  @Test
+  public void leavesWallClockAlone() throws InterruptedException {
+    new Backfill.Builder().topology(TestTopologies.load("op: {}")).
+        senders(() -> new TraceSender(new StubWavefrontClient())).
+        start(start).end(start.plusSeconds(1)).tracesPerSecond(1).build().run();
+
+    assertThat(TraceClock.now(), is(greaterThan(end.toEpochMilli())));
+  }
+
+  @Test
+  public void requiresPeriod() {
+    assertThrows(IllegalArgumentException.class, () -> new Backfill.Builder().
+        topology(TestTopologies.load("op: {}")).senders(() -> null).tracesPerSecond(1).
+        start(end).end(start).build());
+  }
+
+  @Test
+  public void requiresPositiveRate() {
+    assertThrows(IllegalArgumentException.class, () -> new Backfill.Builder().
+        topology(TestTopologies.load("op: {}")).senders(() -> null).
+        start(start).end(end).shape(TrafficShape.constant(1)).build());
+  }
+}
@@ -0,0 +1,116 @@
+package com.sunnylabs.tracegenerator;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+public class FakeProxyTest {
+  private static final String LINE = "\"op\" source=\"s\"" +
+      " traceId=7b3bf470-9456-11e8-9eb6-529269fb1459" +
+      " spanId=0313bafe-9457-11e8-9eb6-529269fb1459 1 2\n";
+
+  private FakeProxy subject;
+
+  @BeforeEach
+  public void start() throws IOException {
+    subject = new FakeProxy(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+    subject.start(0);
+  }
+
+  @AfterEach
+  public void stop() throws IOException {
+    subject.close();
+  }
+
+  @Test
+  public void countsSpansFromNioSender() throws IOException, InterruptedException {
+    Operation op = new Operation("op");
+    op.addCall(new Operation("a"));
+    op.addCall(new Operation("b"));
+    int sent = 0;
+    try (NioSpanSender sender = newSender()) {
+      TraceSender traceSender = new TraceSender(sender);
+      for (int i = 0; i < 100; i++) {
+        sent += traceSender.stream(op);
+      }
+      sender.flush();
+    }
+
+    assertThat(subject.awaitSpans(sent, 5, TimeUnit.SECONDS), is(true));
+    assertThat(subject.spans(), is(300L));
+    assertThat(subject.traces(), is(100L));
+    assertThat(subject.invalid(), is(0L));
+    assertThat(subject.bytes(), is(greaterThan(300L * LINE.length())));
+  }
+
+  @Test
+  public void joinsLinesSplitAcrossReads() throws IOException, InterruptedException {
+    try (Socket socket = connect()) {
+      OutputStream out = socket.getOutputStream();
+      out.write(LINE.substring(0, 20).getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      Thread.sleep(50);
+      out.write((LINE.substring(20) + LINE).getBytes(StandardCharsets.UTF_8));
+      out.flush();
+
+      assertThat(subject.awaitSpans(2, 5, TimeUnit.SECONDS), is(true));
+    }
+    assertThat(subject.invalid(), is(0L));
+  }
+
+  @Test
+  public void skipsInvalidAndOversizedLines() throws IOException, InterruptedException {
+    StringBuilder longLine = new StringBuilder("\"op\" source=\"s\"");
+    for (int i = 0; i < 100; i++) {
+      longLine.append(" \"key\"=\"value\"");
+    }
+    try (Socket socket = connect()) {
+      OutputStream out = socket.getOutputStream();
+      out.write(("garbage\n" + longLine + " 1 2\n" + LINE).getBytes(StandardCharsets.UTF_8));
+      out.flush();
+
+      assertThat(subject.awaitSpans(1, 5, TimeUnit.SECONDS), is(true));
+    }
+    assertThat(subject.invalid(), is(2L));
+    assertThat(subject.traces(), is(1L));
+  }
+
+  @Test
+  public void measuresLoadEngineEndToEnd() throws IOException, InterruptedException {
+    LoadEngine engine = new LoadEngine.Builder().
+        topology(TestTopologies.load("op: { calls: [{ name: a }] }, a: {}")).
+        senders(() -> new TraceSender(newSender())).
+        workers(2).tracesPerSecond(1000).compiledPlans(true).batchSpans(50).build();
+
+    engine.start(0);
+    Thread.sleep(200);
+    engine.stop();
+
+    assertThat(engine.spansSent(), is(greaterThan(0L)));
+    assertThat(subject.awaitSpans(engine.spansSent(), 5, TimeUnit.SECONDS), is(true));
+    assertThat(subject.spans(), is(engine.spansSent()));
+    assertThat(subject.traces(), is(engine.tracesSent()));
+  }
+
+  private NioSpanSender newSender() {
+    return new NioSpanSender(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+        subject.port()), NioSpanSender.DEFAULT_BUFFER_SIZE, 10);
+  }
+
+  private Socket connect() throws IOException {
+    return new Socket(InetAddress.getLoopbackAddress(), subject.port());
+  }
+}
@@ -0,0 +1,73 @@
+package com.sunnylabs.tracegenerator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+public class GeneratorMetricsTest {
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  GeneratorMetrics subject = new GeneratorMetrics(registry);
+
+  @Test
+  public void countsPerEntrypoint() {
+    subject.bindEntrypoints(Arrays.asList(operation("one"), operation("two")));
+
+    subject.recordTrace(0, 3, 1000);
+    subject.recordTrace(0, 3, 1000);
+    subject.recordTrace(1, 5, 1000);
+
+    assertThat(counter("tracegenerator.traces", "app.svc.one"), is(2d));
+    assertThat(counter("tracegenerator.spans", "app.svc.one"), is(6d));
+    assertThat(counter("tracegenerator.traces", "app.svc.two"), is(1d));
+    assertThat(counter("tracegenerator.spans", "app.svc.two"), is(5d));
+    assertThat(registry.get("tracegenerator.trace.spans").summary().count(), is(3L));
+    assertThat(registry.get("tracegenerator.trace.spans").summary().mean(), closeTo(11 / 3d, 0.001));
+    assertThat(registry.get("tracegenerator.generate").timer().count(), is(3L));
+  }
+
+  @Test
+  public void keepsCountsAcrossRebind() {
+    subject.bindEntrypoints(Arrays.asList(operation("one"), operation("two")));
+    subject.recordTrace(1, 2, 1000);
+
+    subject.bindEntrypoints(Collections.singletonList(operation("two")));
+    subject.recordTrace(0, 2, 1000);
+
+    assertThat(subject.traces(0), is(2L));
+    assertThat(counter("tracegenerator.traces", "app.svc.two"), is(2d));
+  }
+
+  @Test
+  public void ignoresUnknownEntrypoints() {
+    subject.recordTrace(3, 2, 1000);
+
+    assertThat(registry.get("tracegenerator.trace.spans").summary().count(), is(1L));
+  }
+
+  @Test
+  public void sendMetrics() {
+    subject.recordSend(2000);
+    subject.recordSendError();
+
+    assertThat(registry.get("tracegenerator.send").timer().count(), is(1L));
+    assertThat(registry.get("tracegenerator.send.errors").functionCounter().count(), is(1d));
+    assertThat(subject.sendErrors(), is(1L));
+  }
+
+  private double counter(String name, String entrypoint) {
+    return registry.get(name).tag("entrypoint", entrypoint).functionCounter().count();
+  }
+
+  private static Operation operation(String name) {
+    Operation op = new Operation(name);
+    op.setApplication("app");
+    op.setService("svc");
+    return op;
+  }
+}
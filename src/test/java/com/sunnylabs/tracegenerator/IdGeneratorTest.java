@@ -0,0 +1,76 @@
+package com.sunnylabs.tracegenerator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IdGeneratorTest {
+  @Test
+  public void createsRandomVersionFourIds() {
+    for (String name : new String[]{"secure", "fast", "batch", "seeded"}) {
+      IdGenerator subject = IdGenerator.named(name, 1);
+      Set<UUID> ids = new HashSet<>();
+      for (int i = 0; i < 1000; i++) {
+        UUID id = subject.nextId();
+        assertThat(name, id.version(), is(4));
+        assertThat(name, id.variant(), is(2));
+        ids.add(id);
+      }
+      assertThat(name, ids.size(), is(1000));
+    }
+  }
+
+  @Test
+  public void seededIsReproducible() {
+    assertThat(ids(new SeededIdGenerator(42), 10), is(ids(new SeededIdGenerator(42), 10)));
+    assertThat(ids(new SeededIdGenerator(42), 10), is(not(ids(new SeededIdGenerator(43), 10))));
+  }
+
+  @Test
+  public void batchRefillsAcrossBoundaries() {
+    BatchIdGenerator subject = new BatchIdGenerator(() -> new Random(5), 3);
+    List<UUID> first = ids(subject, 7);
+
+    assertThat(new HashSet<>(first).size(), is(7));
+    assertThat(ids(new BatchIdGenerator(() -> new Random(5), 3), 7), is(first));
+  }
+
+  @Test
+  public void spanBuilderUsesIdGenerator() {
+    UUID fixed = UUID.randomUUID();
+    Span span = new Span.Builder().idGenerator(() -> fixed).build();
+    assertThat(span.spanId(), is(fixed));
+  }
+
+  @Test
+  public void traceSenderUsesIdGenerator() {
+    IdGenerator seeded = new SeededIdGenerator(9);
+    TraceSender subject = new TraceSender(new StubWavefrontClient(), seeded);
+    assertThat(subject.traceId, is(ids(new SeededIdGenerator(9), 1).get(0)));
+  }
+
+  @Test
+  public void namedGenerators() {
+    assertThat(IdGenerator.named("fast", 0), is(instanceOf(FastIdGenerator.class)));
+    assertThrows(IllegalArgumentException.class, () -> IdGenerator.named("other", 0));
+  }
+
+  private List<UUID> ids(IdGenerator generator, int count) {
+    List<UUID> ids = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      ids.add(generator.nextId());
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,197 @@
+package com.sunnylabs.tracegenerator;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LoadEngineTest {
+  StubWavefrontClient mockSender = new StubWavefrontClient();
+  TraceSender traceSender = new TraceSender(mockSender);
+
+  @Test
+  public void sustainsTracesPerSecond() throws InterruptedException {
+    LoadEngine subject = new LoadEngine.Builder().topology(TestTopologies.load("op: {}")).
+        senders(() -> traceSender).tracesPerSecond(2000).build();
+
+    subject.start(0);
+    Thread.sleep(500);
+    subject.stop();
+
+    assertThat(subject.tracesSent(), is(allOf(greaterThan(700L), lessThan(1100L))));
+    assertThat(subject.spansSent(), is(subject.tracesSent()));
+    assertThat((long) mockSender.spans.size(), is(subject.spansSent()));
+  }
+
+  @Test
+  public void sustainsSpansPerSecond() throws InterruptedException {
+    LoadEngine subject = new LoadEngine.Builder().
+        topology(TestTopologies.load("op: { calls: [{ name: a }, { name: b }] }, a: {}, b: {}")).
+        senders(() -> traceSender).spansPerSecond(3000).build();
+
+    subject.start(0);
+    Thread.sleep(500);
+    subject.stop();
+
+    assertThat(subject.spansSent(), is(allOf(greaterThan(1050L), lessThan(1650L))));
+  }
+
+  @Test
+  public void followsPoissonArrivalsOnACurve() throws InterruptedException {
+    long now = System.currentTimeMillis();
+    LoadEngine subject = new LoadEngine.Builder().topology(TestTopologies.load("op: {}")).
+        senders(() -> new TraceSender(new StubWavefrontClient())).workers(2).tracesPerSecond(500).
+        shape(TrafficShape.step(500, 3000, now + 250)).arrivals(ArrivalProcess.poisson()).
+        build();
+
+    subject.start(0);
+    Thread.sleep(500);
+    subject.stop();
+
+    // about 125 traces before the step and 750 after it
+    assertThat(subject.tracesSent(), is(allOf(greaterThan(550L), lessThan(1100L))));
+    assertThat(subject.maxLagNanos(), is(greaterThanOrEqualTo(0L)));
+  }
+
+  @Test
+  public void generatesFromCompiledPlans() throws InterruptedException {
+    LoadEngine subject = new LoadEngine.Builder().
+        topology(TestTopologies.load("op: { calls: [{ name: a }, { name: b }] }, a: {}, b: {}")).
+        senders(() -> traceSender).tracesPerSecond(1000).compiledPlans(true).build();
+
+    subject.start(0);
+    Thread.sleep(100);
+    subject.stop();
+
+    assertThat(subject.tracesSent(), is(greaterThan(0L)));
+    assertThat(subject.spansSent(), is(subject.tracesSent() * 3));
+  }
+
+  @Test
+  public void streamsSpans() throws InterruptedException {
+    LoadEngine subject = new LoadEngine.Builder().
+        topology(TestTopologies.load("op: { calls: [{ name: a }, { name: b }] }, a: {}, b: {}")).
+        senders(() -> traceSender).tracesPerSecond(1000).compiledPlans(true).streaming(true).
+        build();
+
+    subject.start(0);
+    Thread.sleep(100);
+    subject.stop();
+
+    assertThat(subject.tracesSent(), is(greaterThan(0L)));
+    assertThat(subject.spansSent(), is(subject.tracesSent() * 3));
+    assertThat((long) mockSender.spans.size(), is(subject.spansSent()));
+  }
+
+  @Test
+  public void sendsColumnarBatches() throws InterruptedException {
+    LoadEngine subject = new LoadEngine.Builder().
+        topology(TestTopologies.load("op: { calls: [{ name: a }, { name: b }] }, a: {}, b: {}")).
+        senders(() -> traceSender).tracesPerSecond(1000).compiledPlans(true).batchSpans(30).
+        build();
+
+    subject.start(0);
+    Thread.sleep(100);
+    subject.stop();
+
+    assertThat(subject.tracesSent(), is(greaterThan(0L)));
+    assertThat(subject.spansSent(), is(subject.tracesSent() * 3));
+    assertThat((long) mockSender.spans.size(), is(subject.spansSent()));
+  }
+
+  @Test
+  public void countsSendErrors() throws InterruptedException {
+    mockSender.throwOnSend = true;
+    LoadEngine subject = new LoadEngine.Builder().topology(TestTopologies.load("op: {}")).
+        senders(() -> traceSender).tracesPerSecond(1000).build();
+
+    subject.start(0);
+    Thread.sleep(50);
+    subject.stop();
+
+    assertThat(subject.tracesSent(), is(0L));
+    assertThat(subject.sendErrors(), is(greaterThan(0L)));
+  }
+
+  @Test
+  public void recordsMetrics() throws InterruptedException {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    LoadEngine subject = new LoadEngine.Builder().
+        topology(TestTopologies.load("op: { calls: [{ name: a }] }, a: {}")).
+        senders(() -> traceSender).tracesPerSecond(1000).
+        metrics(new GeneratorMetrics(registry)).build();
+
+    subject.start(0);
+    Thread.sleep(100);
+    subject.stop();
+
+    assertThat(registry.get("tracegenerator.traces").functionCounters().stream().
+        mapToDouble(FunctionCounter::count).sum(), is((double) subject.tracesSent()));
+    assertThat(registry.get("tracegenerator.send").timer().count(), is(subject.tracesSent()));
+  }
+
+  @Test
+  public void requiresRate() {
+    assertThrows(IllegalArgumentException.class, () -> new LoadEngine.Builder().
+        topology(TestTopologies.load("op: {}")).senders(() -> traceSender).build());
+    assertThrows(IllegalArgumentException.class, () -> new LoadEngine.Builder().
+        topology(TestTopologies.load("op: {}")).senders(() -> traceSender).
+        shape(TrafficShape.constant(0)).build());
+    assertThrows(IllegalArgumentException.class, () -> new LoadEngine.Builder().
+        topology(TestTopologies.load("op: {}")).senders(() -> traceSender).tracesPerSecond(100).
+        workers(0).build());
+  }
+
+  @Test
+  public void sharesRateAcrossWorkers() throws InterruptedException {
+    List<StubWavefrontClient> clients = new CopyOnWriteArrayList<>();
+    LoadEngine subject = new LoadEngine.Builder().
+        topology(TestTopologies.load("op: { calls: [{ name: a }] }, a: {}")).
+        senders(() -> {
+          StubWavefrontClient client = new StubWavefrontClient();
+          clients.add(client);
+          return new TraceSender(client);
+        }).
+        workers(4).
+        tracesPerSecond(4000).
+        build();
+
+    subject.start(0);
+    Thread.sleep(500);
+    subject.stop();
+
+    assertThat(clients, hasSize(4));
+    assertThat(subject.tracesSent(), is(allOf(greaterThan(1400L), lessThan(2200L))));
+    long received = clients.stream().mapToLong(c -> c.spans.size()).sum();
+    assertThat(received, is(subject.spansSent()));
+    clients.forEach(c -> assertThat(c.spans.size(), is(greaterThan(0))));
+  }
+
+  @Test
+  public void picksUpSwappedTopology() throws InterruptedException {
+    TopologyHolder holder = new TopologyHolder(TestTopologies.load("op: {}"));
+    LoadEngine subject = new LoadEngine.Builder().topology(holder).
+        senders(() -> traceSender).tracesPerSecond(1000).build();
+
+    subject.start(0);
+    Thread.sleep(50);
+    holder.swap(TestTopologies.load("op: { calls: [{ name: a }] }, a: {}"));
+    long swappedAt = mockSender.spans.size();
+    Thread.sleep(100);
+    subject.stop();
+
+    assertThat(mockSender.spans.stream().skip(swappedAt + 10).
+        filter(s -> s.operationName.equals("a")).count(), is(greaterThan(0L)));
+  }
+}
@@ -0,0 +1,240 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.java_sdk.com.google.common.collect.ImmutableList;
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class NioSpanSenderTest {
+  private ServerSocket server;
+  private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+  private Thread listener;
+
+  @BeforeEach
+  public void listen() throws IOException {
+    listen(0);
+  }
+
+  private void listen(int port) throws IOException {
+    server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    listener = new Thread(() -> {
+      try (Socket socket = server.accept();
+           BufferedReader reader = new BufferedReader(
+               new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lines.add(line + "\n");
+        }
+      } catch (IOException ignored) {
+      }
+    });
+    listener.start();
+  }
+
+  @AfterEach
+  public void close() throws IOException, InterruptedException {
+    server.close();
+    listener.join(1000);
+  }
+
+  @Test
+  public void sendsSdkLines() throws IOException, InterruptedException {
+    List<String> expected = new ArrayList<>();
+    try (NioSpanSender subject = sender(256, 60_000)) {
+      for (int i = 0; i < 50; i++) {
+        UUID traceId = UUID.randomUUID();
+        UUID spanId = UUID.randomUUID();
+        List<UUID> parents = ImmutableList.of(UUID.randomUUID());
+        List<Pair<String, String>> tags = ImmutableList.of(
+            new Pair<>("application", "app " + i), new Pair<>("service", "svc\"" + i));
+        expected.add(Utils.tracingSpanToLineData("op" + i, i, 10, "source", traceId, spanId,
+            parents, null, tags, null, "default"));
+        subject.sendSpan("op" + i, i, 10, "source", traceId, spanId, parents, null, tags, null);
+      }
+    }
+
+    for (String line : expected) {
+      assertEquals(line, lines.poll(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void sendsTemplateSpans() throws IOException, InterruptedException {
+    Operation op = new Operation("parent");
+    op.addCall(new Operation("child"));
+    UUID traceId = UUID.randomUUID();
+    List<Span> trace = op.generateTrace(traceId);
+    try (NioSpanSender subject = sender(1024, 60_000)) {
+      for (Span span : trace) {
+        subject.send(span);
+      }
+    }
+
+    for (Span span : trace) {
+      assertEquals(Utils.tracingSpanToLineData(span.operationName, span.startTime, span.duration,
+          span.source, traceId, span.spanId(), span.parents(), span.followsFrom, span.tagList(), null,
+          "default"), lines.poll(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void sendsBatchRowsLikeSpans() throws IOException, InterruptedException {
+    TracePlan plan = TracePlan.compile(op("parent", op("child"), op("other")));
+    SpanBatch batch = new SpanBatch();
+    for (int i = 0; i < 20; i++) {
+      plan.generateTrace(UUID.randomUUID(), batch);
+    }
+    Span plain = new Span.Builder().build();
+    plain.traceId(UUID.randomUUID());
+    batch.add(plain);
+    List<Span> spans = batch.toSpans();
+    try (NioSpanSender subject = sender(256, 60_000)) {
+      subject.send(batch);
+    }
+
+    for (Span span : spans) {
+      assertEquals(Utils.tracingSpanToLineData(span.operationName, span.startTime, span.duration,
+          span.source, span.traceId(), span.spanId(), span.parents(), span.followsFrom,
+          span.tagList(), null, "default"), lines.poll(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void buffersUntilFlush() throws IOException, InterruptedException {
+    NioSpanSender subject = sender(1024, 60_000);
+    subject.sendSpan("op", 1, 2, "source", UUID.randomUUID(), UUID.randomUUID(), null, null,
+        null, null);
+    assertThat(lines.poll(100, TimeUnit.MILLISECONDS), is((String) null));
+
+    subject.flush();
+    assertThat(subject.buffered(), is(0));
+    assertThat(lines.poll(5, TimeUnit.SECONDS).startsWith("\"op\" source=\"source\""), is(true));
+    subject.close();
+  }
+
+  @Test
+  public void sendsSpansLargerThanBuffer() throws IOException, InterruptedException {
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      value.append("long value ");
+    }
+    List<Pair<String, String>> tags = ImmutableList.of(new Pair<>("key", value.toString()));
+    UUID traceId = UUID.randomUUID();
+    UUID spanId = UUID.randomUUID();
+    try (NioSpanSender subject = sender(128, 60_000)) {
+      subject.sendSpan("op", 1, 2, "source", traceId, spanId, null, null, tags, null);
+    }
+
+    assertEquals(Utils.tracingSpanToLineData("op", 1, 2, "source", traceId, spanId, null, null,
+        tags, null, "default"), lines.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void dropsInvalidSpans() throws IOException, InterruptedException {
+    try (NioSpanSender subject = sender(1024, 60_000)) {
+      assertThrows(IllegalArgumentException.class, () -> subject.sendSpan("op", 1, 2, "source",
+          UUID.randomUUID(), UUID.randomUUID(), null, null,
+          ImmutableList.of(new Pair<>("key", "value"), new Pair<>("empty", "")), null));
+      assertThat(subject.buffered(), is(0));
+      subject.sendSpan("valid", 1, 2, "source", UUID.randomUUID(), UUID.randomUUID(), null, null,
+          null, null);
+    }
+
+    assertThat(lines.poll(5, TimeUnit.SECONDS).startsWith("\"valid\""), is(true));
+  }
+
+  @Test
+  public void countsFailures() throws IOException {
+    server.close();
+    NioSpanSender subject = sender(1024, 60_000);
+    subject.sendSpan("op", 1, 2, "source", UUID.randomUUID(), UUID.randomUUID(), null, null,
+        null, null);
+
+    assertThrows(IOException.class, subject::flush);
+    assertThat(subject.getFailureCount(), is(1));
+    assertThat(subject.buffered(), is(0));
+  }
+
+  @Test
+  public void spillsWhileProxyIsDownAndReplaysInOrder(@TempDir Path directory)
+      throws IOException, InterruptedException {
+    int port = server.getLocalPort();
+    close();
+    SpillQueue spill = new SpillQueue(directory, 1024 * 1024, 64 * 1024,
+        SpillQueue.DropPolicy.DROP_OLDEST);
+    NioSpanSender subject = new NioSpanSender(new InetSocketAddress(
+        InetAddress.getLoopbackAddress(), port), 1024, 60_000, spill);
+    subject.sendSpan("first", 1, 2, "source", UUID.randomUUID(), UUID.randomUUID(), null, null,
+        null, null);
+    subject.flush();
+    subject.sendSpan("second", 1, 2, "source", UUID.randomUUID(), UUID.randomUUID(), null, null,
+        null, null);
+    // spilled right away, the proxy failed moments ago
+    subject.flush();
+    assertThat(subject.getFailureCount(), is(2));
+    assertThat(spill.isEmpty(), is(false));
+
+    listen(port);
+    Thread.sleep(600);
+    subject.sendSpan("third", 1, 2, "source", UUID.randomUUID(), UUID.randomUUID(), null, null,
+        null, null);
+    subject.close();
+
+    assertThat(lines.poll(5, TimeUnit.SECONDS).startsWith("\"first\""), is(true));
+    assertThat(lines.poll(5, TimeUnit.SECONDS).startsWith("\"second\""), is(true));
+    assertThat(lines.poll(5, TimeUnit.SECONDS).startsWith("\"third\""), is(true));
+    assertThat(spill.isEmpty(), is(true));
+    spill.close();
+  }
+
+  @Test
+  public void dropsSpansWhenSpillIsFull(@TempDir Path directory) throws IOException {
+    server.close();
+    SpillQueue spill = new SpillQueue(directory, 0, 64, SpillQueue.DropPolicy.DROP_NEWEST);
+    NioSpanSender subject = new NioSpanSender(new InetSocketAddress(
+        InetAddress.getLoopbackAddress(), server.getLocalPort()), 1024, 60_000, spill);
+    subject.sendSpan("op", 1, 2, "source", UUID.randomUUID(), UUID.randomUUID(), null, null,
+        null, null);
+
+    assertThrows(IOException.class, subject::flush);
+    assertThat(spill.droppedBytes() > 0, is(true));
+    spill.close();
+  }
+
+  private static Operation op(String name, Operation... calls) {
+    Operation op = new Operation(name);
+    for (Operation call : calls) {
+      op.addCall(call);
+    }
+    return op;
+  }
+
+  private NioSpanSender sender(int bufferSize, long maxFlushDelayMillis) {
+    return new NioSpanSender(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+        server.getLocalPort()), bufferSize, maxFlushDelayMillis);
+  }
+}
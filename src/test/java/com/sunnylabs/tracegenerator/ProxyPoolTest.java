@@ -0,0 +1,223 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.entities.tracing.WavefrontTracingSpanSender;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ProxyPoolTest {
+  private FakeProxy first;
+  private FakeProxy second;
+  private ProxyPool subject;
+
+  @BeforeEach
+  public void start() throws IOException {
+    first = proxy();
+    second = proxy();
+  }
+
+  @AfterEach
+  public void stop() throws IOException {
+    if (subject != null) {
+      subject.close();
+    }
+    first.close();
+    second.close();
+  }
+
+  @Test
+  public void parsesEndpoints() {
+    List<InetSocketAddress> result = ProxyPool.parseEndpoints(" proxy-1:2878, proxy-2 ,", 30001);
+
+    assertThat(result, contains(InetSocketAddress.createUnresolved("proxy-1", 2878),
+        InetSocketAddress.createUnresolved("proxy-2", 30001)));
+    assertThrows(IllegalArgumentException.class,
+        () -> ProxyPool.parseEndpoints("proxy:port", 30001));
+  }
+
+  @Test
+  public void spreadsSendersRoundRobin() throws IOException, InterruptedException {
+    subject = pool(1, ProxyPool.Balance.ROUND_ROBIN);
+
+    for (int i = 0; i < 4; i++) {
+      PooledSpanSender sender = subject.newSender();
+      sender.send(span());
+      sender.flush();
+    }
+
+    assertThat(first.awaitSpans(2, 5, TimeUnit.SECONDS), is(true));
+    assertThat(second.awaitSpans(2, 5, TimeUnit.SECONDS), is(true));
+    assertThat(subject.endpoints().get(0).sentSpans(), is(2L));
+  }
+
+  @Test
+  public void spreadsOneWorkerOverEveryEndpoint() throws InterruptedException {
+    List<InetSocketAddress> addresses = Arrays.asList(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), first.port()),
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), second.port()));
+    subject = new ProxyPool(addresses, 1, ProxyPool.Balance.ROUND_ROBIN, 10,
+        address -> new NioSpanSender(address, NioSpanSender.DEFAULT_BUFFER_SIZE, 60_000));
+    LoadEngine engine = new LoadEngine.Builder().
+        topology(TestTopologies.load("op: {}")).
+        senders(() -> new TraceSender(subject.newSender())).
+        workers(1).
+        tracesPerSecond(1000).
+        build();
+
+    engine.start(0);
+    Thread.sleep(200);
+    engine.stop();
+
+    assertThat(first.awaitSpans(10, 5, TimeUnit.SECONDS), is(true));
+    assertThat(second.awaitSpans(10, 5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void bindsLeastQueuedConnection() {
+    subject = pool(2, ProxyPool.Balance.LEAST_QUEUED);
+
+    Set<ProxyPool.Connection> bound = new HashSet<>();
+    for (int i = 0; i < 4; i++) {
+      bound.add(subject.acquire());
+    }
+    assertThat(bound, hasSize(4));
+
+    ProxyPool.Connection released = bound.iterator().next();
+    subject.release(released);
+    assertThat(subject.acquire(), is(released));
+  }
+
+  @Test
+  public void sendsBatchesOverOneConnection() throws IOException, InterruptedException {
+    subject = pool(1, ProxyPool.Balance.ROUND_ROBIN);
+    TracePlan plan = TracePlan.compile(new Operation("op"));
+    SpanBatch batch = new SpanBatch();
+    for (int i = 0; i < 10; i++) {
+      plan.generateTrace(UUID.randomUUID(), batch);
+    }
+
+    PooledSpanSender sender = subject.newSender();
+    sender.send(batch);
+    sender.flush();
+
+    assertThat(first.awaitSpans(10, 5, TimeUnit.SECONDS), is(true));
+    assertThat(second.spans(), is(0L));
+  }
+
+  @Test
+  public void failsOverToHealthyEndpoint() throws IOException, InterruptedException {
+    first.close();
+    subject = pool(1, ProxyPool.Balance.ROUND_ROBIN);
+    PooledSpanSender sender = subject.newSender();
+
+    sender.send(span());
+    assertThrows(IOException.class, sender::flush);
+    ProxyPool.Endpoint down = subject.endpoints().get(0);
+    assertThat(down.healthy(), is(false));
+    assertThat(down.errors(), is(1L));
+
+    for (int i = 0; i < 5; i++) {
+      sender.send(span());
+      sender.flush();
+    }
+    assertThat(second.awaitSpans(5, 5, TimeUnit.SECONDS), is(true));
+    assertThat(sender.getFailureCount(), is(1));
+  }
+
+  @Test
+  public void replaysSpansSpilledForAFailedEndpoint(@TempDir Path directory)
+      throws IOException, InterruptedException {
+    first.close();
+    try (SpillQueue spill = new SpillQueue(directory, 1024 * 1024, 64 * 1024,
+        SpillQueue.DropPolicy.DROP_OLDEST)) {
+      subject = pool(1, ProxyPool.Balance.ROUND_ROBIN, address -> new NioSpanSender(address,
+          NioSpanSender.DEFAULT_BUFFER_SIZE, 60_000, spill));
+      PooledSpanSender sender = subject.newSender();
+
+      sender.send(span());
+      sender.flush();
+      assertThat(subject.endpoints().get(0).healthy(), is(false));
+      assertThat(spill.isEmpty(), is(false));
+
+      sender.send(span());
+      sender.flush();
+      assertThat(second.awaitSpans(2, 5, TimeUnit.SECONDS), is(true));
+      assertThat(spill.isEmpty(), is(true));
+    }
+  }
+
+  @Test
+  public void usesUnhealthyEndpointsWhenNoneAreHealthy() {
+    subject = pool(1, ProxyPool.Balance.LEAST_QUEUED);
+    for (ProxyPool.Endpoint endpoint : subject.endpoints()) {
+      endpoint.failed(new IOException("expected"));
+    }
+
+    assertThat(subject.acquire().endpoint.healthy(), is(false));
+  }
+
+  @Test
+  public void reportsEndpointHealth() throws IOException {
+    subject = pool(1, ProxyPool.Balance.ROUND_ROBIN);
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    subject.bindTo(registry);
+    subject.endpoints().get(1).failed(new IOException("expected"));
+    subject.newSender().send(span());
+
+    String firstTag = subject.endpoints().get(0).toString();
+    String secondTag = subject.endpoints().get(1).toString();
+    assertThat(registry.get("tracegenerator.proxy.healthy").tag("endpoint", firstTag).gauge().
+        value(), is(1d));
+    assertThat(registry.get("tracegenerator.proxy.healthy").tag("endpoint", secondTag).gauge().
+        value(), is(0d));
+    assertThat(registry.get("tracegenerator.proxy.sent.spans").tag("endpoint", firstTag).
+        functionCounter().count(), is(1d));
+  }
+
+  private ProxyPool pool(int connectionsPerEndpoint, ProxyPool.Balance balance) {
+    return pool(connectionsPerEndpoint, balance,
+        address -> new NioSpanSender(address, NioSpanSender.DEFAULT_BUFFER_SIZE, 60_000));
+  }
+
+  private ProxyPool pool(int connectionsPerEndpoint, ProxyPool.Balance balance,
+                         Function<InetSocketAddress, WavefrontTracingSpanSender> connector) {
+    List<InetSocketAddress> addresses = Arrays.asList(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), first.port()),
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), second.port()));
+    return new ProxyPool(addresses, connectionsPerEndpoint, balance, connector);
+  }
+
+  private static Span span() {
+    Span span = new Operation("op").template().newSpan(1, 2, false);
+    span.traceId(UUID.randomUUID());
+    Span.idGenerator().nextId(span);
+    return span;
+  }
+
+  private static FakeProxy proxy() throws IOException {
+    FakeProxy proxy = new FakeProxy(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+        FakeProxy.DEFAULT_READ_BUFFER_SIZE);
+    proxy.start(0);
+    return proxy;
+  }
+}
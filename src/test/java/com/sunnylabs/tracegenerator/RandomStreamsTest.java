@@ -0,0 +1,102 @@
+package com.sunnylabs.tracegenerator;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class RandomStreamsTest {
+  @AfterEach
+  public void unbind() {
+    RandomStreams.unbind();
+  }
+
+  @Test
+  public void splitIsReproducible() {
+    assertThat(RandomStreams.split(1, 2).nextLong(), is(RandomStreams.split(1, 2).nextLong()));
+    assertThat(RandomStreams.split(1, 2).nextLong(), is(not(RandomStreams.split(1, 3).nextLong())));
+    assertThat(RandomStreams.split(1, 2).nextLong(), is(not(RandomStreams.split(2, 2).nextLong())));
+  }
+
+  @Test
+  public void bindsPerThread() throws ExecutionException, InterruptedException {
+    SplitMixRandom random = new SplitMixRandom(1);
+    RandomStreams.bind(random);
+    assertThat(RandomStreams.current(), is(sameInstance(random)));
+    assertThat(CompletableFuture.supplyAsync(RandomStreams::current).get(),
+        is(not(sameInstance(random))));
+  }
+
+  @Test
+  public void seededTopologyIsReproducible() {
+    assertThat(describeRandomTopology(11), is(describeRandomTopology(11)));
+  }
+
+  @Test
+  public void seededTracesAreReproducibleAcrossThreads() throws ExecutionException,
+      InterruptedException {
+    Topology topology = new Topology(1, 1, 1, 1);
+    topology.load(new ByteArrayInputStream(("applications: { app: { services: { svc: { " +
+        "operations: { " +
+        "op1: { errorChance: 50, calls: [{ name: op2 }, { name: op3 }] }, " +
+        "op2: { errorChance: 50, calls: [{ name: op3 }] }, " +
+        "op3: { errorChance: 50 } } } } } }").getBytes()));
+    Span.setIdGenerator(new FastIdGenerator());
+
+    CompletableFuture<List<String>> first = CompletableFuture.supplyAsync(() -> traces(topology, 5));
+    CompletableFuture<List<String>> second = CompletableFuture.supplyAsync(() -> traces(topology, 5));
+    CompletableFuture<List<String>> other = CompletableFuture.supplyAsync(() -> traces(topology, 6));
+
+    assertThat(first.get(), is(second.get()));
+    assertThat(first.get(), is(not(other.get())));
+  }
+
+  private List<String> traces(Topology topology, int stream) {
+    RandomStreams.bind(RandomStreams.split(3, stream));
+    try {
+      List<String> result = new ArrayList<>();
+      for (int i = 0; i < 50; i++) {
+        Operation op = topology.randomEntrypoint(RandomStreams.current());
+        TraceSender sender = new TraceSender(new StubWavefrontClient());
+        List<Span> trace = op.generateTrace(sender.traceId);
+        // start times follow the wall clock, everything else must match
+        for (Span span : trace) {
+          result.add(String.join(",", span.traceId().toString(), span.spanId().toString(),
+              span.operationName, String.valueOf(span.duration), span.tagList().toString()));
+        }
+      }
+      return result;
+    } finally {
+      RandomStreams.unbind();
+    }
+  }
+
+  private String describeRandomTopology(long seed) {
+    Topology topology = new Topology(3, 4, 3, 2, RandomStreams.split(seed, 0));
+    try {
+      topology.load(new ByteArrayInputStream(new byte[0]));
+    } catch (IllegalArgumentException e) {
+      // a random call graph may contain a loop, which must then be the same loop every time
+      return e.getMessage();
+    }
+    TreeMap<String, String> description = new TreeMap<>();
+    topology.applications().forEach(a -> a.getServices().values().forEach(s ->
+        s.getOperations().values().forEach(o -> {
+          List<String> calls = new ArrayList<>();
+          o.getCalls().forEach(c -> calls.add(c.getApplication() + "." + c.getService() + "." +
+              c.getName()));
+          description.put(a.getName() + "." + s.getName() + "." + o.getName(), calls.toString());
+        })));
+    return description.toString();
+  }
+}
@@ -0,0 +1,77 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.java_sdk.com.google.common.collect.ImmutableList;
+import com.wavefront.java_sdk.com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.aMapWithSize;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class RandomTopologyBuilderTest {
+  private final Map<String, List<String>> words = ImmutableMap.of(
+      "applications", ImmutableList.of("Bart", "Lisa"),
+      "services", ImmutableList.of("KwikEMart"),
+      "operations", ImmutableList.of("buy", "sell", "steal"));
+
+  @Test
+  public void addsSuffixesWhenWordsRunOut() {
+    Map<String, Application> apps = new RandomTopologyBuilder(new Random(1), words).
+        applications(5).servicesPerApp(2).operationsPerService(4).build();
+
+    assertThat(apps.keySet(), hasItems("Bart", "Lisa", "Bart-2", "Lisa-2"));
+    assertThat(apps, aMapWithSize(5));
+    Application app = apps.get("Bart");
+    assertThat(app.getServices().keySet(), hasItems("KwikEMart", "KwikEMart-2"));
+    Service service = app.getService("KwikEMart");
+    assertThat(service.getOperations(), aMapWithSize(4));
+    assertThat(service.getOperation("buy").getService(), is("KwikEMart"));
+    assertThat(service.getOperation("buy").getApplication(), is("Bart"));
+  }
+
+  @Test
+  public void sameSeedSameTopology() {
+    assertThat(describe(new RandomTopologyBuilder(new Random(7), words).build()),
+        is(describe(new RandomTopologyBuilder(new Random(7), words).build())));
+  }
+
+  @Test
+  public void largeTopologiesHaveNoCycles() {
+    long start = System.nanoTime();
+    Topology subject = new Topology(20, 50, 100, 20, new Random(3));
+    subject.load(new ByteArrayInputStream(new byte[0]));
+
+    assertThat(subject.applications(), hasSize(20));
+    assertThat(subject.entrypoints(), hasSize(100_000));
+    assertThat(System.nanoTime() - start, is(lessThan(TimeUnit.SECONDS.toNanos(10))));
+  }
+
+  @Test
+  public void randomTopologiesAlwaysLoad() {
+    for (long seed = 0; seed < 200; seed++) {
+      Topology subject = new Topology(10, 3, 3, 3, new Random(seed));
+      subject.load(new ByteArrayInputStream(new byte[0]));
+      assertThat(subject.applications(), hasSize(10));
+    }
+  }
+
+  private static Set<String> describe(Map<String, Application> apps) {
+    Set<String> calls = new HashSet<>();
+    apps.values().forEach(a -> a.getServices().values().forEach(s ->
+        s.getOperations().values().forEach(o -> o.getCalls().forEach(c ->
+            calls.add(a.getName() + "." + s.getName() + "." + o.getName() + " -> " +
+                c.getApplication() + "." + c.getService() + "." + c.getName())))));
+    return calls;
+  }
+}
@@ -0,0 +1,57 @@
+package com.sunnylabs.tracegenerator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RatePacerTest {
+  @Test
+  public void deadlinesFollowPermitsIssued() {
+    RatePacer subject = new RatePacer(1000);
+    subject.start();
+    long first = subject.nextDeadline();
+
+    subject.advance(1);
+    assertThat(subject.nextDeadline() - first, is(1_000_000L));
+
+    subject.advance(9);
+    assertThat(subject.nextDeadline() - first, is(10_000_000L));
+  }
+
+  @Test
+  public void waitsUntilDeadline() {
+    RatePacer subject = new RatePacer(100);
+    subject.start();
+    subject.advance(1);
+    long deadline = subject.nextDeadline();
+
+    long late = subject.awaitNext();
+
+    assertThat(System.nanoTime(), greaterThanOrEqualTo(deadline));
+    assertThat(late, greaterThanOrEqualTo(0L));
+    assertThat(late, lessThan(5_000_000L));
+  }
+
+  @Test
+  public void catchesUpWithoutWaiting() throws InterruptedException {
+    RatePacer subject = new RatePacer(1000);
+    subject.start();
+    Thread.sleep(20);
+
+    long begin = System.nanoTime();
+    for (int i = 0; i < 10; i++) {
+      subject.awaitNext();
+      subject.advance(1);
+    }
+    assertThat(System.nanoTime() - begin, lessThan(5_000_000L));
+  }
+
+  @Test
+  public void rejectsNonPositiveRate() {
+    assertThrows(IllegalArgumentException.class, () -> new RatePacer(0));
+  }
+}
@@ -4,10 +4,13 @@ import com.wavefront.java_sdk.com.google.common.collect.ImmutableMap;
 import com.wavefront.sdk.common.Pair;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 
@@ -23,7 +26,7 @@ public class ServiceTest {
     UUID traceId = UUID.randomUUID();
     List<Span> result = subject.generateTrace(traceId, "one");
     assertThat(result, hasSize(1));
-    assertThat(result.get(0).traceId, is(traceId));
+    assertThat(result.get(0).traceId(), is(traceId));
     assertThat(result.get(0).operationName, is("one"));
   }
 
@@ -66,9 +69,28 @@ public class ServiceTest {
 
     assertThat(result, hasSize(2));
     assertThat(result.get(0).operationName, is("one"));
-    assertThat(serviceName(result.get(0).tags), is("testService"));
+    assertThat(serviceName(result.get(0).tagList()), is("testService"));
     assertThat(result.get(1).operationName, is("two"));
-    assertThat(serviceName(result.get(1).tags), is("otherService"));
+    assertThat(serviceName(result.get(1).tagList()), is("otherService"));
+  }
+
+  @Test
+  public void streamsSpansWithBaseLatency() throws IOException {
+    Operation op1 = new Operation("one");
+    op1.addCall(new Operation("two"));
+    Service subject = new Service.Builder().
+        name("testService").
+        operations(ImmutableMap.of(op1.getName(), op1)).
+        build();
+    subject.setBaseLatency(5000);
+    List<Span> result = new ArrayList<>();
+
+    int count = subject.generateTrace(UUID.randomUUID(), result::add);
+
+    assertThat(count, is(2));
+    assertThat(result.get(0).operationName, is("one"));
+    assertThat(result.get(1).operationName, is("two"));
+    assertThat(result.get(1).duration, is(greaterThanOrEqualTo(5000L)));
   }
 
   private String serviceName(List<Pair<String, String>> tags) {
@@ -0,0 +1,131 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.entities.tracing.SpanLog;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SpanBatchTest {
+  @Test
+  public void storesPlanTracesAsRows() {
+    TracePlan plan = TracePlan.compile(tree());
+    SpanBatch subject = new SpanBatch();
+    UUID first = UUID.randomUUID();
+    UUID second = UUID.randomUUID();
+
+    assertThat(plan.generateTrace(first, subject), is(3));
+    subject.endTrace();
+    assertThat(plan.generateTrace(second, subject), is(3));
+    subject.endTrace();
+
+    assertThat(subject.rows(), is(6));
+    assertThat(subject.size(), is(6));
+    assertThat(subject.traces(), is(2));
+    List<Span> spans = subject.toSpans();
+    assertThat(spans.get(0).traceId(), is(first));
+    assertThat(spans.get(3).traceId(), is(second));
+    assertThat(spans.get(0).parents(), is(nullValue()));
+    assertThat(spans.get(1).parents(), contains(spans.get(0).spanId()));
+    assertThat(spans.get(2).parents(), contains(spans.get(0).spanId()));
+    assertThat(spans.get(4).parents(), contains(spans.get(3).spanId()));
+    assertThat(spans.get(1).operationName, is("child"));
+  }
+
+  @Test
+  public void recursiveGeneratorFillsRows() {
+    Operation root = tree();
+    SpanBatch subject = new SpanBatch();
+    UUID traceId = UUID.randomUUID();
+
+    assertThat(root.generateTrace(traceId, subject), is(3));
+
+    List<Span> spans = subject.toSpans();
+    assertThat(subject.rows(), is(3));
+    assertThat(spans.get(0).operationName, is("root"));
+    assertThat(spans.get(1).traceId(), is(traceId));
+    assertThat(spans.get(2).parents(), contains(spans.get(0).spanId()));
+  }
+
+  @Test
+  public void growsPastCapacity() {
+    TracePlan plan = TracePlan.compile(tree());
+    SpanBatch subject = new SpanBatch(2);
+
+    for (int i = 0; i < 100; i++) {
+      plan.generateTrace(UUID.randomUUID(), subject);
+      subject.endTrace();
+    }
+
+    assertThat(subject.rows(), is(300));
+    List<Span> spans = subject.toSpans();
+    assertThat(spans.get(298).parents(), contains(spans.get(297).spanId()));
+  }
+
+  @Test
+  public void keepsSpansWithoutTemplateAsObjects() {
+    SpanBatch subject = new SpanBatch();
+    Span plain = new Span.Builder().build();
+    Span logged = new Operation("op").template().newSpan(1, 2, false);
+    logged.spanLogs = Collections.singletonList(new SpanLog(1, Collections.emptyMap()));
+    Span fromTemplate = new Operation("op").template().newSpan(1, 2, true);
+
+    subject.add(plain);
+    subject.add(logged);
+    subject.add(fromTemplate);
+
+    assertThat(subject.rows(), is(1));
+    assertThat(subject.others(), contains(plain, logged));
+    assertThat(subject.error(0), is(true));
+    assertThat(subject.toSpans(), hasSize(3));
+  }
+
+  @Test
+  public void clearKeepsNothing() {
+    SpanBatch subject = new SpanBatch();
+    TracePlan.compile(tree()).generateTrace(UUID.randomUUID(), subject);
+    subject.add(new Span.Builder().build());
+    subject.endTrace();
+
+    subject.clear();
+
+    assertThat(subject.size(), is(0));
+    assertThat(subject.traces(), is(0));
+    assertThat(subject.others(), hasSize(0));
+  }
+
+  @Test
+  public void encodesRowsLikeSpans() {
+    TracePlan plan = TracePlan.compile(tree());
+    SpanBatch subject = new SpanBatch();
+    plan.generateTrace(UUID.randomUUID(), subject);
+
+    for (int row = 0; row < subject.rows(); row++) {
+      SpanTemplate template = subject.template(row);
+      Span span = subject.span(row);
+      ByteBuffer fromRow = ByteBuffer.allocate(template.maxEncodedLength());
+      ByteBuffer fromSpan = ByteBuffer.allocate(template.maxEncodedLength(span));
+      template.encode(fromRow, subject, row);
+      template.encode(fromSpan, span);
+      fromRow.flip();
+      fromSpan.flip();
+      assertEquals(fromSpan, fromRow);
+    }
+  }
+
+  private static Operation tree() {
+    Operation root = new Operation("root");
+    root.addCall(new Operation("child"));
+    root.addCall(new Operation("other"));
+    return root;
+  }
+}
@@ -0,0 +1,94 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.java_sdk.com.google.common.collect.ImmutableList;
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.Utils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SpanLineEncoderTest {
+  private final UUID traceId = UUID.randomUUID();
+  private final UUID spanId = UUID.randomUUID();
+
+  @Test
+  public void matchesSdk() {
+    assertMatchesSdk("op", "source", null, null, ImmutableList.of(new Pair<>("key", "value")));
+  }
+
+  @Test
+  public void matchesSdkWithParents() {
+    assertMatchesSdk("op", "source", ImmutableList.of(UUID.randomUUID(), UUID.randomUUID()),
+        ImmutableList.of(UUID.randomUUID()), ImmutableList.of(new Pair<>("error", "true")));
+  }
+
+  @Test
+  public void matchesSdkEscaping() {
+    assertMatchesSdk("  get \"quoted\"\nname ", "host/name with spaces",
+        null, null, ImmutableList.of(
+            new Pair<>("∆delta", "ünïcödé ✓ 😀"),
+            new Pair<>("~internal", " \"a\"\n"),
+            new Pair<>("bad key∆", "broken \uD800 surrogate"),
+            new Pair<>("http.url", "/path,with-allowed_chars.0")));
+  }
+
+  @Test
+  public void writesLongs() {
+    for (long value : new long[]{0, 7, 10, 1234567890123L, -42, Long.MAX_VALUE, Long.MIN_VALUE}) {
+      ByteBuffer buffer = ByteBuffer.allocate(32);
+      SpanLineEncoder.writeLong(buffer, value);
+      assertEquals(Long.toString(value), decode(buffer));
+    }
+  }
+
+  @Test
+  public void writesUuids() {
+    for (int i = 0; i < 100; i++) {
+      UUID uuid = new UUID(RandomStreams.current().nextLong(), RandomStreams.current().nextLong());
+      ByteBuffer buffer = ByteBuffer.allocate(36);
+      SpanLineEncoder.writeUuid(buffer, uuid);
+      assertEquals(uuid.toString(), decode(buffer));
+    }
+  }
+
+  @Test
+  public void rejectsBlankTags() {
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    assertThrows(IllegalArgumentException.class, () -> SpanLineEncoder.encode(buffer, "op", 1, 2,
+        "source", traceId, spanId, null, null, ImmutableList.of(new Pair<>("key", ""))));
+    assertThrows(IllegalArgumentException.class, () -> SpanLineEncoder.encode(buffer, "", 1, 2,
+        "source", traceId, spanId, null, null, null));
+  }
+
+  private void assertMatchesSdk(String name, String source, List<UUID> parents,
+                                List<UUID> followsFrom, List<Pair<String, String>> tags) {
+    String expected = Utils.tracingSpanToLineData(name, 1600000000000L, 345, source, traceId,
+        spanId, parents, followsFrom, tags, null, "default");
+    int maxLength = SpanLineEncoder.maxEncodedLength(name, source, parents, followsFrom, tags);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(maxLength);
+
+    SpanLineEncoder.encode(buffer, name, 1600000000000L, 345, source, traceId, spanId, parents,
+        followsFrom, tags);
+
+    assertThat(buffer.position(), lessThanOrEqualTo(maxLength));
+    // compare what goes on the wire, unpaired surrogates become ?
+    assertThat(decode(buffer), is(new String(expected.getBytes(StandardCharsets.UTF_8),
+        StandardCharsets.UTF_8)));
+  }
+
+  private static String decode(ByteBuffer buffer) {
+    buffer.flip();
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,75 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.java_sdk.com.google.common.collect.ImmutableList;
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.Utils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class SpanLineParserTest {
+  private static final String IDS = " traceId=7b3bf470-9456-11e8-9eb6-529269fb1459" +
+      " spanId=0313bafe-9457-11e8-9eb6-529269fb1459";
+
+  @Test
+  public void acceptsSdkLines() {
+    UUID parent = UUID.randomUUID();
+    assertThat(parse(Utils.tracingSpanToLineData("get \"order\"", 1600000000000L, 12, "host-1",
+        UUID.randomUUID(), UUID.randomUUID(), null, null,
+        ImmutableList.of(new Pair<>("application", "app"), new Pair<>("note", "a \"b\"\nc")),
+        null, "default")), is(0));
+    assertThat(parse(Utils.tracingSpanToLineData("op", 1, 2, "source", UUID.randomUUID(),
+        UUID.randomUUID(), ImmutableList.of(parent, UUID.randomUUID()),
+        ImmutableList.of(UUID.randomUUID()), null, null, "default")), is(2));
+  }
+
+  @Test
+  public void acceptsTemplateLines() {
+    Operation op = new Operation("op");
+    op.addCall(new Operation("child"));
+    for (Span span : op.generateTrace(UUID.randomUUID())) {
+      ByteBuffer buffer = ByteBuffer.allocate(span.template.maxEncodedLength(span));
+      span.template.encode(buffer, span);
+
+      assertThat(SpanLineParser.parse(buffer, 0, buffer.position() - 1),
+          is(span.parentCount()));
+    }
+  }
+
+  @Test
+  public void rejectsMalformedLines() {
+    assertThat(parse("\"op\" source=\"s\"" + IDS + " 1 2\n"), is(0));
+    assertThat(parse("op source=\"s\"" + IDS + " 1 2\n"), is(SpanLineParser.INVALID));
+    assertThat(parse("\"\" source=\"s\"" + IDS + " 1 2\n"), is(SpanLineParser.INVALID));
+    assertThat(parse("\"op\" source=\"s\" spanId=0313bafe-9457-11e8-9eb6-529269fb1459 1 2\n"),
+        is(SpanLineParser.INVALID));
+    assertThat(parse("\"op\" source=\"s\" traceId=7b3bf470 spanId=0313bafe 1 2\n"),
+        is(SpanLineParser.INVALID));
+    assertThat(parse("\"op\" source=\"s\"" + IDS + " \"k\"=\"\" 1 2\n"),
+        is(SpanLineParser.INVALID));
+    assertThat(parse("\"op\" source=\"s\"" + IDS + " \"k\"=\"v 1 2\n"),
+        is(SpanLineParser.INVALID));
+    assertThat(parse("\"op\" source=\"s\"" + IDS + " 1\n"), is(SpanLineParser.INVALID));
+    assertThat(parse("\"op\" source=\"s\"" + IDS + " 1 2x\n"), is(SpanLineParser.INVALID));
+    assertThat(parse("\n"), is(SpanLineParser.INVALID));
+  }
+
+  @Test
+  public void readsOnlyTheGivenRange() {
+    String line = "\"op\" source=\"s\"" + IDS + " 1 2";
+    ByteBuffer buffer = ByteBuffer.wrap(("junk" + line + "junk").getBytes(StandardCharsets.UTF_8));
+
+    assertThat(SpanLineParser.parse(buffer, 4, 4 + line.length()), is(0));
+    assertThat(buffer.position(), is(0));
+  }
+
+  private static int parse(String line) {
+    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+    return SpanLineParser.parse(ByteBuffer.wrap(bytes), 0, bytes.length - 1);
+  }
+}
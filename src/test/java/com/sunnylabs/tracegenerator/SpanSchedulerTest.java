@@ -0,0 +1,86 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+public class SpanSchedulerTest {
+  private final List<String> sent = new CopyOnWriteArrayList<>();
+  private final List<Long> sentAt = new CopyOnWriteArrayList<>();
+  private final StubWavefrontClient client = new StubWavefrontClient() {
+    @Override
+    public void sendSpan(String name, long startMillis, long durationMillis, String source,
+                         UUID traceId, UUID spanId, List<UUID> parents, List<UUID> followsFrom,
+                         List<Pair<String, String>> tags, List<SpanLog> spanLogs)
+        throws IOException {
+      sent.add(name);
+      sentAt.add(System.currentTimeMillis() - (startMillis + durationMillis));
+    }
+  };
+
+  @Test
+  public void sendsSpansWhenTheyComplete() throws InterruptedException {
+    SpanScheduler subject = new SpanScheduler(5, 64);
+    subject.start(client);
+    long now = System.currentTimeMillis();
+    RealtimeTraceSender sender = new RealtimeTraceSender(subject);
+
+    sender.send(new ArrayList<>(List.of(
+        span("slow", now, 300),
+        span("fast", now, 50))));
+    Thread.sleep(150);
+    assertThat(sent, contains("fast"));
+    subject.stop();
+
+    assertThat(sent, contains("fast", "slow"));
+    sentAt.forEach(lag -> assertThat(lag, is(greaterThanOrEqualTo(0L))));
+    assertThat(subject.sentSpans(), is(2L));
+    assertThat(subject.pending(), is(0));
+  }
+
+  @Test
+  public void interleavesTraces() throws InterruptedException {
+    SpanScheduler subject = new SpanScheduler(5, 64);
+    subject.start(client);
+    long now = System.currentTimeMillis();
+    RealtimeTraceSender sender = new RealtimeTraceSender(subject);
+
+    sender.send(new ArrayList<>(List.of(span("a1", now, 20), span("a2", now, 200))));
+    sender.send(new ArrayList<>(List.of(span("b1", now, 100))));
+    subject.stop();
+
+    assertThat(sent, contains("a1", "b1", "a2"));
+  }
+
+  @Test
+  public void sendsGeneratedTraces() throws InterruptedException {
+    SpanScheduler subject = new SpanScheduler();
+    subject.start(client);
+    Operation op = new Operation("op");
+    op.addCall(new Operation("child"));
+    RealtimeTraceSender sender = new RealtimeTraceSender(subject);
+
+    for (int i = 0; i < 10; i++) {
+      sender.stream(op);
+    }
+    subject.stop();
+
+    assertThat(sent, hasSize(20));
+  }
+
+  private static Span span(String name, long start, long duration) {
+    return new Span.Builder(name, start, duration, "source").build();
+  }
+}
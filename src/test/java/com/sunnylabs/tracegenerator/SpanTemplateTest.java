@@ -0,0 +1,122 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.java_sdk.com.google.common.collect.ImmutableMap;
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.Utils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SpanTemplateTest {
+  @Test
+  public void resolvesTags() {
+    Operation op = operation();
+    SpanTemplate subject = new SpanTemplate(op, ImmutableMap.of("region", "us-west"));
+
+    Span span = subject.newSpan(UUID.randomUUID(), UUID.randomUUID(), null, 1, 2, false);
+
+    assertThat(span.operationName, is("get \"order\""));
+    assertThat(span.source, is("trace-generator"));
+    assertThat(span.tagList(), contains(
+        new Pair<>("custom", "value"),
+        new Pair<>("application", "app"),
+        new Pair<>("cluster", "cluster"),
+        new Pair<>("service", "svc"),
+        new Pair<>("shard", "shard"),
+        new Pair<>("region", "us-west")));
+  }
+
+  @Test
+  public void encodesLikeSdk() {
+    SpanTemplate subject = new SpanTemplate(operation(), ImmutableMap.of("region", "us west"));
+    UUID traceId = UUID.randomUUID();
+    for (boolean error : new boolean[]{false, true}) {
+      Span span = subject.newSpan(traceId, UUID.randomUUID(),
+          Collections.singletonList(UUID.randomUUID()), 1600000000000L, 123, error);
+      ByteBuffer buffer = ByteBuffer.allocate(subject.maxEncodedLength(span));
+
+      subject.encode(buffer, span);
+
+      assertEquals(Utils.tracingSpanToLineData(span.operationName, span.startTime, span.duration,
+          span.source, traceId, span.spanId(), span.parents(), span.followsFrom, span.tagList(), null,
+          "default"), decode(buffer));
+    }
+  }
+
+  @Test
+  public void errorSpans() {
+    SpanTemplate subject = new SpanTemplate(operation(), null);
+
+    Span span = subject.newSpan(UUID.randomUUID(), UUID.randomUUID(), null, 1, 2, true);
+
+    assertThat(span.tagList(), hasItem(new Pair<>("error", "true")));
+    assertThat(subject.tags(), not(hasItem(new Pair<>("error", "true"))));
+    assertThat(subject.matches(span), is(true));
+  }
+
+  @Test
+  public void changedSpansDoNotMatch() {
+    SpanTemplate subject = new SpanTemplate(operation(), null);
+    Span span = subject.newSpan(UUID.randomUUID(), UUID.randomUUID(), null, 1, 2, false);
+
+    span.tags = span.tags.clone();
+
+    assertThat(subject.matches(span), is(false));
+  }
+
+  @Test
+  public void serviceTagsAddedToOperations() {
+    Topology topology = new Topology(0, 0, 0, 0);
+    topology.load(new ByteArrayInputStream(("applications:\n" +
+        "  app:\n" +
+        "    services:\n" +
+        "      svc:\n" +
+        "        tags:\n" +
+        "          region: us-west\n" +
+        "        operations:\n" +
+        "          op: {}\n").getBytes(StandardCharsets.UTF_8)));
+    Operation op = topology.getApplication("app").getService("svc").getOperation("op");
+
+    Span span = op.generateTrace(UUID.randomUUID()).get(0);
+
+    assertThat(span.tagList(), hasItem(new Pair<>("region", "us-west")));
+    assertThat(span.template, sameInstance(op.template()));
+  }
+
+  @Test
+  public void reloadRebuildsTemplates() {
+    Operation op = operation();
+    SpanTemplate first = op.template();
+    op.getTags().put("added", "later");
+
+    SpanTemplate second = op.buildTemplate();
+
+    assertThat(second, not(sameInstance(first)));
+    assertThat(op.template(), sameInstance(second));
+    assertThat(second.tags(), hasItem(new Pair<>("added", "later")));
+  }
+
+  private static Operation operation() {
+    Operation op = new Operation("get \"order\"");
+    op.setApplication("app");
+    op.setService("svc");
+    op.getTags().put("custom", "value");
+    return op;
+  }
+
+  private static String decode(ByteBuffer buffer) {
+    return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,115 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.java_sdk.com.google.common.collect.ImmutableList;
+import com.wavefront.sdk.common.Pair;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class SpanTest {
+  @Test
+  public void idsRoundTrip() {
+    UUID traceId = UUID.randomUUID();
+    UUID spanId = UUID.randomUUID();
+    List<UUID> parents = ImmutableList.of(UUID.randomUUID(), UUID.randomUUID());
+    Span subject = new Span("op", 1, 2, "source", traceId, spanId, parents, null, null, null);
+
+    assertThat(subject.traceId(), is(traceId));
+    assertThat(subject.spanId(), is(spanId));
+    assertThat(subject.parents(), is(parents));
+    assertThat(subject.parentCount(), is(2));
+  }
+
+  @Test
+  public void rootSpanHasNoParents() {
+    Span subject = new Span.Builder().build();
+
+    assertThat(subject.hasParent(), is(false));
+    assertThat(subject.parents(), is(nullValue()));
+    assertThat(subject.parentCount(), is(0));
+    assertThat(subject.traceId(), is(nullValue()));
+  }
+
+  @Test
+  public void storesSingleParentInline() {
+    Span parent = new Span.Builder().build();
+    Span subject = new Span.Builder().build();
+
+    subject.parent(parent);
+
+    assertThat(subject.moreParents, is(nullValue()));
+    assertThat(subject.parents(), contains(parent.spanId()));
+  }
+
+  @Test
+  public void allocatesLogsLazily() {
+    Span subject = new Span.Builder().build();
+
+    assertThat(subject.spanLogs, is(nullValue()));
+    assertThat(subject.spanLogs(), is(empty()));
+  }
+
+  @Test
+  public void builderStoresTagsAsArray() {
+    Span subject = new Span.Builder("op", 1, 2, "source").
+        setIdentityTags("app", "cluster", "svc", "shard").
+        addTag("k", "v").
+        build();
+
+    assertThat(subject.tags, is(new String[]{"k", "v", "application", "app", "cluster",
+        "cluster", "service", "svc", "shard", "shard"}));
+    assertThat(subject.tagList().get(0), is(new Pair<>("k", "v")));
+  }
+
+  @Test
+  public void looksUpTagValues() {
+    Span built = new Span.Builder().addTag("k", "v").addTag("service", "svc").build();
+    Span fromTemplate = new Operation("op").template().newSpan(1, 2, true);
+
+    assertThat(built.tagValue("k"), is("v"));
+    assertThat(built.tagValue("service"), is("svc"));
+    assertThat(built.tagValue("missing"), is(nullValue()));
+    assertThat(fromTemplate.tagValue("error"), is("true"));
+    assertThat(fromTemplate.tagValue("cluster"), is("cluster"));
+    assertThat(fromTemplate.tagValue("missing"), is(nullValue()));
+  }
+
+  @Test
+  public void explicitIdentityTagsAreNotDuplicated() {
+    Span subject = new Span.Builder().addTag("service", "svc").addTag("shard", "s1").build();
+
+    assertThat(subject.tags, is(new String[]{"service", "svc", "shard", "s1", "application",
+        "application", "cluster", "cluster"}));
+  }
+
+  @Test
+  public void buildingAgainGivesTheSameTags() {
+    Span.Builder builder = new Span.Builder().addTag("key", "value").errorChance(50);
+    Span first = builder.build();
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(builder.build().tagList(), is(first.tagList()));
+    }
+    assertThat(builder.tagCount, is(1));
+  }
+
+  @Test
+  public void templateSpansShareTags() {
+    Operation op = new Operation("op");
+    Span first = op.template().newSpan(1, 2, false);
+    Span second = op.template().newSpan(3, 4, false);
+    Span error = op.template().newSpan(3, 4, true);
+
+    assertThat(second.tags, is(sameInstance(first.tags)));
+    assertThat(second.tagList(), is(sameInstance(first.tagList())));
+    assertThat(error.tags.length, is(first.tags.length + 2));
+  }
+}
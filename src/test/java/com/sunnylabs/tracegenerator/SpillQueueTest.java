@@ -0,0 +1,145 @@
+package com.sunnylabs.tracegenerator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SpillQueueTest {
+  @TempDir
+  Path directory;
+
+  @Test
+  public void replaysRecordsInOrder() throws IOException {
+    try (SpillQueue subject = queue(1024, 4096, SpillQueue.DropPolicy.DROP_OLDEST)) {
+      assertThat(subject.offer(bytes("first\n")), is(true));
+      assertThat(subject.offer(bytes("second\nthird\n")), is(true));
+      assertThat(subject.queuedBytes(), is(19L));
+
+      assertThat(replay(subject), contains("first\n", "second\nthird\n"));
+      assertThat(subject.isEmpty(), is(true));
+      assertThat(subject.replayedBytes(), is(19L));
+      assertThat(replay(subject), is(empty()));
+    }
+  }
+
+  @Test
+  public void keepsRecordsTheSinkFailedToWrite() throws IOException {
+    try (SpillQueue subject = queue(1024, 4096, SpillQueue.DropPolicy.DROP_OLDEST)) {
+      subject.offer(bytes("first\n"));
+      subject.offer(bytes("second\n"));
+      List<String> written = new ArrayList<>();
+
+      assertThrows(IOException.class, () -> subject.replay(records -> {
+        written.add(string(records));
+        if (written.size() == 2) {
+          throw new IOException("expected");
+        }
+      }));
+      assertThat(written, contains("first\n", "second\n"));
+      assertThat(replay(subject), contains("second\n"));
+    }
+  }
+
+  @Test
+  public void dropsOldestSegmentWhenFull() throws IOException {
+    // each 30 byte record fills a 64 byte segment, and there are two segments
+    try (SpillQueue subject = queue(64, 128, SpillQueue.DropPolicy.DROP_OLDEST)) {
+      for (int i = 0; i < 3; i++) {
+        assertThat(subject.offer(bytes(record(i))), is(true));
+      }
+
+      assertThat(subject.droppedBytes(), is(30L));
+      assertThat(replay(subject), contains(record(1), record(2)));
+    }
+  }
+
+  @Test
+  public void dropsNewestRecordWhenFull() throws IOException {
+    try (SpillQueue subject = queue(64, 128, SpillQueue.DropPolicy.DROP_NEWEST)) {
+      assertThat(subject.offer(bytes(record(0))), is(true));
+      assertThat(subject.offer(bytes(record(1))), is(true));
+      assertThat(subject.offer(bytes(record(2))), is(false));
+
+      assertThat(subject.droppedBytes(), is(30L));
+      assertThat(replay(subject), contains(record(0), record(1)));
+    }
+  }
+
+  @Test
+  public void dropsRecordsLargerThanASegment() throws IOException {
+    try (SpillQueue subject = queue(32, 128, SpillQueue.DropPolicy.DROP_OLDEST)) {
+      assertThat(subject.offer(bytes(record(0))), is(false));
+      assertThat(subject.isEmpty(), is(true));
+    }
+  }
+
+  @Test
+  public void reusesSegmentsAsARing() throws IOException {
+    try (SpillQueue subject = queue(128, 256, SpillQueue.DropPolicy.DROP_NEWEST)) {
+      List<String> replayed = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        assertThat(subject.offer(bytes(record(2 * i))), is(true));
+        assertThat(subject.offer(bytes(record(2 * i + 1))), is(true));
+        replayed.addAll(replay(subject));
+      }
+
+      assertThat(replayed, hasSize(200));
+      assertThat(replayed.get(199), is(record(199)));
+      assertThat(Files.size(subject.file()), is(256L));
+    }
+  }
+
+  @Test
+  public void reportsMetersAndDeletesFileOnClose() throws IOException {
+    SpillQueue subject = queue(1024, 4096, SpillQueue.DropPolicy.DROP_OLDEST);
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    subject.bindTo(registry);
+    subject.offer(bytes("span\n"));
+
+    assertThat(registry.get("tracegenerator.spill.queued.bytes").gauge().value(), is(5d));
+    assertThat(registry.get("tracegenerator.spill.spilled.bytes").functionCounter().count(),
+        is(5d));
+    subject.close();
+    assertThat(Files.exists(subject.file()), is(false));
+  }
+
+  private SpillQueue queue(int segmentSize, long maxBytes, SpillQueue.DropPolicy policy)
+      throws IOException {
+    return new SpillQueue(directory, maxBytes, segmentSize, policy);
+  }
+
+  private static List<String> replay(SpillQueue queue) throws IOException {
+    List<String> records = new ArrayList<>();
+    assertThat(queue.replay(buffer -> records.add(string(buffer))), is(true));
+    return records;
+  }
+
+  private static String record(int i) {
+    return String.format("record %022d\n", i);
+  }
+
+  private static ByteBuffer bytes(String records) {
+    return ByteBuffer.wrap(records.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String string(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
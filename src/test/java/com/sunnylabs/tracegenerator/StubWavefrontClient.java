@@ -27,7 +27,7 @@ public class StubWavefrontClient implements WavefrontTracingSpanSender {
       tags.forEach(tag -> builder.addTag(tag._1, tag._2));
     }
     Span span = builder.build();
-    span.traceId = traceId;
+    span.traceId(traceId);
     spans.add(span);
   }
 
@@ -0,0 +1,57 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.java_sdk.com.google.common.collect.ImmutableList;
+import com.wavefront.sdk.common.Pair;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class TagDictionaryTest {
+  private final TagDictionary subject = new TagDictionary();
+
+  @Test
+  public void internsStrings() {
+    String first = new String("value");
+    String second = new String("value");
+
+    assertThat(subject.intern(first), is(sameInstance(first)));
+    assertThat(subject.intern(second), is(sameInstance(first)));
+    assertThat(subject.strings(), is(1));
+  }
+
+  @Test
+  public void sharesEqualTagSets() {
+    TagDictionary.TagSet first = subject.tagSet(ImmutableList.of(
+        new Pair<>("service", new String("svc")), new Pair<>("shard", "shard")));
+    TagDictionary.TagSet second = subject.tagSet(ImmutableList.of(
+        new Pair<>("service", new String("svc")), new Pair<>("shard", "shard")));
+    TagDictionary.TagSet reordered = subject.tagSet(ImmutableList.of(
+        new Pair<>("shard", "shard"), new Pair<>("service", "svc")));
+
+    assertThat(second, is(sameInstance(first)));
+    assertThat(reordered, is(not(sameInstance(first))));
+    assertThat(reordered.array()[3], is(sameInstance(first.array()[1])));
+    assertThat(subject.tagSets(), is(2));
+  }
+
+  @Test
+  public void tagSetViews() {
+    TagDictionary.TagSet set = subject.tagSet(ImmutableList.of(
+        new Pair<>("service", "svc"), new Pair<>("error", "true"), new Pair<>("error", "false")));
+
+    assertThat(set.size(), is(3));
+    assertThat(set.list(), contains(new Pair<>("service", "svc"), new Pair<>("error", "true"),
+        new Pair<>("error", "false")));
+    assertThat(set.value("error"), is("true"));
+    assertThat(set.value("missing"), is(nullValue()));
+    assertThat(new String(set.encoded(), StandardCharsets.UTF_8),
+        is(" \"service\"=\"svc\" \"error\"=\"true\" \"error\"=\"false\""));
+  }
+}
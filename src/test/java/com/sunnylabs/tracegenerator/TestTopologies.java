@@ -0,0 +1,41 @@
+package com.sunnylabs.tracegenerator;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Small topologies for tests, with every operation in the service svc of the application app
+ */
+public final class TestTopologies {
+  private TestTopologies() {
+  }
+
+  /**
+   * @param operations YAML map of operation names to operations
+   * @return topology YAML for the operations, without entrypoints
+   */
+  public static String config(String operations) {
+    return "applications: { app: { services: { svc: { operations: { " + operations + " } } } } }";
+  }
+
+  /**
+   * @param operations YAML map of operation names to operations, including one named op
+   * @return the topology, with op as its only entrypoint
+   */
+  public static Topology load(String operations) {
+    return parse("entrypoints: [ app.svc.op ]\n" + config(operations));
+  }
+
+  /**
+   * @param operations YAML map of operation names to operations
+   * @return the topology, with every operation as an entrypoint
+   */
+  public static Topology loadAll(String operations) {
+    return parse(config(operations));
+  }
+
+  private static Topology parse(String yaml) {
+    Topology topology = new Topology(0, 0, 0, 0);
+    topology.load(new ByteArrayInputStream(yaml.getBytes()));
+    return topology;
+  }
+}
@@ -0,0 +1,92 @@
+package com.sunnylabs.tracegenerator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+public class TimingWheelTest {
+  @Test
+  public void expiresItemsWhenDue() {
+    TimingWheel<String> subject = new TimingWheel<>(10, 8, 1000);
+    subject.add(1015, "a");
+    subject.add(1032, "b");
+    List<String> expired = new ArrayList<>();
+
+    subject.expire(1009, expired::add);
+    assertThat(expired, is(empty()));
+    subject.expire(1019, expired::add);
+    assertThat(expired, contains("a"));
+    subject.expire(1040, expired::add);
+    assertThat(expired, contains("a", "b"));
+    assertThat(subject.size(), is(0));
+  }
+
+  @Test
+  public void keepsItemsBeyondOneTurn() {
+    TimingWheel<String> subject = new TimingWheel<>(10, 8, 0);
+    subject.add(25, "near");
+    // 80ms is one turn of 8 ticks, so this shares the near item's bucket
+    subject.add(105, "far");
+    List<String> expired = new ArrayList<>();
+
+    subject.expire(50, expired::add);
+    assertThat(expired, contains("near"));
+    subject.expire(99, expired::add);
+    assertThat(expired, contains("near"));
+    subject.expire(100, expired::add);
+    assertThat(expired, contains("near", "far"));
+  }
+
+  @Test
+  public void expiresEverythingAfterLongGap() {
+    TimingWheel<Integer> subject = new TimingWheel<>(1, 4, 0);
+    for (int i = 0; i < 20; i++) {
+      subject.add(i, i);
+    }
+    List<Integer> expired = new ArrayList<>();
+
+    assertThat(subject.expire(1_000_000, expired::add), is(20));
+    assertThat(expired, containsInAnyOrder(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+        16, 17, 18, 19));
+  }
+
+  @Test
+  public void pastItemsExpireOnNextTick() {
+    TimingWheel<String> subject = new TimingWheel<>(10, 8, 1000);
+    subject.expire(1100, s -> {
+    });
+    subject.add(0, "late");
+    List<String> expired = new ArrayList<>();
+
+    subject.expire(1110, expired::add);
+
+    assertThat(expired, contains("late"));
+  }
+
+  @Test
+  public void holdsMillionsOfItems() {
+    TimingWheel<Integer> subject = new TimingWheel<>(1, 1024, 0);
+    Integer item = 1;
+    for (int i = 0; i < 2_000_000; i++) {
+      subject.add(i % 5000, item);
+    }
+    assertThat(subject.size(), is(2_000_000));
+
+    int expired = 0;
+    for (long now = 0; now < 5000; now += 100) {
+      expired += subject.expire(now, i -> {
+      });
+    }
+    expired += subject.expire(5000, i -> {
+    });
+    assertThat(expired, is(2_000_000));
+    assertThat(subject.size(), is(0));
+  }
+}
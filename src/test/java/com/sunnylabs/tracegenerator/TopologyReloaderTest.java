@@ -0,0 +1,121 @@
+package com.sunnylabs.tracegenerator;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TopologyReloaderTest {
+  @TempDir
+  Path dir;
+  private TopologyReloader subject;
+
+  @AfterEach
+  public void close() throws Exception {
+    if (subject != null) {
+      subject.close();
+    }
+  }
+
+  @Test
+  public void swapsInLoadedTopology() throws Exception {
+    Topology initial = TestTopologies.loadAll("op1: {}");
+    Topology next = TestTopologies.loadAll("op2: {}");
+    TopologyHolder holder = new TopologyHolder(initial);
+    List<Topology> swapped = new CopyOnWriteArrayList<>();
+    holder.onSwap(swapped::add);
+    subject = new TopologyReloader(holder, () -> next);
+
+    assertThat(subject.reload().get(5, TimeUnit.SECONDS), is(sameInstance(next)));
+
+    assertThat(holder.current(), is(sameInstance(next)));
+    assertThat(swapped, contains(next));
+    assertThat(subject.reloads(), is(1L));
+  }
+
+  @Test
+  public void keepsCurrentTopologyWhenReloadFails() throws Exception {
+    Topology initial = TestTopologies.loadAll("op1: {}");
+    TopologyHolder holder = new TopologyHolder(initial);
+    subject = new TopologyReloader(holder,
+        () -> TestTopologies.loadAll("op1: { calls: [{ name: op1 }] }"));
+
+    assertThrows(ExecutionException.class, () -> subject.reload().get(5, TimeUnit.SECONDS));
+
+    assertThat(holder.current(), is(sameInstance(initial)));
+    assertThat(subject.failures(), is(1L));
+  }
+
+  @Test
+  public void rejectsTopologyWithoutEntrypoints() throws Exception {
+    Topology initial = TestTopologies.loadAll("op1: {}");
+    TopologyHolder holder = new TopologyHolder(initial);
+    subject = new TopologyReloader(holder, () -> {
+      Topology topology = new Topology(0, 0, 0, 0);
+      topology.load(new ByteArrayInputStream("applications: {}".getBytes()));
+      return topology;
+    });
+
+    assertThrows(ExecutionException.class, () -> subject.reload().get(5, TimeUnit.SECONDS));
+    assertThat(holder.current(), is(sameInstance(initial)));
+  }
+
+  @Test
+  public void reloadsWhenWatchedFileChanges() throws Exception {
+    Path file = dir.resolve("topology.yaml");
+    Files.write(file, TestTopologies.config("op1: {}").getBytes());
+    TopologyHolder holder = new TopologyHolder(TestTopologies.loadAll("op1: {}"));
+    subject = new TopologyReloader(holder, () -> {
+      Topology topology = new Topology(0, 0, 0, 0);
+      topology.load(Files.newInputStream(file));
+      return topology;
+    });
+    AtomicReference<Topology> swapped = new AtomicReference<>();
+    holder.onSwap(swapped::set);
+
+    subject.watch(file);
+    Files.write(file, TestTopologies.config("op2: {}").getBytes());
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+    while (swapped.get() == null && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+    assertThat(holder.current().entrypoints(), hasSize(1));
+    assertThat(holder.current().entrypoints().get(0).getName(), is("op2"));
+  }
+
+  @Test
+  public void endpointReloadsAndSummarizes() {
+    TopologyHolder holder = new TopologyHolder(TestTopologies.loadAll("op1: {}"));
+    subject = new TopologyReloader(holder, () -> TestTopologies.loadAll("op1: {}, op2: {}"));
+    TopologyEndpoint endpoint = new TopologyEndpoint(subject);
+
+    assertThat(endpoint.topology().get("entrypoints"), is(1));
+    Map<String, Object> result;
+    try {
+      result = endpoint.reload();
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+
+    assertThat(result.get("reloaded"), is(true));
+    assertThat(result.get("entrypoints"), is(2));
+    assertThat(result.get("reloads"), is(1L));
+  }
+}
@@ -0,0 +1,166 @@
+package com.sunnylabs.tracegenerator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TopologySnapshotTest {
+  @TempDir
+  Path dir;
+
+  @Test
+  public void roundTripsConfiguredTopology() throws IOException {
+    Topology original = new Topology(0, 0, 0, 0);
+    original.load(new ByteArrayInputStream(("entrypoints: [ app.svc.op1: 3, other.db.query ]\n" +
+        "applications:\n" +
+        "  app:\n" +
+        "    services:\n" +
+        "      svc:\n" +
+        "        baseLatency: 40\n" +
+        "        tags: { region: us-west }\n" +
+        "        operations:\n" +
+        "          op1:\n" +
+        "            errorChance: 25\n" +
+        "            source: web-1\n" +
+        "            tags: { route: /buy }\n" +
+        "            calls: [{ name: op2 }, { application: other, service: db, name: query }]\n" +
+        "          op2: { calls: [{ application: other, service: db, name: query }] }\n" +
+        "  other:\n" +
+        "    services:\n" +
+        "      db: { operations: { query: {} } }\n").getBytes()));
+
+    Topology restored = roundTrip(original);
+
+    assertThat(restored.applications(), hasSize(2));
+    Service svc = restored.getApplication("app").getService("svc");
+    assertThat(svc.getBaseLatency(), is(40));
+    assertThat(svc.getTags().get("region"), is("us-west"));
+    Operation op1 = svc.getOperation("op1");
+    assertThat(op1.getApplication(), is("app"));
+    assertThat(op1.getService(), is("svc"));
+    assertThat(op1.getSource(), is("web-1"));
+    assertThat(op1.getErrorChance(), is(25f));
+    assertThat(op1.getTags().get("route"), is("/buy"));
+    assertThat(op1.getCalls(), hasSize(2));
+    Operation query = restored.getApplication("other").getService("db").getOperation("query");
+    assertThat(op1.getCalls().get(1), is(sameInstance(query)));
+    assertThat(svc.getOperation("op2").getCalls().get(0), is(sameInstance(query)));
+
+    assertThat(restored.entrypoints(), contains(op1, query));
+    assertThat(restored.entrypointWeight(0), is(3d));
+    assertThat(restored.entrypointWeight(1), is(1d));
+    assertThat(op1.template().tags(), is(original.entrypoints().get(0).template().tags()));
+  }
+
+  @Test
+  public void roundTripsRandomTopology() throws IOException {
+    Topology original = new Topology(5, 10, 5, 3, new Random(11));
+    original.load(new ByteArrayInputStream(new byte[0]));
+
+    Topology restored = roundTrip(original);
+
+    assertThat(restored.applications(), hasSize(5));
+    assertThat(restored.entrypoints(), hasSize(original.entrypoints().size()));
+    for (Application app : original.applications()) {
+      for (Map.Entry<String, Service> svc : app.getServices().entrySet()) {
+        for (Operation op : svc.getValue().getOperations().values()) {
+          Operation copy = restored.getApplication(app.getName()).getService(svc.getKey()).
+              getOperation(op.getName());
+          assertThat(copy.getCalls(), hasSize(op.getCalls().size()));
+          for (int i = 0; i < op.getCalls().size(); i++) {
+            assertThat(copy.getCalls().get(i).getName(), is(op.getCalls().get(i).getName()));
+            assertThat(copy.getCalls().get(i).getService(),
+                is(op.getCalls().get(i).getService()));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void roundTripsTraffic() throws IOException {
+    Topology original = new Topology(0, 0, 0, 0);
+    original.load(new ByteArrayInputStream(("traffic: { curve: sine, arrivals: pareto, " +
+        "periodSeconds: 600, lowRatio: 0.5 }\napplications: { app: {} }").getBytes()));
+
+    Topology restored = roundTrip(original);
+
+    assertThat(restored.traffic(), is(original.traffic()));
+    Topology random = new Topology(1, 1, 1, 1);
+    random.load(new ByteArrayInputStream(new byte[0]));
+    assertThat(roundTrip(random).traffic(), is(nullValue()));
+  }
+
+  @Test
+  public void recordsSource() throws IOException {
+    Topology original = new Topology(1, 1, 1, 1, new Random(5));
+    original.load(new ByteArrayInputStream(new byte[0]));
+    Path file = dir.resolve("topology.bin");
+
+    TopologySnapshot.write(original, file, "file=config.yaml seed=5");
+    assertThat(TopologySnapshot.source(file), is("file=config.yaml seed=5"));
+    TopologySnapshot.write(original, file);
+    assertThat(TopologySnapshot.source(file), is(""));
+    assertThrows(IOException.class, () -> TopologySnapshot.source(dir.resolve("missing")));
+  }
+
+  @Test
+  public void rejectsOtherFiles() throws IOException {
+    Path file = dir.resolve("not-a-snapshot");
+    Files.write(file, "applications: {}".getBytes());
+
+    assertThrows(IOException.class, () -> TopologySnapshot.read(new Topology(0, 0, 0, 0), file));
+  }
+
+  @Test
+  public void rejectsTruncatedFiles() throws IOException {
+    Topology original = new Topology(2, 2, 2, 1, new Random(5));
+    original.load(new ByteArrayInputStream(new byte[0]));
+    Path file = dir.resolve("topology.bin");
+    TopologySnapshot.write(original, file);
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+
+    assertThrows(IOException.class, () -> TopologySnapshot.read(new Topology(0, 0, 0, 0), file));
+  }
+
+  @Test
+  public void restoresLargeTopologiesQuickly() throws IOException {
+    Topology original = new Topology(20, 50, 100, 20, new Random(3));
+    original.load(new ByteArrayInputStream(new byte[0]));
+    Path file = dir.resolve("topology.bin");
+    TopologySnapshot.write(original, file);
+
+    long start = System.nanoTime();
+    Topology restored = new Topology(0, 0, 0, 0);
+    TopologySnapshot.read(restored, file);
+
+    assertThat(restored.entrypoints(), hasSize(100_000));
+    assertThat(System.nanoTime() - start, is(lessThan(TimeUnit.SECONDS.toNanos(5))));
+  }
+
+  private Topology roundTrip(Topology original) throws IOException {
+    Path file = dir.resolve("topology.bin");
+    TopologySnapshot.write(original, file);
+    Topology restored = new Topology(0, 0, 0, 0);
+    TopologySnapshot.read(restored, file);
+    return restored;
+  }
+}
@@ -5,14 +5,22 @@ import org.yaml.snakeyaml.constructor.ConstructorException;
 
 import java.io.ByteArrayInputStream;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.aMapWithSize;
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasKey;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
 public class TopologyTest {
@@ -166,6 +174,26 @@ public class TopologyTest {
     assertThat(tags.get("tagName"), is("tagValue"));
   }
 
+  @Test
+  public void sharesTagsAcrossOperations() {
+    Topology subject = loadConfig("applications:\n" +
+        "  app1:\n" +
+        "    services:\n" +
+        "      svc1:\n" +
+        "        tags: { region: west }\n" +
+        "        operations: { op1: {}, op2: {}, op3: { tags: { custom: value } } }\n");
+
+    Service svc = subject.getApplication("app1").getService("svc1");
+    Span op1 = svc.getOperation("op1").template().newSpan(1, 2, false);
+    Span op2 = svc.getOperation("op2").template().newSpan(1, 2, false);
+    Span op3 = svc.getOperation("op3").template().newSpan(1, 2, false);
+    assertThat(op2.tags, is(sameInstance(op1.tags)));
+    assertThat(op2.tagList(), is(sameInstance(op1.tagList())));
+    assertThat(op3.tags, is(not(sameInstance(op1.tags))));
+    assertThat(op3.tags[5], is(sameInstance(op1.tags[3])));
+    assertThat(op1.tagValue("region"), is("west"));
+  }
+
   @Test
   public void setsEntryPoints() {
     Topology subject = loadConfig("applications:\n" +
@@ -188,6 +216,48 @@ public class TopologyTest {
     assertThat(subject.entrypoints(), hasSize(1));
   }
 
+  @Test
+  public void weightedEntryPoints() {
+    Topology subject = loadConfig("entrypoints: [ app.svc.op1, app.svc.op2: 3, app.svc.op3: 0 ]\n" +
+        "applications:\n" +
+        "  app:\n" +
+        "    services: \n" +
+        "      svc: { operations: { op1: {}, op2: {}, op3: {} } }\n");
+
+    assertThat(subject.entrypoints(), hasSize(2));
+    Random random = new Random(7);
+    int op2 = 0;
+    for (int i = 0; i < 10_000; i++) {
+      if (subject.randomEntrypoint(random).getName().equals("op2")) {
+        op2++;
+      }
+    }
+    assertThat(op2 / 10_000d, is(closeTo(0.75, 0.03)));
+  }
+
+  @Test
+  public void rejectsInvalidEntryPointWeight() {
+    try {
+      loadConfig("entrypoints: [ app.svc.op1: heavy ]\n" +
+          "applications: { app: { services: { svc: { operations: { op1: {} } } } } }\n");
+    } catch (IllegalArgumentException ignored) {
+      return;
+    }
+    fail();
+  }
+
+  @Test
+  public void noEntryPoints() {
+    Topology subject = loadConfig("applications: { app: { services: { svc: {} } } }");
+    assertThat(subject.entrypoints(), hasSize(0));
+    try {
+      subject.sampleEntrypoint(new Random());
+    } catch (IllegalStateException ignored) {
+      return;
+    }
+    fail();
+  }
+
   @Test
   public void loopDetection() {
     try {
@@ -203,6 +273,55 @@ public class TopologyTest {
     fail();
   }
 
+  @Test
+  public void reportsEveryLoop() {
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () ->
+        loadConfig("applications: { app: { services: { svc: { " +
+            "operations: {" +
+            "  op1: { calls: [{ name: op2 }, { name: op4 }] }," +
+            "  op2: { calls: [{ name: op1 }] }," +
+            "  op3: { calls: [{ name: op3 }] }," +
+            "  op4: {}" +
+            "} }}}}"));
+
+    assertThat(e.getMessage(), containsString("(app.svc.op1 -> app.svc.op2 -> app.svc.op1)"));
+    assertThat(e.getMessage(), containsString("(app.svc.op3 -> app.svc.op3)"));
+  }
+
+  @Test
+  public void sharedCallsAreNotLoops() {
+    StringBuilder config = new StringBuilder("applications: { app: { services: { svc: { " +
+        "operations: {");
+    // every level calls both operations of the next level, 2^30 paths from the top
+    for (int level = 0; level < 30; level++) {
+      config.append(String.format("a%d: { calls: [{ name: a%d }, { name: b%d }] }, " +
+          "b%d: { calls: [{ name: a%d }, { name: b%d }] }, ",
+          level, level + 1, level + 1, level, level + 1, level + 1));
+    }
+    config.append("a30: {}, b30: {} } }}}}");
+
+    Topology subject = loadConfig(config.toString());
+
+    assertThat(subject.entrypoints(), hasSize(62));
+  }
+
+  @Test
+  public void deepChains() {
+    Topology subject = new Topology(0, 0, 0, 0);
+    StringBuilder config = new StringBuilder("applications: { app: { services: { svc: { " +
+        "operations: {");
+    for (int i = 0; i < 10_000; i++) {
+      config.append(String.format("op%d: { calls: [{ name: op%d }] }, ", i, i + 1));
+    }
+    config.append("op10000: {} } }}}}");
+    long start = System.nanoTime();
+
+    subject.load(new ByteArrayInputStream(config.toString().getBytes()));
+
+    assertThat(subject.entrypoints(), hasSize(10_001));
+    assertThat(System.nanoTime() - start, is(lessThan(TimeUnit.SECONDS.toNanos(5))));
+  }
+
   @Test
   public void ignoresApplicationNameOverride() {
     Topology subject = loadConfig("applications: { app: { name: different }}");
@@ -219,6 +338,19 @@ public class TopologyTest {
     assertThat(subject.getApplication("app").getServices(), not(hasKey("different")));
   }
 
+  @Test
+  public void readsTrafficSection() {
+    Topology subject = loadConfig("traffic: { curve: spike, arrivals: poisson, atSeconds: 30, " +
+        "factor: 5 }\napplications: { app: {} }");
+
+    TrafficCurve traffic = subject.traffic();
+    assertThat(traffic.getCurve(), is("spike"));
+    assertThat(traffic.getArrivals(), is("poisson"));
+    assertThat(traffic.getAtSeconds(), is(30d));
+    assertThat(traffic.getFactor(), is(5d));
+    assertThat(traffic.getLengthSeconds(), is(60d));
+    assertThat(loadConfig("applications: { app: {} }").traffic(), is(nullValue()));
+  }
 
   private Topology loadConfig(String config) {
     Topology configuration = new Topology(1, 1, 1, 1);
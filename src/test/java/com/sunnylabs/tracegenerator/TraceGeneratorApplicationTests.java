@@ -1,15 +1,42 @@
 package com.sunnylabs.tracegenerator;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.TestPropertySource;
 
-@TestPropertySource(properties = "management.metrics.export.wavefront.enabled=false")
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.hasSize;
+
+// Spring Boot tests turn JMX off unless asked
+@TestPropertySource(properties = {"management.metrics.export.wavefront.enabled=false",
+    "spring.jmx.enabled=true"})
 @SpringBootTest
 class TraceGeneratorApplicationTests {
+  @Autowired
+  MBeanServer mbeanServer;
 
   @Test
   void contextLoads() {
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  void reloadsTopologyOverJmx() throws Exception {
+    Set<ObjectName> names = mbeanServer.queryNames(
+        new ObjectName("org.springframework.boot:type=Endpoint,name=Topology,*"), null);
+    assertThat(names, hasSize(1));
+
+    Map<String, Object> result = (Map<String, Object>) mbeanServer.invoke(
+        names.iterator().next(), "reload", new Object[0], new String[0]);
+    assertThat(result, hasEntry("reloaded", true));
+    assertThat((Integer) result.get("entrypoints"), greaterThan(0));
+  }
 }
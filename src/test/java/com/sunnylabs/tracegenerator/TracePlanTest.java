@@ -0,0 +1,167 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.sdk.common.Pair;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class TracePlanTest {
+  @Test
+  public void singleOperation() {
+    Operation op = operation("one");
+    TracePlan subject = TracePlan.compile(op);
+
+    UUID traceId = UUID.randomUUID();
+    List<Span> result = subject.generateTrace(traceId);
+
+    assertThat(subject.size(), is(1));
+    assertThat(result, hasSize(1));
+    assertThat(result.get(0).traceId(), is(traceId));
+    assertThat(result.get(0).operationName, is("one"));
+    assertThat(result.get(0).source, is("trace-generator"));
+    assertThat(result.get(0).parents(), is(nullValue()));
+  }
+
+  @Test
+  public void sameOrderAsRecursiveGenerator() {
+    Operation op1 = operation("one");
+    Operation op2 = operation("two");
+    Operation op3 = operation("three");
+    Operation op4 = operation("four");
+    op1.addCall(op2);
+    op2.addCall(op3);
+    op1.addCall(op4);
+
+    List<String> expected = names(op1.generateTrace(UUID.randomUUID()));
+    List<Span> result = TracePlan.compile(op1).generateTrace(UUID.randomUUID());
+
+    assertThat(names(result), is(expected));
+    assertThat(names(result), contains("one", "two", "three", "four"));
+    assertThat(result.get(1).parents(), contains(result.get(0).spanId()));
+    assertThat(result.get(2).parents(), contains(result.get(1).spanId()));
+    assertThat(result.get(3).parents(), contains(result.get(0).spanId()));
+  }
+
+  @Test
+  public void sharedSubtreesAreExpanded() {
+    Operation shared = operation("shared");
+    Operation op1 = operation("one");
+    Operation op2 = operation("two");
+    op1.addCall(shared);
+    op1.addCall(op2);
+    op2.addCall(shared);
+
+    TracePlan subject = TracePlan.compile(op1);
+
+    assertThat(subject.size(), is(4));
+    assertThat(names(subject.generateTrace(UUID.randomUUID())),
+        contains("one", "shared", "two", "shared"));
+  }
+
+  @Test
+  public void childrenFitWithinParent() {
+    Operation op1 = operation("one");
+    Operation op2 = operation("two");
+    op1.addCall(op2);
+
+    for (int i = 0; i < 100; i++) {
+      List<Span> result = TracePlan.compile(op1).generateTrace(UUID.randomUUID());
+      Span parent = result.get(0);
+      Span child = result.get(1);
+      assertThat(child.startTime, greaterThanOrEqualTo(parent.startTime));
+      assertThat(child.startTime + child.duration,
+          lessThanOrEqualTo(parent.startTime + parent.duration));
+    }
+  }
+
+  @Test
+  public void resolvesTags() {
+    Operation op = operation("one");
+    op.setApplication("app");
+    op.setService("svc");
+    op.getTags().put("custom", "value");
+    op.setErrorChance(100);
+
+    Span span = TracePlan.compile(op).generateTrace(UUID.randomUUID()).get(0);
+
+    assertThat(span.tagList(), contains(
+        new Pair<>("custom", "value"),
+        new Pair<>("application", "app"),
+        new Pair<>("cluster", "cluster"),
+        new Pair<>("service", "svc"),
+        new Pair<>("shard", "shard"),
+        new Pair<>("error", "true")));
+  }
+
+  @Test
+  public void topologyCachesPlans() {
+    Topology topology = new Topology(1, 1, 1, 1);
+    topology.load(new ByteArrayInputStream(("applications: { app: { services: { svc: { " +
+        "operations: { op1: { calls: [{ name: op2 }] }, op2: {} } } } } }").getBytes()));
+
+    List<TracePlan> plans = topology.plans();
+
+    assertThat(plans, hasSize(topology.entrypoints().size()));
+    assertThat(topology.plans(), is(plans));
+    for (int i = 0; i < plans.size(); i++) {
+      assertThat(plans.get(i).root(), is(topology.entrypoints().get(i)));
+    }
+  }
+
+  @Test
+  public void streamsSpansInOrder() throws IOException {
+    Operation op1 = operation("one");
+    Operation op2 = operation("two");
+    op1.addCall(op2);
+    op2.addCall(operation("three"));
+    op1.addCall(operation("four"));
+    List<Span> result = new ArrayList<>();
+
+    int count = TracePlan.compile(op1).generateTrace(UUID.randomUUID(), result::add);
+
+    assertThat(count, is(4));
+    assertThat(names(result), contains("one", "two", "three", "four"));
+    assertThat(result.get(1).parents(), contains(result.get(0).spanId()));
+    assertThat(result.get(2).parents(), contains(result.get(1).spanId()));
+    assertThat(result.get(3).parents(), contains(result.get(0).spanId()));
+  }
+
+  @Test
+  public void streamsLargeTraces() throws IOException {
+    Operation root = operation("root");
+    for (int i = 0; i < 1000; i++) {
+      Operation child = operation("child" + i);
+      for (int j = 0; j < 99; j++) {
+        child.addCall(operation("leaf" + j));
+      }
+      root.addCall(child);
+    }
+    long[] count = new long[1];
+
+    int result = TracePlan.compile(root).generateTrace(UUID.randomUUID(), span -> count[0]++);
+
+    assertThat(result, is(100_001));
+    assertThat(count[0], is(100_001L));
+  }
+
+  private Operation operation(String name) {
+    return new Operation(name);
+  }
+
+  private List<String> names(List<Span> spans) {
+    return spans.stream().map(s -> s.operationName).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,150 @@
+package com.sunnylabs.tracegenerator;
+
+import com.wavefront.java_sdk.com.google.common.collect.ImmutableList;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class TraceQueueTest {
+  StubWavefrontClient mockSender = new StubWavefrontClient();
+  int operations;
+
+  @Test
+  public void writersSendQueuedTraces() throws IOException, InterruptedException {
+    TraceQueue subject = new TraceQueue(100, 10, 5, TraceQueue.OverflowPolicy.BLOCK);
+    subject.start(() -> mockSender, 1);
+    AsyncTraceSender sender = new AsyncTraceSender(subject);
+
+    UUID firstTraceId = sender.traceId;
+    sender.send(ImmutableList.of(new Span.Builder().build(), new Span.Builder().build()));
+    UUID secondTraceId = sender.traceId;
+    sender.addSpan(new Span.Builder().build());
+    sender.flush();
+    subject.stop();
+
+    assertThat(mockSender.spans, hasSize(3));
+    assertEquals(firstTraceId, mockSender.spans.get(0).traceId());
+    assertEquals(firstTraceId, mockSender.spans.get(1).traceId());
+    assertEquals(secondTraceId, mockSender.spans.get(2).traceId());
+    assertNotEquals(firstTraceId, secondTraceId);
+    assertThat(subject.sentSpans(), is(3L));
+    assertThat(subject.depth(), is(0));
+  }
+
+  @Test
+  public void dropsNewest() throws IOException {
+    TraceQueue subject = new TraceQueue(2, 10, 5, TraceQueue.OverflowPolicy.DROP_NEWEST);
+    List<Span> first = trace(1);
+    List<Span> second = trace(1);
+    List<Span> third = trace(2);
+
+    subject.submit(first);
+    subject.submit(second);
+    assertFalse(subject.submit(third));
+
+    assertThat(subject.depth(), is(2));
+    assertThat(subject.droppedTraces(), is(1L));
+    assertThat(subject.droppedSpans(), is(2L));
+  }
+
+  @Test
+  public void dropsOldest() throws IOException, InterruptedException {
+    TraceQueue subject = new TraceQueue(2, 10, 5, TraceQueue.OverflowPolicy.DROP_OLDEST);
+    List<Span> first = trace(3);
+    List<Span> second = trace(1);
+    List<Span> third = trace(1);
+
+    subject.submit(first);
+    subject.submit(second);
+    subject.submit(third);
+    assertThat(subject.droppedTraces(), is(1L));
+    assertThat(subject.droppedSpans(), is(3L));
+
+    subject.start(() -> mockSender, 1);
+    subject.stop();
+    assertThat(mockSender.spans, hasSize(2));
+    assertThat(mockSender.spans.get(0).operationName, is(second.get(0).operationName));
+    assertThat(mockSender.spans.get(1).operationName, is(third.get(0).operationName));
+  }
+
+  @Test
+  public void queuesEachTraceOfABatch() throws IOException, InterruptedException {
+    TraceQueue subject = new TraceQueue(2, 10, 5, TraceQueue.OverflowPolicy.DROP_NEWEST);
+    AsyncTraceSender sender = new AsyncTraceSender(subject);
+    Operation root = new Operation("root");
+    root.addCall(new Operation("child"));
+    SpanBatch batch = new SpanBatch();
+    UUID firstTraceId = sender.traceId;
+    for (int i = 0; i < 3; i++) {
+      sender.generate(root, batch);
+    }
+    Span extra = new Span.Builder("extra", 0, 1, "source").build();
+    extra.traceId(firstTraceId);
+    batch.add(extra);
+    sender.send(batch);
+
+    assertThat(batch.size(), is(0));
+    assertThat(subject.depth(), is(2));
+    assertThat(subject.droppedTraces(), is(1L));
+    assertThat(subject.droppedSpans(), is(2L));
+
+    subject.start(() -> mockSender, 1);
+    subject.stop();
+    assertThat(mockSender.spans, hasSize(5));
+    assertThat(mockSender.spans.get(2).operationName, is("extra"));
+    assertEquals(firstTraceId, mockSender.spans.get(2).traceId());
+    assertThat(subject.sentSpans(), is(5L));
+  }
+
+  @Test
+  public void countsSendErrors() throws IOException, InterruptedException {
+    mockSender.throwOnSend = true;
+    TraceQueue subject = new TraceQueue(10, 10, 5, TraceQueue.OverflowPolicy.BLOCK);
+    subject.submit(trace(2));
+    subject.start(() -> mockSender, 1);
+    subject.stop();
+
+    assertThat(subject.sendErrors(), is(2L));
+    assertThat(subject.sentSpans(), is(0L));
+  }
+
+  @Test
+  public void exposesMetrics() throws IOException {
+    TraceQueue subject = new TraceQueue(1, 10, 5, TraceQueue.OverflowPolicy.DROP_NEWEST);
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    subject.bindTo(registry);
+    subject.submit(trace(1));
+    subject.submit(trace(4));
+
+    assertThat(registry.get("tracegenerator.sender.queue.depth").gauge().value(), is(1.0));
+    assertThat(registry.get("tracegenerator.sender.dropped.spans").functionCounter().count(),
+        is(4.0));
+    assertThat(registry.get("tracegenerator.sender.dropped.traces").functionCounter().count(),
+        is(1.0));
+  }
+
+  @Test
+  public void parsesOverflowPolicy() {
+    assertThat(TraceQueue.OverflowPolicy.parse("drop-oldest"),
+        is(TraceQueue.OverflowPolicy.DROP_OLDEST));
+    assertThat(TraceQueue.OverflowPolicy.parse("BLOCK"), is(TraceQueue.OverflowPolicy.BLOCK));
+  }
+
+  private List<Span> trace(int spans) {
+    ImmutableList.Builder<Span> trace = ImmutableList.builder();
+    for (int i = 0; i < spans; i++) {
+      trace.add(new Span.Builder("op" + (++operations), 0, 1, "source").build());
+    }
+    return trace.build();
+  }
+}
@@ -12,7 +12,6 @@ import java.util.List;
 import java.util.UUID;
 
 import static java.util.Collections.emptyMap;
-import static org.assertj.core.api.Assertions.fail;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasSize;
@@ -20,6 +19,8 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TraceSenderTest {
@@ -36,9 +37,9 @@ public class TraceSenderTest {
     subject.flush();
 
     assertThat(mockSender.spans, hasSize(3));
-    assertEquals(expectedTraceId, mockSender.spans.get(0).traceId);
-    assertEquals(expectedTraceId, mockSender.spans.get(1).traceId);
-    assertEquals(expectedTraceId, mockSender.spans.get(2).traceId);
+    assertEquals(expectedTraceId, mockSender.spans.get(0).traceId());
+    assertEquals(expectedTraceId, mockSender.spans.get(1).traceId());
+    assertEquals(expectedTraceId, mockSender.spans.get(2).traceId());
   }
 
   @Test
@@ -50,9 +51,9 @@ public class TraceSenderTest {
         new Span.Builder().build()));
 
     assertThat(mockSender.spans, hasSize(3));
-    assertEquals(expectedTraceId, mockSender.spans.get(0).traceId);
-    assertEquals(expectedTraceId, mockSender.spans.get(1).traceId);
-    assertEquals(expectedTraceId, mockSender.spans.get(2).traceId);
+    assertEquals(expectedTraceId, mockSender.spans.get(0).traceId());
+    assertEquals(expectedTraceId, mockSender.spans.get(1).traceId());
+    assertEquals(expectedTraceId, mockSender.spans.get(2).traceId());
   }
 
   @Test
@@ -68,7 +69,28 @@ public class TraceSenderTest {
 
     subject.send(app);
     assertThat(mockSender.spans, is(not(empty())));
-    mockSender.spans.forEach(span -> assertEquals(expectedTraceId, span.traceId));
+    mockSender.spans.forEach(span -> assertEquals(expectedTraceId, span.traceId()));
+  }
+
+  @Test
+  public void streamsApplications() throws IOException {
+    UUID expectedTraceId = subject.traceId;
+    Application app = new Application();
+    app.setName("testApp");
+    Service svc = new Service();
+    svc.setName("testService");
+    Operation op1 = new Operation("one");
+    op1.addCall(new Operation("two"));
+    svc.setOperations(Collections.singletonMap(op1.getName(), op1));
+    app.setServices(Collections.singletonMap(svc.getName(), svc));
+
+    int sent = subject.stream(app);
+
+    assertThat(sent, is(2));
+    assertThat(mockSender.spans, hasSize(2));
+    mockSender.spans.forEach(span -> assertEquals(expectedTraceId, span.traceId()));
+    assertThat(subject.traceId, is(not(expectedTraceId)));
+    assertThat(subject.spans, is(empty()));
   }
 
   @Test
@@ -81,7 +103,7 @@ public class TraceSenderTest {
 
     subject.send(svc);
     assertThat(mockSender.spans, is(not(empty())));
-    mockSender.spans.forEach(span -> assertEquals(expectedTraceId, span.traceId));
+    mockSender.spans.forEach(span -> assertEquals(expectedTraceId, span.traceId()));
   }
 
   @Test
@@ -95,7 +117,7 @@ public class TraceSenderTest {
 
     subject.send(op1);
     assertThat(mockSender.spans, hasSize(3));
-    mockSender.spans.forEach(span -> assertEquals(expectedTraceId, span.traceId));
+    mockSender.spans.forEach(span -> assertEquals(expectedTraceId, span.traceId()));
   }
 
   @Test
@@ -119,13 +141,13 @@ public class TraceSenderTest {
     Span actual = mockSender.spans.get(0);
     assertEquals(expected.operationName, actual.operationName);
 
-    assertEquals(expectedTraceId, actual.traceId);
+    assertEquals(expectedTraceId, actual.traceId());
     assertEquals(expected.startTime, actual.startTime);
     assertEquals(expected.duration, actual.duration);
     assertEquals(expected.source, actual.source);
-    assertEquals(ImmutableList.of(parent), actual.parents);
+    assertEquals(ImmutableList.of(parent), actual.parents());
     assertEquals(ImmutableList.of(followsFrom), actual.followsFrom);
-    assertEquals(ImmutableList.of(spanLog), actual.spanLogs);
+    assertEquals(ImmutableList.of(spanLog), actual.spanLogs());
   }
 
   @Test
@@ -138,15 +160,15 @@ public class TraceSenderTest {
     assertThat(mockSender.spans, hasSize(1));
     Span actual = mockSender.spans.get(0);
 
-    assertEquals(expectedTraceId, actual.traceId);
-    assertThat(actual.spanId, notNullValue());
+    assertEquals(expectedTraceId, actual.traceId());
+    assertThat(actual.spanId(), notNullValue());
     assertTrue(Strings.isNotBlank(actual.operationName));
     assertTrue(Strings.isNotBlank(actual.source));
 
-    assertEquals(1, getTagCount("application", actual.tags));
-    assertEquals(1, getTagCount("cluster", actual.tags));
-    assertEquals(1, getTagCount("service", actual.tags));
-    assertEquals(1, getTagCount("shard", actual.tags));
+    assertEquals(1, getTagCount("application", actual.tagList()));
+    assertEquals(1, getTagCount("cluster", actual.tagList()));
+    assertEquals(1, getTagCount("service", actual.tagList()));
+    assertEquals(1, getTagCount("shard", actual.tagList()));
   }
 
   @Test
@@ -156,10 +178,10 @@ public class TraceSenderTest {
 
     assertThat(mockSender.spans, hasSize(1));
     Span actual = mockSender.spans.get(0);
-    assertEquals(1, getTagCount("error", actual.tags));
-    assertEquals("true", getTagValue("error", actual.tags));
+    assertEquals(1, getTagCount("error", actual.tagList()));
+    assertEquals("true", getTagValue("error", actual.tagList()));
     // Uncomment the following line to validate sending of span logs (see {Span.addError})
-    // assertThat(actual.spanLogs, hasSize(greaterThan(0)));
+    // assertThat(actual.spanLogs(), hasSize(greaterThan(0)));
   }
 
   @Test
@@ -174,20 +196,37 @@ public class TraceSenderTest {
   }
 
   @Test
-  public void retainsSpansThatCouldNotBeSent() throws IOException {
+  public void dropsSpansThatCouldNotBeSent() {
+    UUID failedTraceId = subject.traceId;
+    subject.addSpan(new Span.Builder().build());
     subject.addSpan(new Span.Builder().build());
     mockSender.throwOnSend = true;
-    try {
-      subject.flush();
-    } catch (IOException e) {
-      assertThat(mockSender.spans, hasSize(0));
-
-      mockSender.reset();
-      subject.flush();
-      assertThat(mockSender.spans, hasSize(1));
-      return;
-    }
-    fail("initial flush did not throw");
+    assertThrows(IOException.class, () -> subject.flush());
+
+    assertThat(subject.spans, is(empty()));
+    assertNotEquals(failedTraceId, subject.traceId);
+  }
+
+  @Test
+  public void sendsBatchesOfTraces() throws IOException {
+    Operation op = new Operation("op");
+    op.addCall(new Operation("child"));
+    SpanBatch batch = new SpanBatch();
+    UUID first = subject.traceId;
+    assertThat(subject.generate(op, batch), is(2));
+    UUID second = subject.traceId;
+    assertThat(subject.generate(op, batch), is(2));
+    assertThat(second, is(not(first)));
+    assertThat(batch.traces(), is(2));
+
+    subject.send(batch);
+
+    assertThat(mockSender.spans, hasSize(4));
+    assertEquals(first, mockSender.spans.get(1).traceId());
+    assertEquals(second, mockSender.spans.get(2).traceId());
+    assertThat(mockSender.spans.get(2).hasParent(), is(false));
+    assertThat(mockSender.spans.get(3).hasParent(), is(true));
+    assertThat(batch.size(), is(0));
   }
 
   @Test
@@ -0,0 +1,75 @@
+package com.sunnylabs.tracegenerator;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TrafficShapeTest {
+  @Test
+  public void diurnalPeaksAndTroughs() {
+    TrafficShape subject = TrafficShape.diurnal(100, 20, 14);
+
+    assertThat(subject.rate(millis("2020-11-01T14:00:00Z")), is(closeTo(100, 1e-9)));
+    assertThat(subject.rate(millis("2020-11-02T02:00:00Z")), is(closeTo(20, 1e-9)));
+    assertThat(subject.rate(millis("2020-11-01T08:00:00Z")), is(closeTo(60, 1e-9)));
+  }
+
+  @Test
+  public void sineCyclesAroundMean() {
+    TrafficShape subject = TrafficShape.sine(50, 30, 4000, 1000);
+
+    assertThat(subject.rate(1000), is(closeTo(50, 1e-9)));
+    assertThat(subject.rate(2000), is(closeTo(80, 1e-9)));
+    assertThat(subject.rate(4000), is(closeTo(20, 1e-9)));
+    assertThat(subject.rate(6000), is(closeTo(80, 1e-9)));
+  }
+
+  @Test
+  public void stepChangesOnce() {
+    TrafficShape subject = TrafficShape.step(10, 40, 5000);
+
+    assertThat(subject.rate(4999), is(10d));
+    assertThat(subject.rate(5000), is(40d));
+    assertThat(subject.rate(Long.MAX_VALUE), is(40d));
+  }
+
+  @Test
+  public void spikeReturnsToBase() {
+    TrafficShape subject = TrafficShape.spike(10, 100, 5000, 1000);
+
+    assertThat(subject.rate(4999), is(10d));
+    assertThat(subject.rate(5000), is(100d));
+    assertThat(subject.rate(5999), is(100d));
+    assertThat(subject.rate(6000), is(10d));
+  }
+
+  @Test
+  public void curves() {
+    TrafficCurve curve = new TrafficCurve();
+    assertThat(curve.shape(5, 0).rate(123), is(5d));
+
+    curve.setCurve("diurnal");
+    assertThat(curve.shape(50, 0).rate(millis("1970-01-01T02:00:00Z")), is(closeTo(10, 1e-9)));
+
+    curve.setCurve("spike");
+    curve.setAtSeconds(10);
+    curve.setLengthSeconds(5);
+    curve.setFactor(3);
+    TrafficShape spike = curve.shape(20, 1000);
+    assertThat(spike.rate(10_999), is(20d));
+    assertThat(spike.rate(11_000), is(60d));
+    assertThat(spike.rate(16_000), is(20d));
+
+    curve.setCurve("lunar");
+    assertThrows(IllegalArgumentException.class, () -> curve.shape(1, 0));
+  }
+
+  private static long millis(String time) {
+    return Instant.parse(time).toEpochMilli();
+  }
+}